@@ -18,8 +18,10 @@ package com.github.alexandergillon.streamlet.broadcast;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class BroadcastApplication {
 
     public static void main(String[] args) {
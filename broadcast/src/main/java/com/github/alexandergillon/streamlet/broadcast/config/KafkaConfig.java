@@ -17,11 +17,16 @@
 package com.github.alexandergillon.streamlet.broadcast.config;
 
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.util.Map;
 
 @Configuration
 // If Kafka is enabled when unit testing, context will never come up because application cannot connect to broker
@@ -31,9 +36,32 @@ public class KafkaConfig {
     @Value("${streamlet.kafka.broadcast-topic.name}")
     private String broadcastTopicName;
 
+    @Value("${streamlet.kafka.payload-producer.linger-ms:5}")
+    private int payloadLingerMillis;
+
+    @Value("${streamlet.kafka.payload-producer.batch-size:65536}")
+    private int payloadBatchBytes;
+
     @Bean
     public NewTopic broadcastTopic() {
         return TopicBuilder.name(broadcastTopicName).partitions(1).replicas(1).build();
     }
 
+    /** Template for relaying proposals and votes, with the producer's defaults, so that consensus is never delayed. */
+    @Bean
+    public KafkaTemplate<String, String> kafkaTemplate(ProducerFactory<String, String> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    /**
+     * Template for sending user payloads, with its own producer, which waits a little to batch records together. Many
+     * payloads can be submitted at once, but none of them are urgent.
+     */
+    @Bean
+    public KafkaTemplate<String, String> payloadKafkaTemplate(ProducerFactory<String, String> producerFactory) {
+        return new KafkaTemplate<>(producerFactory, Map.of(
+                ProducerConfig.LINGER_MS_CONFIG, payloadLingerMillis,
+                ProducerConfig.BATCH_SIZE_CONFIG, payloadBatchBytes));
+    }
+
 }
@@ -16,39 +16,292 @@
  */
 package com.github.alexandergillon.streamlet.broadcast.controllers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexandergillon.streamlet.broadcast.models.BatchSubmissionResponse;
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.broadcast.models.PayloadRequest;
+import com.github.alexandergillon.streamlet.broadcast.models.SubmissionResponse;
+import com.github.alexandergillon.streamlet.broadcast.models.SubmissionResult;
+import com.github.alexandergillon.streamlet.broadcast.services.BackPressureService;
 import com.github.alexandergillon.streamlet.broadcast.services.KafkaService;
+import com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /** Controller to allow users to propose messages to be included in the blockchain. */
 @RestController
 @RequiredArgsConstructor
 @Slf4j
 public class PayloadController {
 
+    /** Media type of newline-delimited JSON, for streamed submissions. */
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    // Constants from Spring properties
+    @Value("${streamlet.send.timeout-ms:5000}")
+    private long sendTimeoutMillis;
+    @Value("${streamlet.send.batch.max-messages:10000}")
+    private int maxBatchMessages;
+    @Value("${streamlet.send.stream.max-messages:1000000}")
+    private int maxStreamMessages;
+
     // Autowired dependencies via RequiredArgsConstructor
     private final KafkaService kafkaService;
+    private final BackPressureService backPressureService;
+
+    // Instance variables
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
-     * Endpoint to allow users to submit messages to be included in the blockchain.
+     * Endpoint to allow users to submit messages to be included in the blockchain. The response is sent once the Kafka
+     * broker has acknowledged the message for every node it is sent to, without holding a request thread meanwhile.
      *
      * @param request Details about the message to be submitted. Username must not contain a colon character.
-     * @return A small message on success. Status codes: 200 OK if the message was sent to nodes, or 400 Bad Request if
-     * the request is missing parameters.
+     * @return The ID of the submitted message, and its timestamp. Status codes: 200 OK if the message was sent to nodes,
+     * 400 Bad Request if the request is missing parameters, 503 Service Unavailable if nodes have too many pending
+     * messages (in which case the request should be retried later), 504 Gateway Timeout if the broker did not
+     * acknowledge the message within streamlet.send.timeout-ms, or 500 Internal Server Error if sending failed. After
+     * a 504, the message may still reach nodes.
+     */
+    @PostMapping(value = "/send", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<SubmissionResponse> processMessage(@RequestBody PayloadRequest request) {
+        String error = validate(request);
+        if (error != null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, error);
+        checkBackPressure();
+
+        PayloadMessage message = new PayloadMessage(request.getUsername(), request.getText(), System.currentTimeMillis());
+        String submissionId = ProtocolUtils.messageId(message);
+        return kafkaService.broadcastPayload(message)
+                .orTimeout(sendTimeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((ignored, e) -> {
+                    if (e == null) {
+                        return new SubmissionResponse(submissionId, message.getTimestamp(), "Message submitted for inclusion in the blockchain.");
+                    }
+
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        log.warn("Timed out waiting for Kafka to acknowledge submission {}", submissionId);
+                        throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Timed out waiting for submission " + submissionId + " to be acknowledged.");
+                    }
+                    log.error("Failed to send submission " + submissionId, cause);
+                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to send submission " + submissionId + ".");
+                });
+    }
+
+    /**
+     * Endpoint to allow users to submit many messages to be included in the blockchain at once. Each message is
+     * validated as by /send: valid messages are sent to nodes, and invalid ones are reported in the response. The
+     * response is sent once the Kafka broker has acknowledged every message: messages that it does not acknowledge
+     * within streamlet.send.timeout-ms, or that fail to send, are reported as not accepted (and, after a timeout, may
+     * still reach nodes).
+     *
+     * @param requests The messages to be submitted, as a JSON array.
+     * @return The number of messages accepted and rejected, and the result for each message, with the ID of each
+     * accepted message. Status codes: 200 OK if the batch was processed (even if some messages were rejected), 413
+     * Payload Too Large if the batch has more than streamlet.send.batch.max-messages messages, or 503 Service
+     * Unavailable if nodes have too many pending messages.
+     */
+    @PostMapping(value = "/send/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public BatchSubmissionResponse processBatch(@RequestBody List<PayloadRequest> requests) {
+        if (requests.size() > maxBatchMessages) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Batch cannot contain more than " + maxBatchMessages + " messages.");
+        }
+        checkBackPressure();
+
+        BatchBuilder batch = new BatchBuilder();
+        for (PayloadRequest request : requests) {
+            batch.add(request, validate(request));
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Endpoint to allow users to stream messages to be included in the blockchain, as newline-delimited JSON (one
+     * message per line, in the same format as for /send). Messages are validated as they are read, and sent to nodes
+     * in batches of streamlet.send.batch.max-messages, so the whole upload is never held in memory. As for
+     * /send/batch, messages are only reported as accepted once the Kafka broker has acknowledged them.
+     *
+     * @param body The request body.
+     * @return The number of messages accepted and rejected, and the result for each non-blank line. Once
+     * streamlet.send.stream.max-messages lines have been read, the rest of the stream is not read, and the response is
+     * marked as truncated. Status codes: 200 OK if the stream was processed (even if some messages were rejected, or
+     * it was truncated), or 503 Service Unavailable if nodes have too many pending messages.
+     * @throws IOException If the request body cannot be read.
      */
-    @PostMapping("/send")
-    public String processMessage(@RequestBody PayloadRequest request) {
-        if (request.getUsername() == null || request.getText() == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
-        if (request.getUsername().contains(":")) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username cannot contain ':'.");
+    @PostMapping(value = "/send/stream", consumes = APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public BatchSubmissionResponse processStream(InputStream body) throws IOException {
+        checkBackPressure();
+
+        BatchBuilder batch = new BatchBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            if (batch.size() >= maxStreamMessages) {
+                log.info("Truncating streamed submission after {} messages", maxStreamMessages);
+                batch.truncate();
+                break;
+            }
+
+            try {
+                PayloadRequest request = objectMapper.readValue(line, PayloadRequest.class);
+                batch.add(request, validate(request));
+            } catch (JsonProcessingException e) {
+                batch.add(null, "Malformed JSON.");
+            }
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Validates a submitted message.
+     *
+     * @param request A submitted message.
+     * @return Why the message is invalid, or null if it is valid.
+     */
+    private static String validate(PayloadRequest request) {
+        if (request == null || request.getUsername() == null || request.getText() == null) return "Username and text are required.";
+        if (request.getUsername().contains(":")) return "Username cannot contain ':'.";
+        return null;
+    }
+
+    /** Throws an exception, causing a 503 Service Unavailable response, if nodes have too many pending messages. */
+    private void checkBackPressure() {
+        if (backPressureService.isBackPressured()) {
+            log.info("Rejecting submission: nodes report back-pressure");
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Nodes are busy, try again later.");
+        }
+    }
+
+    /** Collects the results of a batch submission, and sends accepted messages to nodes in batches. */
+    private class BatchBuilder {
+
+        /**
+         * Messages that were sent together, waiting to be acknowledged.
+         *
+         * @param indices Index of each message in the submission.
+         * @param sends Future for each message, which completes when the broker acknowledges it.
+         * @param deadlineMillis Time by which the broker must have acknowledged the messages.
+         */
+        private record Chunk(List<Integer> indices, List<CompletableFuture<Void>> sends, long deadlineMillis) { }
+
+        private final List<SubmissionResult> results = new ArrayList<>();
+        private final List<PayloadMessage> pending = new ArrayList<>();
+        private final List<Integer> pendingIndices = new ArrayList<>();
+        private final List<Chunk> chunks = new ArrayList<>();
+        private int accepted = 0;
+        private boolean truncated = false;
+
+        /** @return The number of messages added so far. */
+        int size() {
+            return results.size();
+        }
+
+        /**
+         * Adds a message to the batch.
+         *
+         * @param request The message.
+         * @param error Why the message was rejected, or null if it is valid (and should be sent).
+         */
+        void add(PayloadRequest request, String error) {
+            if (error != null) {
+                results.add(new SubmissionResult(results.size(), false, null, error));
+                return;
+            }
+
+            PayloadMessage message = new PayloadMessage(request.getUsername(), request.getText(), System.currentTimeMillis());
+            pendingIndices.add(results.size());
+            results.add(new SubmissionResult(results.size(), true, ProtocolUtils.messageId(message), null));
+            accepted++;
+            pending.add(message);
+            if (pending.size() >= maxBatchMessages) flush();
+        }
+
+        /** Marks the batch as truncated, i.e. some messages were not read. */
+        void truncate() {
+            truncated = true;
+        }
+
+        /**
+         * @return The response for this batch, once all remaining accepted messages are sent, and the broker has
+         * acknowledged them (or timed out).
+         */
+        BatchSubmissionResponse finish() {
+            flush();
+            for (Chunk chunk : chunks) awaitAcknowledgement(chunk);
+            return new BatchSubmissionResponse(accepted, results.size() - accepted, truncated, results);
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) return;
+            List<CompletableFuture<Void>> sends = kafkaService.broadcastPayloads(new ArrayList<>(pending));
+            chunks.add(new Chunk(new ArrayList<>(pendingIndices), sends, System.currentTimeMillis() + sendTimeoutMillis));
+            pending.clear();
+            pendingIndices.clear();
+        }
+
+        /**
+         * Waits, until its deadline, for the broker to acknowledge a chunk, then marks its messages that were not
+         * acknowledged as not accepted.
+         *
+         * @param chunk A chunk of messages that were sent.
+         */
+        private void awaitAcknowledgement(Chunk chunk) {
+            long remainingMillis = Long.max(0, chunk.deadlineMillis() - System.currentTimeMillis());
+            try {
+                CompletableFuture.allOf(chunk.sends().toArray(new CompletableFuture<?>[0])).get(remainingMillis, TimeUnit.MILLISECONDS);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // Found below, message by message
+            }
+
+            int failed = 0;
+            for (int i = 0; i < chunk.indices().size(); i++) {
+                CompletableFuture<Void> send = chunk.sends().get(i);
+                String error = !send.isDone() ? "Timed out waiting for the message to be acknowledged."
+                        : send.isCompletedExceptionally() ? "Failed to send message." : null;
+                if (error != null) {
+                    reject(chunk.indices().get(i), error);
+                    failed++;
+                }
+            }
+            log.warn("{} message(s) of a batch submission were not acknowledged by Kafka", failed);
+        }
+
+        /**
+         * Marks a message that was sent as not accepted. Its ID is kept, as after a timeout, it may still reach nodes.
+         *
+         * @param index The index of the message in the submission.
+         * @param error Why the message was not accepted.
+         */
+        private void reject(int index, String error) {
+            results.set(index, new SubmissionResult(index, false, results.get(index).getSubmissionId(), error));
+            accepted--;
+        }
 
-        kafkaService.broadcastPayload(request.getUsername(), request.getText());
-        return "Message submitted for inclusion in the blockchain.";
     }
 
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/** POJO to represent the response to a batch submission of messages, for serialization by Spring. */
+@Getter
+@AllArgsConstructor
+@ToString
+public class BatchSubmissionResponse {
+
+    /** Number of messages that were accepted and sent to nodes. */
+    private int accepted;
+
+    /** Number of messages that were rejected. */
+    private int rejected;
+
+    /** Whether the submission had more messages than allowed, in which case those beyond the limit were not read. */
+    private boolean truncated;
+
+    /** Result for each message, in submission order. */
+    private List<SubmissionResult> results;
+
+}
@@ -37,7 +37,7 @@ public class BroadcastMessage {
     /** Sender of this message. No byzantine behavior allowed. */
     private int sender;
 
-    /** Type of this message: either 'propose' or 'vote'. */
+    /** Type of this message: 'propose', 'vote' or 'payload'. */
     private String messageType;
 
     /**
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/** POJO to represent the response to a submission of a single message, for serialization by Spring. */
+@Getter
+@AllArgsConstructor
+@ToString
+public class SubmissionResponse {
+
+    /**
+     * ID of the submitted message (see {@link com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils#messageId(PayloadMessage)}),
+     * which can be passed to a node's /messages/{id}/status endpoint.
+     */
+    private String submissionId;
+
+    /** Timestamp given to the message, in milliseconds since the epoch. */
+    private long timestamp;
+
+    /** A small human-readable message. */
+    private String message;
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/** POJO to represent whether one message of a batch submission was accepted, for serialization by Spring. */
+@Getter
+@AllArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SubmissionResult {
+
+    /** Index of the message in the submission (for NDJSON, counting non-blank lines from 0). */
+    private int index;
+
+    /** Whether the message was accepted, and the Kafka broker acknowledged sending it to nodes. */
+    private boolean accepted;
+
+    /**
+     * ID of the message if it was accepted (see
+     * {@link com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils#messageId(PayloadMessage)}), which can
+     * be passed to a node's /messages/{id}/status endpoint, or null if it was rejected before being sent.
+     */
+    private String submissionId;
+
+    /** Why the message was not accepted, or null if it was. */
+    private String error;
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services;
+
+/** Service to track whether nodes are overloaded with pending messages, so that submissions can be rejected. */
+public interface BackPressureService {
+
+    /**
+     * @return Whether any node has reported back-pressure (i.e. its buffer of pending messages is nearly full) the
+     * last time it was polled. Always false if no nodes are configured to be polled.
+     */
+    boolean isBackPressured();
+
+    /** Polls nodes for their back-pressure status. Called periodically. */
+    void pollNodes();
+
+}
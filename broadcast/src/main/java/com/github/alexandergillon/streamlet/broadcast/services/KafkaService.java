@@ -17,6 +17,10 @@
 package com.github.alexandergillon.streamlet.broadcast.services;
 
 import com.github.alexandergillon.streamlet.broadcast.models.BroadcastMessage;
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /** Service to handle communication with Kafka (consuming messages and broadcasting them on the appropriate topics). */
 public interface KafkaService {
@@ -29,11 +33,25 @@ public interface KafkaService {
     void processBroadcast(BroadcastMessage message);
 
     /**
-     * Broadcasts a proposed payload to all nodes.
+     * Broadcasts a proposed payload to nodes: either all of them, or only upcoming leaders (see
+     * {@link PayloadRoutingService}).
+     *
+     * @param message The message to broadcast.
+     * @return A future that completes when the broker has acknowledged the message for every node it was sent to, or
+     * completes exceptionally if any of those sends fails.
+     */
+    CompletableFuture<Void> broadcastPayload(PayloadMessage message);
+
+    /**
+     * Broadcasts many proposed payloads to nodes, as by {@link #broadcastPayload(PayloadMessage)}. Records are handed
+     * to the Kafka producer back-to-back, so that it can batch them, and acknowledgements are not waited for.
      *
-     * @param username The username of the user who sent this message.
-     * @param text Message text.
+     * @param messages The messages to broadcast.
+     * @return A future for each message, in order, as returned by {@link #broadcastPayload(PayloadMessage)}.
      */
-    void broadcastPayload(String username, String text);
+    List<CompletableFuture<Void>> broadcastPayloads(List<PayloadMessage> messages);
+
+    /** Sends payloads which upcoming leaders did not propose in time to all other nodes. Called periodically. */
+    void sendExpiredPayloads();
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services;
+
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Service to decide which nodes a user's message is sent to. Messages are either sent to every node, or only to the
+ * leaders of the next few epochs (as only a leader can propose a message), falling back to every node if none of those
+ * leaders include the message in a proposal in time.
+ */
+public interface PayloadRoutingService {
+
+    /**
+     * Chooses the nodes that a new message should be sent to. If the message is not sent to every node, it is tracked
+     * until it is seen in a proposal (see {@link #observeProposal(int, byte[])}).
+     *
+     * @param message A message that is about to be sent to nodes.
+     * @return The IDs of the nodes to send the message to.
+     */
+    Set<Integer> route(PayloadMessage message);
+
+    /**
+     * Notifies this service of a proposal that passed through the broadcast server. Used to keep track of the
+     * current epoch, and of which tracked messages have been included in a proposal.
+     *
+     * @param epoch The epoch of the proposed block.
+     * @param payload The payload of the proposed block.
+     */
+    void observeProposal(int epoch, byte[] payload);
+
+    /**
+     * Stops tracking messages which were not included in a proposal by their deadline.
+     *
+     * @return Each such message, with the IDs of the nodes it has not yet been sent to.
+     */
+    Map<PayloadMessage, Set<Integer>> takeExpired();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.alexandergillon.streamlet.broadcast.services.BackPressureService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Implementation of a {@link BackPressureService}, which polls the {@code /mempool} endpoint of each configured node.
+ * A node that cannot be reached is ignored, so that one node being down does not block all submissions.
+ */
+@Slf4j
+@Service
+public class BackPressureServiceImpl implements BackPressureService {
+
+    // Constants from Spring properties
+    @Value("${streamlet.back-pressure.node-urls:}")
+    private List<String> nodeUrls;
+
+    // Instance variables
+    private final RestTemplate restTemplate;
+    private volatile boolean backPressured = false;
+
+    /**
+     * Constructor.
+     *
+     * @param restTemplateBuilder Builder for the client used to poll nodes.
+     * @param timeoutMillis Connect and read timeout when polling a node, in milliseconds.
+     */
+    public BackPressureServiceImpl(RestTemplateBuilder restTemplateBuilder,
+                                   @Value("${streamlet.back-pressure.timeout-ms:500}") long timeoutMillis) {
+        this.restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(timeoutMillis))
+                .setReadTimeout(Duration.ofMillis(timeoutMillis))
+                .build();
+    }
+
+    @Override
+    public boolean isBackPressured() {
+        return backPressured;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${streamlet.back-pressure.poll-interval-ms:1000}")
+    public void pollNodes() {
+        boolean anyBackPressured = false;
+        for (String nodeUrl : nodeUrls) {
+            if (nodeUrl.isBlank()) continue;
+            try {
+                JsonNode status = restTemplate.getForObject(nodeUrl + "/mempool", JsonNode.class);
+                if (status != null && status.path("backPressure").asBoolean(false)) {
+                    log.info("Node at {} reports back-pressure: {}", nodeUrl, status);
+                    anyBackPressured = true;
+                }
+            } catch (RestClientException e) {
+                log.debug("Could not poll node at {} for back-pressure: {}", nodeUrl, e.getMessage());
+            }
+        }
+        backPressured = anyBackPressured;
+    }
+
+}
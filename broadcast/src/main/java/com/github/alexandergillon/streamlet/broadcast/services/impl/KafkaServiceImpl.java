@@ -22,14 +22,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.alexandergillon.streamlet.broadcast.models.BroadcastMessage;
 import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.broadcast.services.KafkaService;
+import com.github.alexandergillon.streamlet.broadcast.services.PayloadRoutingService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 /** Implementation of a {@link KafkaService}. */
 @Slf4j
 @Service
@@ -41,6 +50,8 @@ public class KafkaServiceImpl implements KafkaService {
     // Constants from Spring properties
     @Value("${streamlet.participants}")
     private int numNodes;
+    @Value("${streamlet.replicas:0}")
+    private int numReplicas;
     @Value("${streamlet.kafka.payload-topic.prefix}")
     private String payloadTopicPrefix;
     @Value("${streamlet.kafka.propose-topic.prefix}")
@@ -48,8 +59,12 @@ public class KafkaServiceImpl implements KafkaService {
     @Value("${streamlet.kafka.vote-topic.prefix}")
     private String voteTopicPrefix;
 
-    // Autowired dependencies (via RequiredArgsConstructor)
+    // Autowired dependencies (via RequiredArgsConstructor). Templates are matched to beans by name.
+    /** Template for proposals and votes. */
     private final KafkaTemplate<String, String> kafkaTemplate;
+    /** Template for user payloads, whose producer batches records. */
+    private final KafkaTemplate<String, String> payloadKafkaTemplate;
+    private final PayloadRoutingService payloadRoutingService;
 
     // Instance variables
     private final ObjectMapper objectMapper = new ObjectMapper();
@@ -61,6 +76,7 @@ public class KafkaServiceImpl implements KafkaService {
         switch (message.getMessageType()) {
             case "propose" -> broadcastProposal(message.getSender(), message.getMessage());
             case "vote" -> broadcastVote(message.getSender(), message.getMessage());
+            case "payload" -> relayPayload(message.getSender(), message.getMessage());
             default -> {
                 log.error("Received broadcast message with unrecognized message type: " + message);
                 throw new RuntimeException("Received broadcast message with unrecognized message type: " + message);
@@ -69,14 +85,51 @@ public class KafkaServiceImpl implements KafkaService {
     }
 
     @Override
-    public void broadcastPayload(String username, String text) {
+    public CompletableFuture<Void> broadcastPayload(PayloadMessage message) {
+        Set<Integer> nodes = payloadRoutingService.route(message);
+        log.info("Broadcasting message from {} with text {} to nodes {}", message.getUsername(), message.getText(), nodes);
+        return sendPayload(message, nodes);
+    }
+
+    @Override
+    public List<CompletableFuture<Void>> broadcastPayloads(List<PayloadMessage> messages) {
+        log.info("Broadcasting batch of {} messages", messages.size());
+        List<CompletableFuture<Void>> sends = new ArrayList<>(messages.size());
+        for (PayloadMessage message : messages) {
+            try {
+                sends.add(sendPayload(message, payloadRoutingService.route(message)));
+            } catch (RuntimeException e) {
+                // Only this message failed: the rest of the batch can still be sent
+                sends.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return sends;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${streamlet.payload-routing.fallback-check-ms:100}")
+    public void sendExpiredPayloads() {
+        for (Map.Entry<PayloadMessage, Set<Integer>> expired : payloadRoutingService.takeExpired().entrySet()) {
+            sendPayload(expired.getKey(), expired.getValue());
+        }
+    }
+
+    /**
+     * Sends a payload message to some nodes.
+     *
+     * @param message The message to send.
+     * @param nodes The IDs of the nodes to send it to.
+     * @return A future that completes when the broker has acknowledged every send.
+     */
+    private CompletableFuture<Void> sendPayload(PayloadMessage message, Set<Integer> nodes) {
         try {
-            PayloadMessage message = new PayloadMessage(username, text, System.currentTimeMillis());
             String json = objectMapper.writeValueAsString(message);
-            log.info("Broadcasting message from {} with text {} to nodes", username, text);
-            for (int i = 0; i < numNodes; i++) {
-                kafkaTemplate.send(payloadTopicPrefix + i, json);  // TODO: fault tolerance - check it got to broker
+            CompletableFuture<?>[] sends = new CompletableFuture<?>[nodes.size()];
+            int i = 0;
+            for (int node : nodes) {
+                sends[i++] = payloadKafkaTemplate.send(payloadTopicPrefix + node, json);
             }
+            return CompletableFuture.allOf(sends);
         } catch (JsonProcessingException e) {
             log.error("Error processing JSON", e);
             throw new RuntimeException(e);
@@ -84,15 +137,56 @@ public class KafkaServiceImpl implements KafkaService {
     }
 
     /**
-     * Broadcasts a proposal to all nodes but the proposer.
+     * Relays a payload message that a user submitted directly to a node to all other nodes. The payload is not routed,
+     * as the node that received it may already be about to propose it. Replicas never propose, so they are skipped.
+     *
+     * @param receiver The node that the message was submitted to.
+     * @param payloadJson The payload message, as a JSON string.
+     */
+    private void relayPayload(int receiver, JsonNode payloadJson) {
+        verifyPayload(payloadJson);
+
+        for (int i = 0; i < numNodes; i++) {
+            if (i == receiver) continue;
+            payloadKafkaTemplate.send(payloadTopicPrefix + i, payloadJson.toString()); // TODO: fault tolerance - check it got to broker
+        }
+    }
+
+    /**
+     * Performs a number of validations on a payload message. If any of these fail, throws an exception, causing
+     * the payload to not be relayed and an error logged.
+     *
+     * @param payloadJson The payload message, as a JSON string.
+     */
+    private void verifyPayload(JsonNode payloadJson) {
+        if (payloadJson.get("username") == null ||
+                payloadJson.get("text") == null ||
+                payloadJson.get("timestamp") == null) {
+            throw new IllegalArgumentException("Payload message is not well-formed (has missing fields):" + payloadJson);
+        }
+
+        if (!payloadJson.get("username").isTextual() ||
+                !payloadJson.get("text").isTextual() ||
+                !payloadJson.get("timestamp").isIntegralNumber()) {
+            throw new IllegalArgumentException("Payload message is not well-formed (has incorrect types):" + payloadJson);
+        }
+
+        if (payloadJson.get("username").textValue().contains(":")) {
+            throw new IllegalArgumentException("Payload message has a username containing ':':" + payloadJson);
+        }
+    }
+
+    /**
+     * Broadcasts a proposal to all nodes but the proposer, including replicas.
      *
      * @param proposer The sender of the proposal.
      * @param proposalJson The proposal message, as a JSON string.
      */
     private void broadcastProposal(int proposer, JsonNode proposalJson) {
         verifyProposal(proposalJson);
+        observeProposal(proposalJson);
 
-        for (int i = 0; i < numNodes; i++) {
+        for (int i = 0; i < numNodes + numReplicas; i++) {
             if (i == proposer) continue;
             kafkaTemplate.send(proposeTopicPrefix + i, proposalJson.toString()); // TODO: fault tolerance - check it got to broker
         }
@@ -125,7 +219,23 @@ public class KafkaServiceImpl implements KafkaService {
     }
 
     /**
-     * Broadcasts a vote to all nodes but the voter.
+     * Lets the payload routing service know about a proposal, so that it can track the epoch and which routed messages
+     * have been proposed.
+     *
+     * @param proposalJson The proposal message, as a JSON string. Must have been verified.
+     */
+    private void observeProposal(JsonNode proposalJson) {
+        try {
+            byte[] payload = Base64.getDecoder().decode(proposalJson.at("/block/payload").textValue());
+            payloadRoutingService.observeProposal(proposalJson.at("/block/epoch").intValue(), payload);
+        } catch (IllegalArgumentException e) {
+            // Nodes validate payloads themselves: all this loses is routing information
+            log.warn("Proposal has a payload that is not valid base-64: {}", proposalJson);
+        }
+    }
+
+    /**
+     * Broadcasts a vote to all nodes but the voter, including replicas.
      *
      * @param voter The sender of the vote.
      * @param voteJson The vote message, as a JSON string.
@@ -133,7 +243,7 @@ public class KafkaServiceImpl implements KafkaService {
     private void broadcastVote(int voter, JsonNode voteJson) {
         verifyVote(voteJson);
 
-        for (int i = 0; i < numNodes; i++) {
+        for (int i = 0; i < numNodes + numReplicas; i++) {
             if (i == voter) continue;
             kafkaTemplate.send(voteTopicPrefix + i, voteJson.toString()); // TODO: fault tolerance - check it got to broker
         }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services.impl;
+
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.broadcast.services.PayloadRoutingService;
+import com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Implementation of a {@link PayloadRoutingService}. In {@code leaders} mode, the current epoch is estimated from the
+ * proposals that pass through the broadcast server, and messages are sent to the leaders of the next
+ * {@code streamlet.payload-routing.leaders} epochs. A message not seen in a proposal by the end of the last of those
+ * epochs (plus one epoch, for the proposal to arrive) is then sent to every other node. Until the first proposal is
+ * seen, the epoch is unknown, so messages are sent to every node.
+ * <p>
+ * {@code streamlet.payload-routing.epoch-duration-ms} should match the nodes' epoch duration, but the estimate is
+ * corrected by every proposal of a later epoch, so it only drifts while no proposals are seen.
+ */
+@Slf4j
+@Service
+public class PayloadRoutingServiceImpl implements PayloadRoutingService {
+
+    /** Routing modes. */
+    private static final String MODE_BROADCAST = "broadcast";
+    private static final String MODE_LEADERS = "leaders";
+
+    // Constants from Spring properties
+    @Value("${streamlet.participants}")
+    private int numNodes;
+    @Value("${streamlet.payload-routing.mode:broadcast}")
+    private String mode;
+    @Value("${streamlet.payload-routing.leaders:2}")
+    private int numLeaders;
+    @Value("${streamlet.payload-routing.epoch-duration-ms:2000}")
+    private long epochDurationMillis;
+
+    /** A message that has only been sent to some nodes. */
+    private record Route(Set<Integer> sentTo, long deadlineMillis) { }
+
+    // Instance variables
+    /** Latest epoch seen in a proposal, or -1 if none has been seen. Guarded by this. */
+    private int lastEpoch = -1;
+    /** Time at which {@link #lastEpoch} was seen. Guarded by this. */
+    private long lastEpochMillis;
+    /** Messages that have only been sent to some nodes, and have not yet been seen in a proposal. Guarded by this. */
+    private final Map<PayloadMessage, Route> routes = new HashMap<>();
+
+    @Override
+    public Set<Integer> route(PayloadMessage message) {
+        return route(message, System.currentTimeMillis());
+    }
+
+    @Override
+    public void observeProposal(int epoch, byte[] payload) {
+        observeProposal(epoch, payload, System.currentTimeMillis());
+    }
+
+    @Override
+    public Map<PayloadMessage, Set<Integer>> takeExpired() {
+        return takeExpired(System.currentTimeMillis());
+    }
+
+    /** As {@link #route(PayloadMessage)}, at a given time. */
+    synchronized Set<Integer> route(PayloadMessage message, long nowMillis) {
+        if (!mode.equals(MODE_LEADERS) || lastEpoch < 0) return allNodes();
+
+        int currentEpoch = estimateEpoch(nowMillis);
+        Set<Integer> leaders = new LinkedHashSet<>();
+        for (int epoch = currentEpoch + 1; epoch <= currentEpoch + numLeaders; epoch++) {
+            leaders.add(ProtocolUtils.leaderForEpoch(epoch, numNodes));
+        }
+        long deadlineMillis = lastEpochMillis + (currentEpoch + numLeaders + 1L - lastEpoch) * epochDurationMillis;
+        routes.put(message, new Route(leaders, deadlineMillis));
+        log.debug("Routing message from {} to leaders {} of epochs after {}", message.getUsername(), leaders, currentEpoch);
+        return leaders;
+    }
+
+    /** As {@link #observeProposal(int, byte[])}, at a given time. */
+    synchronized void observeProposal(int epoch, byte[] payload, long nowMillis) {
+        // Every later epoch resyncs the estimate, even one behind it, so that the estimate does not drift when the
+        // configured epoch duration is off. Proposals of earlier epochs can arrive late, so they are ignored.
+        if (epoch > lastEpoch) {
+            lastEpoch = epoch;
+            lastEpochMillis = nowMillis;
+        }
+        if (routes.isEmpty()) return;
+        for (PayloadMessage message : ProtocolUtils.decodeMessages(payload)) {
+            routes.remove(message);
+        }
+    }
+
+    /** As {@link #takeExpired()}, at a given time. */
+    synchronized Map<PayloadMessage, Set<Integer>> takeExpired(long nowMillis) {
+        Map<PayloadMessage, Set<Integer>> expired = new HashMap<>();
+        Iterator<Map.Entry<PayloadMessage, Route>> iterator = routes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<PayloadMessage, Route> entry = iterator.next();
+            if (entry.getValue().deadlineMillis() > nowMillis) continue;
+            Set<Integer> remaining = new TreeSet<>(allNodes());
+            remaining.removeAll(entry.getValue().sentTo());
+            expired.put(entry.getKey(), remaining);
+            iterator.remove();
+        }
+        if (!expired.isEmpty()) log.info("{} message(s) were not proposed in time, sending to all nodes", expired.size());
+        return expired;
+    }
+
+    /**
+     * @param nowMillis The current time.
+     * @return An estimate of the current epoch, from the last epoch seen in a proposal. Must be called with this locked.
+     */
+    private int estimateEpoch(long nowMillis) {
+        return lastEpoch + (int) ((nowMillis - lastEpochMillis) / epochDurationMillis);
+    }
+
+    /** @return The IDs of all nodes. */
+    private Set<Integer> allNodes() {
+        return IntStream.range(0, numNodes).boxed().collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+}
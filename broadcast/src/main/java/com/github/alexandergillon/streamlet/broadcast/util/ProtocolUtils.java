@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.util;
+
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Utility class that mirrors the parts of the nodes' protocol that the broadcast server needs in order to route
+ * payloads and identify submissions: the leader schedule, and the payload format. Must be kept in step with the node's
+ * {@code CryptographyServiceImpl.leaderForEpoch}, {@code PayloadBatch} and {@code PayloadMessage}.
+ */
+public class ProtocolUtils {
+
+    /** First byte of a batch payload. */
+    private static final byte BATCH_MARKER = 0x00;
+    /** First byte of a message in the binary format. */
+    private static final byte MESSAGE_VERSION_1 = 0x01;
+
+    /** SHA-256 digest for each thread. */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm provider.");
+        }
+    });
+
+    private ProtocolUtils() {
+        throw new IllegalStateException("Utility class should not be instantiated.");
+    }
+
+    /**
+     * Computes the leader of an epoch, in the same way as the nodes do.
+     *
+     * @param epoch An epoch.
+     * @param numNodes The number of nodes in the network.
+     * @return The ID of the leader of that epoch.
+     */
+    public static int leaderForEpoch(int epoch, int numNodes) {
+        byte[] epochBytes = { (byte) (epoch >>> 24), (byte) (epoch >>> 16), (byte) (epoch >>> 8), (byte) epoch };
+        byte[] hash = SHA_256.get().digest(epochBytes);
+        int pseudoRandomNumber = (hash[0] << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+        int modulus = pseudoRandomNumber % numNodes;
+        // modulus may be negative, if pseudoRandomNumber was negative - this step makes it positive in all cases
+        return (modulus + numNodes) % numNodes;
+    }
+
+    /**
+     * Decodes the messages in a block payload. Only payloads made of binary-format messages are understood: this is
+     * used to spot messages the broadcast server has routed, which are always recent enough to be in that format.
+     *
+     * @param payload A block payload.
+     * @return The messages in that payload, or an empty list if it is empty, malformed or in an older format.
+     */
+    public static List<PayloadMessage> decodeMessages(byte[] payload) {
+        try {
+            if (payload.length == 0) return List.of();
+            if (payload[0] == MESSAGE_VERSION_1) return List.of(decodeMessage(ByteBuffer.wrap(payload)));
+            if (payload[0] != BATCH_MARKER) return List.of();
+
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.get();  // marker
+            int count = buffer.getInt();
+            if (count < 0) return List.of();
+            List<PayloadMessage> messages = new ArrayList<>(Integer.min(count, buffer.remaining() / Integer.BYTES));
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) return List.of();
+                ByteBuffer encodedMessage = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                if (length == 0 || encodedMessage.get(0) != MESSAGE_VERSION_1) return List.of();
+                messages.add(decodeMessage(encodedMessage));
+            }
+            return messages;
+        } catch (RuntimeException | CharacterCodingException e) {
+            // Buffer underflows and malformed lengths both mean the payload is not something we routed
+            return List.of();
+        }
+    }
+
+    /**
+     * Encodes a message in the binary format, as nodes do when they put it in a block.
+     *
+     * @param message A message.
+     * @return That message, in the binary format.
+     */
+    public static byte[] encodeMessage(PayloadMessage message) {
+        byte[] usernameBytes = message.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = message.getText().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + varintLength(usernameBytes.length) + usernameBytes.length
+                + varintLength(textBytes.length) + textBytes.length + Long.BYTES);
+        buffer.put(MESSAGE_VERSION_1);
+        putVarint(buffer, usernameBytes.length);
+        buffer.put(usernameBytes);
+        putVarint(buffer, textBytes.length);
+        buffer.put(textBytes);
+        buffer.putLong(message.getTimestamp());
+        return buffer.array();
+    }
+
+    /**
+     * Computes the ID of a message: the SHA-256 hash of its binary encoding, as a lowercase hex string. Nodes can
+     * compute the same ID from the messages in their blocks, so it identifies a submission across the network.
+     *
+     * @param message A message.
+     * @return The ID of that message.
+     */
+    public static String messageId(PayloadMessage message) {
+        return HexFormat.of().formatHex(SHA_256.get().digest(encodeMessage(message)));
+    }
+
+    /**
+     * Decodes a binary-format message.
+     *
+     * @param buffer A buffer containing exactly the message, positioned at its start.
+     * @return The message.
+     * @throws CharacterCodingException If the username or text is not valid UTF-8.
+     * @throws RuntimeException If the message is malformed in any other way.
+     */
+    private static PayloadMessage decodeMessage(ByteBuffer buffer) throws CharacterCodingException {
+        buffer.get();  // version
+        String username = getString(buffer);
+        String text = getString(buffer);
+        if (buffer.remaining() != Long.BYTES) throw new IllegalArgumentException("Message has a missing timestamp or trailing bytes.");
+        return new PayloadMessage(username, text, buffer.getLong());
+    }
+
+    /**
+     * Reads a varint-length-prefixed UTF-8 string.
+     *
+     * @param buffer The buffer to read from.
+     * @return The string.
+     * @throws CharacterCodingException If the string is not valid UTF-8.
+     */
+    private static String getString(ByteBuffer buffer) throws CharacterCodingException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) throw new IllegalArgumentException("Message has a malformed length.");
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length < 0 || length > buffer.remaining()) throw new IllegalArgumentException("Message has an invalid length.");
+
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.newDecoder().decode(slice).toString();
+    }
+
+    /**
+     * @param value A non-negative integer.
+     * @return The number of bytes in the varint encoding of that integer.
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    /**
+     * Writes a varint.
+     *
+     * @param buffer The buffer to write to.
+     * @param value A non-negative integer.
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+}
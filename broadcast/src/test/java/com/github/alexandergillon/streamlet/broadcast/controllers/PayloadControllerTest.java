@@ -16,15 +16,28 @@
  */
 package com.github.alexandergillon.streamlet.broadcast.controllers;
 
+import com.github.alexandergillon.streamlet.broadcast.services.BackPressureService;
 import com.github.alexandergillon.streamlet.broadcast.services.KafkaService;
+import com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils;
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,10 +49,25 @@ class PayloadControllerTest {
     @MockBean
     private KafkaService kafkaService;
 
+    @MockBean
+    private BackPressureService backPressureService;
+
     @Autowired
     private MockMvc mockMvc;
 
-    // Tests that a payload broadcast functions correctly
+    @Autowired
+    private PayloadController payloadController;
+
+    @BeforeEach
+    public void acknowledgeBatches() {
+        // By default, Kafka acknowledges every message of a batch straight away
+        when(kafkaService.broadcastPayloads(any())).thenAnswer(invocation -> {
+            List<PayloadMessage> messages = invocation.getArgument(0);
+            return messages.stream().map(message -> CompletableFuture.<Void>completedFuture(null)).toList();
+        });
+    }
+
+    // Tests that a payload broadcast functions correctly, and responds once Kafka has acknowledged the message
     @Test
     public void testPayloadBroadcast() throws Exception {
         String username = "d1ad26fb-6a44-4a82-8b55-a37183e754a0";
@@ -52,8 +80,50 @@ class PayloadControllerTest {
                 }
                 """;
 
-        mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
-        verify(kafkaService).broadcastPayload(username, text);
+        CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+        when(kafkaService.broadcastPayload(any())).thenReturn(acknowledged);
+        MvcResult result = mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ArgumentCaptor<PayloadMessage> captor = ArgumentCaptor.forClass(PayloadMessage.class);
+        verify(kafkaService).broadcastPayload(captor.capture());
+        assertEquals(username, captor.getValue().getUsername());
+        assertEquals(text, captor.getValue().getText());
+
+        acknowledged.complete(null);
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.submissionId").value(ProtocolUtils.messageId(captor.getValue())))
+                .andExpect(jsonPath("$.timestamp").value(captor.getValue().getTimestamp()));
+    }
+
+    // Tests that a payload broadcast fails if Kafka does not acknowledge the message in time, or fails to send it
+    @Test
+    public void testPayloadBroadcastUnacknowledged() throws Exception {
+        String json = """
+                {
+                    "username": "d1ad26fb-6a44-4a82-8b55-a37183e754a0",
+                    "text": "b8d45ebf-43d9-4c9f-a5ac-cb512a7e88c5"
+                }
+                """;
+
+        ReflectionTestUtils.setField(payloadController, "sendTimeoutMillis", 50L);
+        try {
+            when(kafkaService.broadcastPayload(any())).thenReturn(new CompletableFuture<>());
+            MvcResult result = mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(result)).andExpect(status().isGatewayTimeout());
+
+            when(kafkaService.broadcastPayload(any())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker unavailable")));
+            result = mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(result)).andExpect(status().isInternalServerError());
+        } finally {
+            ReflectionTestUtils.setField(payloadController, "sendTimeoutMillis", 5000L);
+        }
     }
 
     // Tests that bad payloads are rejected
@@ -90,4 +160,167 @@ class PayloadControllerTest {
         mockMvc.perform(post("/send").content(illegalUsername).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
     }
 
-}
\ No newline at end of file
+    // Tests that payloads are rejected while nodes report back-pressure
+    @Test
+    public void testBackPressure() throws Exception {
+        String json = """
+                {
+                    "username": "d1ad26fb-6a44-4a82-8b55-a37183e754a0",
+                    "text": "b8d45ebf-43d9-4c9f-a5ac-cb512a7e88c5"
+                }
+                """;
+
+        when(backPressureService.isBackPressured()).thenReturn(true);
+        mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isServiceUnavailable());
+        verify(kafkaService, never()).broadcastPayload(any());
+
+        when(backPressureService.isBackPressured()).thenReturn(false);
+        when(kafkaService.broadcastPayload(any())).thenReturn(CompletableFuture.completedFuture(null));
+        MvcResult result = mockMvc.perform(post("/send").content(json).contentType(MediaType.APPLICATION_JSON)).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+    }
+
+    // Tests that valid messages in a batch are sent, and invalid ones are reported
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatch() throws Exception {
+        String json = """
+                [
+                    {"username": "alice", "text": "hello"},
+                    {"username": "b:ob", "text": "hello"},
+                    {"username": "carol"},
+                    {"username": "dave", "text": "hi"}
+                ]
+                """;
+
+        String response = mockMvc.perform(post("/send/batch").content(json).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(2))
+                .andExpect(jsonPath("$.results[0].accepted").value(true))
+                .andExpect(jsonPath("$.results[0].error").doesNotExist())
+                .andExpect(jsonPath("$.results[1].accepted").value(false))
+                .andExpect(jsonPath("$.results[1].error").value("Username cannot contain ':'."))
+                .andExpect(jsonPath("$.results[1].submissionId").doesNotExist())
+                .andExpect(jsonPath("$.results[2].accepted").value(false))
+                .andExpect(jsonPath("$.results[3].index").value(3))
+                .andExpect(jsonPath("$.results[3].accepted").value(true))
+                .andReturn().getResponse().getContentAsString();
+
+        ArgumentCaptor<List<PayloadMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(kafkaService).broadcastPayloads(captor.capture());
+        assertEquals(List.of("alice", "dave"), captor.getValue().stream().map(PayloadMessage::getUsername).toList());
+        assertEquals(ProtocolUtils.messageId(captor.getValue().get(0)), JsonPath.read(response, "$.results[0].submissionId"));
+        assertEquals(ProtocolUtils.messageId(captor.getValue().get(1)), JsonPath.read(response, "$.results[3].submissionId"));
+    }
+
+    // Tests that messages of a batch which Kafka fails to send, or does not acknowledge in time, are not accepted
+    @Test
+    public void testBatchUnacknowledged() throws Exception {
+        String json = """
+                [
+                    {"username": "alice", "text": "sent"},
+                    {"username": "bob", "text": "failed"},
+                    {"username": "carol", "text": "unacknowledged"}
+                ]
+                """;
+
+        ReflectionTestUtils.setField(payloadController, "sendTimeoutMillis", 50L);
+        try {
+            doReturn(List.of(CompletableFuture.completedFuture(null), CompletableFuture.failedFuture(new RuntimeException("broker unavailable")),
+                    new CompletableFuture<>())).when(kafkaService).broadcastPayloads(any());
+            mockMvc.perform(post("/send/batch").content(json).contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.accepted").value(1))
+                    .andExpect(jsonPath("$.rejected").value(2))
+                    .andExpect(jsonPath("$.results[0].accepted").value(true))
+                    .andExpect(jsonPath("$.results[1].accepted").value(false))
+                    .andExpect(jsonPath("$.results[1].error").value("Failed to send message."))
+                    .andExpect(jsonPath("$.results[2].accepted").value(false))
+                    .andExpect(jsonPath("$.results[2].error").value("Timed out waiting for the message to be acknowledged."))
+                    .andExpect(jsonPath("$.results[2].submissionId").exists());
+        } finally {
+            ReflectionTestUtils.setField(payloadController, "sendTimeoutMillis", 5000L);
+        }
+    }
+
+    // Tests that batches which are too large, or sent under back-pressure, are rejected as a whole
+    @Test
+    public void testBatchRejected() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i <= 10000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"username\": \"user\", \"text\": \"").append(i).append("\"}");
+        }
+        json.append("]");
+        mockMvc.perform(post("/send/batch").content(json.toString()).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPayloadTooLarge());
+
+        when(backPressureService.isBackPressured()).thenReturn(true);
+        mockMvc.perform(post("/send/batch").content("[{\"username\": \"user\", \"text\": \"hello\"}]").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+        verify(kafkaService, never()).broadcastPayloads(any());
+    }
+
+    // Tests that streamed messages are read line by line, sent in batches, and malformed lines are reported
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStream() throws Exception {
+        ReflectionTestUtils.setField(payloadController, "maxBatchMessages", 2);
+        try {
+            String ndjson = """
+                    {"username": "alice", "text": "1"}
+                    not json
+
+                    {"username": "alice", "text": "2"}
+                    {"username": "bob", "text": "3"}
+                    {"text": "4"}
+                    """;
+
+            mockMvc.perform(post("/send/stream").content(ndjson).contentType(PayloadController.APPLICATION_NDJSON_VALUE))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.accepted").value(3))
+                    .andExpect(jsonPath("$.rejected").value(2))
+                    .andExpect(jsonPath("$.truncated").value(false))
+                    .andExpect(jsonPath("$.results.length()").value(5))
+                    .andExpect(jsonPath("$.results[1].error").value("Malformed JSON."))
+                    .andExpect(jsonPath("$.results[2].accepted").value(true))
+                    .andExpect(jsonPath("$.results[4].accepted").value(false));
+
+            ArgumentCaptor<List<PayloadMessage>> captor = ArgumentCaptor.forClass(List.class);
+            verify(kafkaService, times(2)).broadcastPayloads(captor.capture());
+            List<String> texts = new ArrayList<>();
+            for (List<PayloadMessage> batch : captor.getAllValues()) {
+                assertTrue(batch.size() <= 2);
+                batch.forEach(request -> texts.add(request.getText()));
+            }
+            assertEquals(List.of("1", "2", "3"), texts);
+        } finally {
+            ReflectionTestUtils.setField(payloadController, "maxBatchMessages", 10000);
+        }
+    }
+
+    // Tests that a stream stops being read once it reaches the message limit, and is reported as truncated
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamTruncated() throws Exception {
+        ReflectionTestUtils.setField(payloadController, "maxStreamMessages", 2);
+        try {
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = 0; i < 100; i++) ndjson.append("{\"username\": \"user\", \"text\": \"").append(i).append("\"}\n");
+
+            mockMvc.perform(post("/send/stream").content(ndjson.toString()).contentType(PayloadController.APPLICATION_NDJSON_VALUE))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.accepted").value(2))
+                    .andExpect(jsonPath("$.rejected").value(0))
+                    .andExpect(jsonPath("$.truncated").value(true))
+                    .andExpect(jsonPath("$.results.length()").value(2));
+
+            ArgumentCaptor<List<PayloadMessage>> captor = ArgumentCaptor.forClass(List.class);
+            verify(kafkaService).broadcastPayloads(captor.capture());
+            assertEquals(List.of("0", "1"), captor.getValue().stream().map(PayloadMessage::getText).toList());
+        } finally {
+            ReflectionTestUtils.setField(payloadController, "maxStreamMessages", 1000000);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+class BackPressureServiceImplTest {
+
+    private BackPressureServiceImpl backPressureService;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    public void setupBackPressureService() {
+        backPressureService = new BackPressureServiceImpl(new RestTemplateBuilder(), 500);
+        server = MockRestServiceServer.bindTo((RestTemplate) ReflectionTestUtils.getField(backPressureService, "restTemplate")).build();
+    }
+
+    // Tests that there is no back-pressure when no nodes are configured
+    @Test
+    public void testNoNodes() {
+        ReflectionTestUtils.setField(backPressureService, "nodeUrls", List.of(""));
+        backPressureService.pollNodes();
+        assertFalse(backPressureService.isBackPressured());
+    }
+
+    // Tests that back-pressure from any node is reported, and that unreachable nodes are ignored
+    @Test
+    public void testPollNodes() {
+        ReflectionTestUtils.setField(backPressureService, "nodeUrls", List.of("http://node0", "http://node1"));
+
+        server.expect(requestTo("http://node0/mempool")).andRespond(withSuccess("{\"backPressure\": false}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("http://node1/mempool")).andRespond(withSuccess("{\"backPressure\": true}", MediaType.APPLICATION_JSON));
+        backPressureService.pollNodes();
+        assertTrue(backPressureService.isBackPressured());
+        server.verify();
+        server.reset();
+
+        server.expect(requestTo("http://node0/mempool")).andRespond(withSuccess("{\"backPressure\": false}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("http://node1/mempool")).andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+        backPressureService.pollNodes();
+        assertFalse(backPressureService.isBackPressured());
+        server.verify();
+    }
+
+}
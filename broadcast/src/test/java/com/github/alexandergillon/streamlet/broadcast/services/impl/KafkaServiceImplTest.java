@@ -20,11 +20,14 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.alexandergillon.streamlet.broadcast.models.BroadcastMessage;
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.broadcast.services.KafkaService;
+import com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -33,14 +36,20 @@ import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.contains;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -60,6 +69,12 @@ class KafkaServiceImplTest {
     @Mock
     private KafkaTemplate<String, String> kafkaTemplate;
 
+    @Mock
+    private KafkaTemplate<String, String> payloadKafkaTemplate;
+
+    @Spy
+    private PayloadRoutingServiceImpl payloadRoutingService = new PayloadRoutingServiceImpl();
+
     @InjectMocks
     private KafkaServiceImpl kafkaService;
 
@@ -70,10 +85,17 @@ class KafkaServiceImplTest {
 
     @BeforeEach
     public void injectProperties() {
+        // Both templates have the same type, so constructor injection cannot tell them apart
+        ReflectionTestUtils.setField(kafkaService, "kafkaTemplate", kafkaTemplate);
+        ReflectionTestUtils.setField(kafkaService, "payloadKafkaTemplate", payloadKafkaTemplate);
         ReflectionTestUtils.setField(kafkaService, "numNodes", numNodes);
         ReflectionTestUtils.setField(kafkaService, "payloadTopicPrefix", payloadTopicPrefix);
         ReflectionTestUtils.setField(kafkaService, "proposeTopicPrefix", proposeTopicPrefix);
         ReflectionTestUtils.setField(kafkaService, "voteTopicPrefix", voteTopicPrefix);
+        ReflectionTestUtils.setField(payloadRoutingService, "numNodes", numNodes);
+        ReflectionTestUtils.setField(payloadRoutingService, "mode", "broadcast");
+        ReflectionTestUtils.setField(payloadRoutingService, "numLeaders", 2);
+        ReflectionTestUtils.setField(payloadRoutingService, "epochDurationMillis", 60_000L);
     }
 
     // Tests that broadcasting proposals works correctly
@@ -153,6 +175,93 @@ class KafkaServiceImplTest {
         }
     }
 
+    // Tests that payloads submitted directly to a node are relayed to all other nodes, and malformed ones are not
+    @Test
+    public void testPayloadRelay() throws JsonProcessingException {
+        int sender = 1;
+        String payloadMessage = """
+                {
+                    "username": "user",
+                    "text": "hello",
+                    "timestamp": 1690000000000
+                }
+                """;
+        JsonNode jsonNode = objectMapper.readTree(payloadMessage);
+
+        HashSet<String> topicsBroadcastTo = new HashSet<>();
+        Answer<CompletableFuture<SendResult<String, String>>> answer = invocationOnMock -> {
+            topicsBroadcastTo.add(invocationOnMock.getArgument(0));
+            JsonNode broadcastJson = objectMapper.readTree((String) invocationOnMock.getArgument(1));
+            assertEquals(jsonNode, broadcastJson);
+            return CompletableFuture.completedFuture(null);
+        };
+
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(answer);
+        kafkaService.processBroadcast(new BroadcastMessage(sender, "payload", jsonNode));
+
+        verify(payloadKafkaTemplate, times(numNodes-1)).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        for (int i = 0; i < numNodes; i++) {
+            assertEquals(i != sender, topicsBroadcastTo.contains(payloadTopicPrefix + i));
+        }
+
+        JsonNode badUsername = objectMapper.readTree(payloadMessage.replace("user", "us:er"));
+        assertThrows(IllegalArgumentException.class, () -> kafkaService.processBroadcast(new BroadcastMessage(sender, "payload", badUsername)));
+        JsonNode missingText = objectMapper.readTree("{\"username\": \"user\", \"timestamp\": 0}");
+        assertThrows(IllegalArgumentException.class, () -> kafkaService.processBroadcast(new BroadcastMessage(sender, "payload", missingText)));
+        verify(payloadKafkaTemplate, times(numNodes-1)).send(anyString(), anyString());
+    }
+
+    // Tests that replicas get proposals and votes, but not payloads, and that payloads submitted to a replica are relayed
+    // to every other node
+    @Test
+    public void testReplicas() throws JsonProcessingException {
+        int numReplicas = 2;
+        ReflectionTestUtils.setField(kafkaService, "numReplicas", numReplicas);
+        HashSet<String> topicsBroadcastTo = new HashSet<>();
+        Answer<CompletableFuture<SendResult<String, String>>> answer = invocationOnMock -> {
+            topicsBroadcastTo.add(invocationOnMock.getArgument(0));
+            return CompletableFuture.completedFuture(null);
+        };
+        when(kafkaTemplate.send(anyString(), anyString())).thenAnswer(answer);
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(answer);
+
+        JsonNode proposal = objectMapper.readTree("""
+                {
+                    "nodeId": 0,
+                    "block": {
+                        "parentHash": "w5onHinZsVXW/NxyN3XR9Q==",
+                        "epoch": 14,
+                        "payload": "FSKvFi7CqHwS8Bs6lmPqgQ=="
+                    },
+                    "signature": "gzqztEJoi5atTxMGG4Ysiw=="
+                }
+                """);
+        kafkaService.processBroadcast(new BroadcastMessage(0, "propose", proposal));
+        JsonNode vote = objectMapper.readTree("""
+                {
+                    "nodeId": 1,
+                    "block": {
+                        "parentHash": "e9NCMC75Np8sK6e/SVVHeA==",
+                        "epoch": 7,
+                        "payload": "6fC2GOg956f7bCIFo6vvGQ=="
+                    },
+                    "signature": "7BU5A6NF2QZZSeVrrE/pFg==",
+                    "proposerSignature": "UjoJkj2GDoxNcy0ua6Qt9w=="
+                }
+                """);
+        kafkaService.processBroadcast(new BroadcastMessage(1, "vote", vote));
+        JsonNode payload = objectMapper.readTree("{\"username\": \"user\", \"text\": \"hello\", \"timestamp\": 0}");
+        kafkaService.processBroadcast(new BroadcastMessage(numNodes, "payload", payload));
+        kafkaService.broadcastPayload(new PayloadMessage("user", "text", 0));
+
+        for (int i = 0; i < numNodes + numReplicas; i++) {
+            assertEquals(i != 0, topicsBroadcastTo.contains(proposeTopicPrefix + i));
+            assertEquals(i != 1, topicsBroadcastTo.contains(voteTopicPrefix + i));
+            assertEquals(i < numNodes, topicsBroadcastTo.contains(payloadTopicPrefix + i));
+        }
+    }
+
     @Test
     public void testPayloadBroadcast() {
         String username = UUID.randomUUID().toString();
@@ -169,16 +278,103 @@ class KafkaServiceImplTest {
             return CompletableFuture.completedFuture(null);
         };
 
-        when(kafkaTemplate.send(anyString(), anyString())).thenAnswer(answer);
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(answer);
 
-        kafkaService.broadcastPayload(username, text);
+        CompletableFuture<Void> acknowledged = kafkaService.broadcastPayload(new PayloadMessage(username, text, System.currentTimeMillis()));
 
-        verify(kafkaTemplate, times(numNodes)).send(anyString(), anyString());
+        verify(payloadKafkaTemplate, times(numNodes)).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString());
         for (int i = 0; i < numNodes; i++) {
             assertTrue(topicsBroadcastTo.contains(payloadTopicPrefix + i));
         }
+        assertTrue(acknowledged.isDone());
+    }
+
+    // Tests that a payload broadcast is only acknowledged once every send is, and fails if any send fails
+    @Test
+    public void testPayloadBroadcastAcknowledgement() {
+        List<CompletableFuture<SendResult<String, String>>> sends = new ArrayList<>();
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(invocationOnMock -> {
+            CompletableFuture<SendResult<String, String>> send = new CompletableFuture<>();
+            sends.add(send);
+            return send;
+        });
+
+        CompletableFuture<Void> acknowledged = kafkaService.broadcastPayload(new PayloadMessage("user", "text", 0));
+        assertEquals(numNodes, sends.size());
+        for (int i = 0; i < numNodes - 1; i++) {
+            sends.get(i).complete(null);
+            assertFalse(acknowledged.isDone());
+        }
+        sends.get(numNodes - 1).complete(null);
+        assertTrue(acknowledged.isDone());
+        assertFalse(acknowledged.isCompletedExceptionally());
+
+        sends.clear();
+        CompletableFuture<Void> failing = kafkaService.broadcastPayload(new PayloadMessage("user", "text", 1));
+        sends.get(0).completeExceptionally(new RuntimeException("broker unavailable"));
+        sends.subList(1, sends.size()).forEach(send -> send.complete(null));
+        assertTrue(failing.isCompletedExceptionally());
+    }
+
+    // Tests that a batch broadcast has a future for each message, and that one message failing does not fail the rest
+    @Test
+    public void testPayloadBatchBroadcast() {
+        List<CompletableFuture<SendResult<String, String>>> sends = new ArrayList<>();
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(invocationOnMock -> {
+            CompletableFuture<SendResult<String, String>> send = new CompletableFuture<>();
+            sends.add(send);
+            return send;
+        });
+        // The second message cannot even be handed to the producer
+        doThrow(new IllegalStateException("producer closed")).when(payloadKafkaTemplate).send(anyString(), contains("\"text\":\"2\""));
+
+        List<CompletableFuture<Void>> acknowledged = kafkaService.broadcastPayloads(List.of(new PayloadMessage("user", "1", 0),
+                new PayloadMessage("user", "2", 0), new PayloadMessage("user", "3", 0)));
+        assertEquals(3, acknowledged.size());
+        assertEquals(2 * numNodes, sends.size());
+        assertFalse(acknowledged.get(0).isDone());
+        assertTrue(acknowledged.get(1).isCompletedExceptionally());
 
+        sends.forEach(send -> send.complete(null));
+        assertTrue(acknowledged.get(0).isDone());
+        assertFalse(acknowledged.get(0).isCompletedExceptionally());
+        assertFalse(acknowledged.get(2).isCompletedExceptionally());
+        verify(kafkaTemplate, never()).send(anyString(), anyString());
     }
 
+    // Tests that in leader routing mode, payloads only go to upcoming leaders once a proposal has revealed the epoch
+    @Test
+    public void testLeaderRoutedPayload() throws JsonProcessingException {
+        ReflectionTestUtils.setField(payloadRoutingService, "mode", "leaders");
+        String proposalMessage = """
+                {
+                    "nodeId": 3,
+                    "block": {
+                        "parentHash": "w5onHinZsVXW/NxyN3XR9Q==",
+                        "epoch": 14,
+                        "payload": ""
+                    },
+                    "signature": "gzqztEJoi5atTxMGG4Ysiw=="
+                }
+                """;
+        kafkaService.processBroadcast(new BroadcastMessage(3, "propose", objectMapper.readTree(proposalMessage)));
+
+        HashSet<String> topicsBroadcastTo = new HashSet<>();
+        when(payloadKafkaTemplate.send(anyString(), anyString())).thenAnswer(invocationOnMock -> {
+            topicsBroadcastTo.add(invocationOnMock.getArgument(0));
+            return CompletableFuture.completedFuture(null);
+        });
+        kafkaService.broadcastPayload(new PayloadMessage(UUID.randomUUID().toString(), UUID.randomUUID().toString(), System.currentTimeMillis()));
+
+        HashSet<String> expectedTopics = new HashSet<>();
+        expectedTopics.add(payloadTopicPrefix + ProtocolUtils.leaderForEpoch(15, numNodes));
+        expectedTopics.add(payloadTopicPrefix + ProtocolUtils.leaderForEpoch(16, numNodes));
+        assertEquals(expectedTopics, topicsBroadcastTo);
+
+        // Nothing has expired yet (epochs are a minute long here)
+        kafkaService.sendExpiredPayloads();
+        assertEquals(expectedTopics, topicsBroadcastTo);
+    }
 
-}
\ No newline at end of file
+}
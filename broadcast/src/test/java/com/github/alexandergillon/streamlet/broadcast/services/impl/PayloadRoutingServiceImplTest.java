@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.services.impl;
+
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.broadcast.util.ProtocolUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadRoutingServiceImplTest {
+
+    private static final int NUM_NODES = 5;
+    private static final long EPOCH_MILLIS = 1000;
+
+    private PayloadRoutingServiceImpl payloadRoutingService;
+
+    @BeforeEach
+    public void setupPayloadRoutingService() {
+        payloadRoutingService = new PayloadRoutingServiceImpl();
+        ReflectionTestUtils.setField(payloadRoutingService, "numNodes", NUM_NODES);
+        ReflectionTestUtils.setField(payloadRoutingService, "mode", "leaders");
+        ReflectionTestUtils.setField(payloadRoutingService, "numLeaders", 2);
+        ReflectionTestUtils.setField(payloadRoutingService, "epochDurationMillis", EPOCH_MILLIS);
+    }
+
+    // Tests that messages go to every node in broadcast mode, or before the epoch is known
+    @Test
+    public void testFullFanOut() {
+        Set<Integer> allNodes = Set.of(0, 1, 2, 3, 4);
+        assertEquals(allNodes, payloadRoutingService.route(new PayloadMessage("user", "text", 0), 0));
+
+        ReflectionTestUtils.setField(payloadRoutingService, "mode", "broadcast");
+        payloadRoutingService.observeProposal(10, new byte[0], 0);
+        assertEquals(allNodes, payloadRoutingService.route(new PayloadMessage("user", "text", 1), 0));
+        assertTrue(payloadRoutingService.takeExpired(Long.MAX_VALUE).isEmpty());
+    }
+
+    // Tests that messages go to the next leaders, and that messages which are proposed in time are not sent again
+    @Test
+    public void testLeaderRouting() {
+        payloadRoutingService.observeProposal(10, new byte[0], 0);
+        PayloadMessage message = new PayloadMessage("user", "text", 0);
+
+        // 2.5 epochs later, the current epoch is 12, so the next leaders are those of 13 and 14
+        Set<Integer> leaders = payloadRoutingService.route(message, 2500);
+        assertEquals(Set.of(ProtocolUtils.leaderForEpoch(13, NUM_NODES), ProtocolUtils.leaderForEpoch(14, NUM_NODES)), leaders);
+
+        payloadRoutingService.observeProposal(13, encode(message), 3100);
+        assertTrue(payloadRoutingService.takeExpired(Long.MAX_VALUE).isEmpty());
+    }
+
+    // Tests that proposals of later epochs correct an estimate that has run ahead, and that late proposals are ignored
+    @Test
+    public void testEpochResync() {
+        // Epochs really last twice as long as configured, so by 2000 ms the estimate has reached epoch 12
+        payloadRoutingService.observeProposal(10, new byte[0], 0);
+        payloadRoutingService.observeProposal(11, new byte[0], 2000);
+        Set<Integer> leaders = payloadRoutingService.route(new PayloadMessage("user", "text", 0), 2000);
+        assertEquals(Set.of(ProtocolUtils.leaderForEpoch(12, NUM_NODES), ProtocolUtils.leaderForEpoch(13, NUM_NODES)), leaders);
+
+        payloadRoutingService.observeProposal(10, new byte[0], 2100);
+        leaders = payloadRoutingService.route(new PayloadMessage("user", "text", 1), 2100);
+        assertEquals(Set.of(ProtocolUtils.leaderForEpoch(12, NUM_NODES), ProtocolUtils.leaderForEpoch(13, NUM_NODES)), leaders);
+    }
+
+    // Tests that messages which are not proposed by their deadline are sent to the other nodes
+    @Test
+    public void testFallback() {
+        payloadRoutingService.observeProposal(10, new byte[0], 0);
+        PayloadMessage message = new PayloadMessage("user", "text", 0);
+        Set<Integer> leaders = payloadRoutingService.route(message, 0);
+
+        // Leaders of epochs 11 and 12 have until the end of epoch 12, plus one epoch
+        assertTrue(payloadRoutingService.takeExpired(3 * EPOCH_MILLIS - 1).isEmpty());
+        Map<PayloadMessage, Set<Integer>> expired = payloadRoutingService.takeExpired(3 * EPOCH_MILLIS);
+        assertEquals(Set.of(message), expired.keySet());
+        for (int node = 0; node < NUM_NODES; node++) {
+            assertNotEquals(leaders.contains(node), expired.get(message).contains(node));
+        }
+        assertTrue(payloadRoutingService.takeExpired(Long.MAX_VALUE).isEmpty());
+    }
+
+    // Encodes a single message as a payload, in the nodes' binary format
+    private byte[] encode(PayloadMessage message) {
+        byte[] username = message.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getText().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 1 + username.length + 1 + text.length + Long.BYTES)
+                .put((byte) 1).put((byte) username.length).put(username).put((byte) text.length).put(text)
+                .putLong(message.getTimestamp()).array();
+    }
+
+}
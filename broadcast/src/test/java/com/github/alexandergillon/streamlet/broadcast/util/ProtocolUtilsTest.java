@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.broadcast.util;
+
+import com.github.alexandergillon.streamlet.broadcast.models.PayloadMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtocolUtilsTest {
+
+    // Tests that the leader schedule matches the one computed by nodes
+    @Test
+    public void testLeaderForEpoch() {
+        int[] expectedLeaders = { 4, 1, 1, 0, 4, 0, 0, 0, 3, 0 };  // computed by a network of 5 nodes
+        for (int epoch = 0; epoch < expectedLeaders.length; epoch++) {
+            assertEquals(expectedLeaders[epoch], ProtocolUtils.leaderForEpoch(epoch, 5));
+        }
+    }
+
+    // Tests that single-message and batch payloads are decoded
+    @Test
+    public void testDecodeMessages() {
+        PayloadMessage message1 = new PayloadMessage("user", "hello", 1234567890123L);
+        PayloadMessage message2 = new PayloadMessage("élève", "x".repeat(300), 42L);
+        byte[] encoded1 = encode(message1);
+        byte[] encoded2 = encode(message2);
+
+        assertEquals(List.of(message1), ProtocolUtils.decodeMessages(encoded1));
+
+        ByteBuffer batch = ByteBuffer.allocate(1 + 4 + 4 + encoded1.length + 4 + encoded2.length);
+        batch.put((byte) 0).putInt(2).putInt(encoded1.length).put(encoded1).putInt(encoded2.length).put(encoded2);
+        assertEquals(List.of(message1, message2), ProtocolUtils.decodeMessages(batch.array()));
+    }
+
+    // Tests that empty, legacy and malformed payloads decode to no messages
+    @Test
+    public void testDecodeUnknownPayloads() {
+        byte[] encoded = encode(new PayloadMessage("user", "hello", 0));
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertEquals(List.of(), ProtocolUtils.decodeMessages(new byte[0]));
+        assertEquals(List.of(), ProtocolUtils.decodeMessages("2017/05/23 15:19 | user: hello".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(List.of(), ProtocolUtils.decodeMessages(truncated));
+        assertEquals(List.of(), ProtocolUtils.decodeMessages(new byte[] { 0, 0, 0, 0, 1, 0, 0, 0, 100 }));
+    }
+
+    // Tests that messages are encoded as nodes encode them, and that IDs are hashes of that encoding
+    @Test
+    public void testEncodeMessage() {
+        PayloadMessage message1 = new PayloadMessage("user", "hello", 0);
+        PayloadMessage message2 = new PayloadMessage("élève", "x".repeat(300), 42L);
+        assertArrayEquals(encode(message1), ProtocolUtils.encodeMessage(message1));
+        assertArrayEquals(encode(message2), ProtocolUtils.encodeMessage(message2));
+        assertEquals(List.of(message2), ProtocolUtils.decodeMessages(ProtocolUtils.encodeMessage(message2)));
+
+        assertEquals("989928e500175adf7f87261c84e7b02a83e544bce782975962d896d4b6dd98cb", ProtocolUtils.messageId(message1));
+    }
+
+    // Encodes a message in the nodes' binary format (with single-byte varint lengths, or two bytes for 300)
+    private byte[] encode(PayloadMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(1);
+        for (String field : new String[] { message.getUsername(), message.getText() }) {
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < 128) {
+                out.write(bytes.length);
+            } else {
+                out.write((bytes.length & 0x7F) | 0x80);
+                out.write(bytes.length >>> 7);
+            }
+            out.writeBytes(bytes);
+        }
+        out.writeBytes(ByteBuffer.allocate(Long.BYTES).putLong(message.getTimestamp()).array());
+        return out.toByteArray();
+    }
+
+}
@@ -6,6 +6,8 @@ if [ "$#" -ne 2 ]; then
     exit 1
 fi
 
+STREAMLET_EPOCH_DURATION=2000
+
 STREAMLET_PARTICIPANTS=$1
 STREAMLET_KAFKA_BOOTSTRAP_SERVERS=$2
 
@@ -18,6 +20,7 @@ docker container prune -f
 
 docker run --init \
 -e STREAMLET_PARTICIPANTS=$STREAMLET_PARTICIPANTS \
+-e STREAMLET_EPOCH_DURATION=$STREAMLET_EPOCH_DURATION \
 -e STREAMLET_KAFKA_BOOTSTRAP_SERVERS=$STREAMLET_KAFKA_BOOTSTRAP_SERVERS \
 -p 8080:8080 \
 alexandergillon/projects:broadcast 
\ No newline at end of file
@@ -17,15 +17,20 @@
 package com.github.alexandergillon.streamlet.node.blockchain;
 
 import com.github.alexandergillon.streamlet.node.models.JsonBlock;
-import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import lombok.AccessLevel;
 import lombok.Getter;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 /** Object which represents a block on the blockchain. */
 @Getter
@@ -34,14 +39,38 @@ public class Block {
     /** Length of a SHA256 hash in bytes. SHA256 is 256 bits. */
     public static final int SHA_256_HASH_LENGTH_BYTES = 256 / 8;
 
+    /** Length of the serialized block, excluding the payload: the parent hash, then the epoch and payload length. */
+    private static final int HEADER_LENGTH_BYTES = SHA_256_HASH_LENGTH_BYTES + 2 * Integer.BYTES;
+
+    /** SHA-256 digest for each thread, so that constructing a block does not need to look up a provider. */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm provider.");
+        }
+    });
+
     /** SHA256 hash of the parent block in the blockchain. */
     private final byte[] parentHash;
     /** Epoch number of this block. */
     private final int epoch;
-    /** Payload of this block. */
-    private final byte[] payload;
+    /** Payload of this block, or null if it has been moved into {@link #payloadArena}. */
+    @Getter(AccessLevel.NONE)
+    private volatile byte[] payload;
+    /** Length of the payload of this block. */
+    private final int payloadLength;
+    /** Arena that holds the payload of this block, or null if the payload is on the heap. */
+    @Getter(AccessLevel.NONE)
+    private PayloadArena payloadArena;
+    /** Handle of the payload of this block in {@link #payloadArena}. */
+    @Getter(AccessLevel.NONE)
+    private long payloadHandle;
     /** SHA256 hash of the block. */
     private final byte[] hash;
+    /** Messages in the payload of this block, or null if the payload has not been decoded yet (or they were released). */
+    @Getter(AccessLevel.NONE)
+    private volatile List<PayloadMessage> messages;
 
     /**
      * Constructor.
@@ -53,6 +82,7 @@ public class Block {
         this.parentHash = parentHash.clone();
         this.epoch = epoch;
         this.payload = payload.clone();
+        payloadLength = payload.length;
 
         hash = calculateSha256Hash();
     }
@@ -60,6 +90,65 @@ public class Block {
     /** The genesis block. */
     public static final Block GENESIS_BLOCK = new Block(new byte[SHA_256_HASH_LENGTH_BYTES], 0, new byte[0]);
 
+    /**
+     * @return The payload of this block. If the payload has been moved into a {@link PayloadArena}, this is a fresh
+     * copy, so callers which only need the length should use {@link #getPayloadLength()}.
+     */
+    public byte[] getPayload() {
+        byte[] heapPayload = payload;
+        return heapPayload != null ? heapPayload : payloadArena.load(payloadHandle, payloadLength);
+    }
+
+    /**
+     * Gets the messages in the payload of this block (see {@link PayloadBatch}). While the payload is on the heap, it
+     * is decoded on the first call, and the result is kept with the block, so later calls (e.g. reconciling pending
+     * messages, or proposing) do not parse it again. Once the payload is in a {@link PayloadArena} and the messages
+     * have been released (see {@link #releaseMessages()}), every call decodes the payload again, so that the messages
+     * do not occupy the heap for as long as the block is retained. The returned messages are shared, and must not be
+     * modified.
+     *
+     * @return The messages in the payload of this block, in order.
+     * @throws ParseException If the payload is malformed.
+     */
+    public List<PayloadMessage> getMessages() throws ParseException {
+        List<PayloadMessage> decoded = messages;
+        if (decoded != null) return decoded;
+        byte[] heapPayload = payload;
+        if (heapPayload == null) return PayloadBatch.decode(payloadArena.load(payloadHandle, payloadLength));
+        // Threads racing here decode equal lists, so it does not matter whose is kept
+        decoded = PayloadBatch.decode(heapPayload);
+        messages = decoded;
+        return decoded;
+    }
+
+    /**
+     * Drops the decoded messages kept with this block, if any. Meant for blocks whose payload has been moved into a
+     * {@link PayloadArena} and which no longer need their messages often (i.e. finalized blocks), so that only the
+     * payload is retained, off-heap.
+     */
+    public void releaseMessages() {
+        messages = null;
+    }
+
+    /**
+     * Moves the payload of this block off-heap, into an arena. Meant for blocks which are retained for a long time
+     * (i.e. those in the blockchain), so that their payloads do not occupy the old generation. If the payload has
+     * already been moved, this has no effect.
+     *
+     * @param arena The arena to move the payload into.
+     */
+    public synchronized void moveToArena(PayloadArena arena) {
+        if (payload == null) return;
+        payloadHandle = arena.store(payload);
+        payloadArena = arena;
+        payload = null;  // volatile write publishes the handle and arena to readers that see the payload is gone
+    }
+
+    /** @return Whether the payload of this block is held in a {@link PayloadArena}. */
+    public boolean isPayloadOffHeap() {
+        return payload == null;
+    }
+
     /**
      * Serializes this block, in the following format:                    <pre>
      *   byte[32]                parent hash
@@ -68,19 +157,50 @@ public class Block {
      *   byte[payload length]    payload                                  </pre>
      *
      *
+     * To hash or sign a block, prefer {@link #updateDigest(MessageDigest)} and {@link #updateSignature(Signature)},
+     * which feed the same bytes without building this array.
+     *
      * @return This block, serialized.
      */
     public byte[] toBytes() {
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            outputStream.write(parentHash);
-            outputStream.write(SerializationUtils.intToFourBytesBigEndian(epoch));
-            outputStream.write(SerializationUtils.intToFourBytesBigEndian(payload.length));
-            outputStream.write(payload);
-            return outputStream.toByteArray();
-        } catch (IOException e) {
-            throw new IllegalStateException("ByteArrayOutputStream cannot throw IOException.", e);
-        }
+        byte[] bytes = new byte[HEADER_LENGTH_BYTES + payloadLength];
+        System.arraycopy(parentHash, 0, bytes, 0, SHA_256_HASH_LENGTH_BYTES);
+        writeIntBigEndian(bytes, SHA_256_HASH_LENGTH_BYTES, epoch);
+        writeIntBigEndian(bytes, SHA_256_HASH_LENGTH_BYTES + Integer.BYTES, payloadLength);
+        byte[] heapPayload = payload;
+        if (heapPayload != null) System.arraycopy(heapPayload, 0, bytes, HEADER_LENGTH_BYTES, payloadLength);
+        else payloadArena.slice(payloadHandle, payloadLength).get(0, bytes, HEADER_LENGTH_BYTES, payloadLength);
+        return bytes;
+    }
+
+    /**
+     * Feeds this block, serialized as in {@link #toBytes()}, into a message digest.
+     *
+     * @param messageDigest The message digest to update.
+     */
+    public void updateDigest(MessageDigest messageDigest) {
+        messageDigest.update(parentHash);
+        for (int shift = 24; shift >= 0; shift -= 8) messageDigest.update((byte) (epoch >>> shift));
+        for (int shift = 24; shift >= 0; shift -= 8) messageDigest.update((byte) (payloadLength >>> shift));
+        byte[] heapPayload = payload;
+        if (heapPayload != null) messageDigest.update(heapPayload);
+        else messageDigest.update(payloadArena.slice(payloadHandle, payloadLength));
+    }
+
+    /**
+     * Feeds this block, serialized as in {@link #toBytes()}, into a signature which has been initialized for signing
+     * or verification.
+     *
+     * @param signature The signature to update.
+     * @throws SignatureException If the signature has not been initialized.
+     */
+    public void updateSignature(Signature signature) throws SignatureException {
+        signature.update(parentHash);
+        for (int shift = 24; shift >= 0; shift -= 8) signature.update((byte) (epoch >>> shift));
+        for (int shift = 24; shift >= 0; shift -= 8) signature.update((byte) (payloadLength >>> shift));
+        byte[] heapPayload = payload;
+        if (heapPayload != null) signature.update(heapPayload);
+        else signature.update(payloadArena.slice(payloadHandle, payloadLength));
     }
 
     /** @return This block, as a {@link JsonBlock}. */
@@ -100,18 +220,29 @@ public class Block {
 
     /** @return The payload of this block, as a base-64 encoded string. */
     public String getPayloadBase64() {
-        return Base64.getEncoder().encodeToString(payload);
+        return Base64.getEncoder().encodeToString(getPayload());
     }
 
     /** @return The SHA256 hash of this block, where this block is serialized as in toBytes(). */
     private byte[] calculateSha256Hash() {
+        MessageDigest messageDigest = SHA_256.get();
+        updateDigest(messageDigest);
+        byte[] sha256Hash = new byte[SHA_256_HASH_LENGTH_BYTES];
         try {
-            byte[] bytes = toBytes();
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            return messageDigest.digest(bytes);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("No SHA-256 algorithm provider.");
+            messageDigest.digest(sha256Hash, 0, SHA_256_HASH_LENGTH_BYTES);
+        } catch (DigestException e) {
+            messageDigest.reset();
+            throw new IllegalStateException("SHA-256 digest does not fit in " + SHA_256_HASH_LENGTH_BYTES + " bytes.", e);
         }
+        return sha256Hash;
+    }
+
+    /** Writes an integer into an array, in big-endian order. */
+    private static void writeIntBigEndian(byte[] bytes, int offset, int i) {
+        bytes[offset] = (byte) (i >>> 24);
+        bytes[offset + 1] = (byte) (i >>> 16);
+        bytes[offset + 2] = (byte) (i >>> 8);
+        bytes[offset + 3] = (byte) i;
     }
 
     /**
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import com.github.alexandergillon.streamlet.node.models.JsonBlock;
+
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interns blocks received over the network, so that each distinct block is decoded and hashed once. A block arrives
+ * once in a proposal and up to N-1 times in votes: the first arrival decodes the block, and later arrivals get the
+ * same {@link Block} instance back (which is also the instance stored in the blockchain, once it is inserted).
+ * <p>
+ * Blocks are keyed by their encoded fields, and the most recently used blocks are kept, up to a fixed capacity.
+ * Safe to use from multiple threads.
+ */
+public class BlockInterner {
+
+    /** Default number of blocks to keep. Votes for a block arrive within a few epochs of its proposal. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** Encoded fields of a block. */
+    private record Key(String parentHash, int epoch, String payload) { }
+
+    /** Interned blocks, in least to most recently used order. */
+    private final Map<Key, Block> blocks;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of blocks to keep.
+     * @throws IllegalArgumentException If capacity is not positive.
+     */
+    public BlockInterner(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity of block interner must be positive.");
+        blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Block> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the {@link Block} for a {@link JsonBlock}, decoding it only if it has not been seen recently.
+     *
+     * @param jsonBlock A block, as received over the network.
+     * @return The canonical {@link Block} for that JSON block.
+     * @throws IllegalArgumentException If the fields of the JSON block are not valid base-64, or do not make a valid block.
+     */
+    public Block intern(JsonBlock jsonBlock) throws IllegalArgumentException {
+        Key key = new Key(jsonBlock.getParentHash(), jsonBlock.getEpoch(), jsonBlock.getPayload());
+        synchronized (blocks) {
+            Block block = blocks.get(key);
+            if (block != null) return block;
+        }
+
+        // Decode outside the lock, so that other threads are not held up by hashing a large payload
+        byte[] parentHash = Base64.getDecoder().decode(key.parentHash());
+        byte[] payload = Base64.getDecoder().decode(key.payload());
+        Block decoded = new Block(parentHash, key.epoch(), payload);
+
+        synchronized (blocks) {
+            Block raced = blocks.putIfAbsent(key, decoded);
+            return raced == null ? decoded : raced;
+        }
+    }
+
+    /** @return The number of blocks currently interned. */
+    public int size() {
+        synchronized (blocks) {
+            return blocks.size();
+        }
+    }
+
+}
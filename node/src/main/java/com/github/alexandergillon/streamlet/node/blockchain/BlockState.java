@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import java.util.List;
+
+/**
+ * Snapshot of a block in the blockchain, and what this node knows about it, at the time it was taken.
+ *
+ * @param block The block.
+ * @param height The height of the block in the block tree (the genesis block has height 0).
+ * @param notarized Whether the block is notarized.
+ * @param finalized Whether the block is finalized.
+ * @param voters The IDs of the nodes that have voted on the block, in increasing order.
+ * @param children The children of the block in the block tree, in the order they were added.
+ */
+public record BlockState(Block block, int height, boolean notarized, boolean finalized, List<Integer> voters, List<Block> children) { }
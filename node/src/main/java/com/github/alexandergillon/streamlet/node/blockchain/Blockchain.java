@@ -91,6 +91,31 @@ public interface Blockchain {
     /** @return The finalized chain of the blockchain, from oldest to youngest block. */
     List<Block> getFinalizedChain();
 
+    /**
+     * Gets the current snapshot of the finalized chain and notarized tip. Snapshots are immutable, and a new one is
+     * published whenever a block is finalized or notarized, so this is cheap and safe to call from any thread.
+     *
+     * @return The latest snapshot of the blockchain.
+     */
+    ChainSnapshot getSnapshot();
+
+    /**
+     * Looks up a block by its hash, whether or not it is finalized.
+     *
+     * @param hash The hash of a block.
+     * @return The current state of that block, or null if the block is not in the blockchain.
+     */
+    BlockState getBlockState(byte[] hash);
+
+    /**
+     * Looks up the blocks of an epoch, whether or not they are finalized. An epoch has no blocks if its proposal has
+     * not been received, and can have more than one if its leader proposed conflicting blocks.
+     *
+     * @param epoch An epoch.
+     * @return The current state of each block in the blockchain with that epoch.
+     */
+    List<BlockState> getBlockStatesOfEpoch(int epoch);
+
     /**
      * Gets the tail block of the longest notarized chain of the blockchain. This is the block that should be the
      * parent of any block proposed by this node.
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import java.util.List;
+
+/**
+ * An immutable view of the state of the blockchain that is served to clients: the finalized chain, and the notarized
+ * tip beyond it. The blockchain publishes a new snapshot whenever either changes, so readers can take one snapshot and
+ * answer a whole request from it, without locking and without seeing the chain change part-way through.
+ *
+ * @param finalizedChain The finalized chain, from oldest to youngest block (the genesis block has height 0).
+ * @param notarizedTip The notarized blocks beyond the finalized chain. Its first height is the length of the
+ *                     finalized chain.
+ */
+public record ChainSnapshot(List<Block> finalizedChain, NotarizedTip notarizedTip) {
+
+    /** @return The height of the youngest finalized block. */
+    public int finalizedHeight() {
+        return finalizedChain.size() - 1;
+    }
+
+    /**
+     * Gets a range of the finalized chain, by height.
+     *
+     * @param fromHeight The height of the first block to get.
+     * @param maxBlocks The maximum number of blocks to get.
+     * @return Up to maxBlocks finalized blocks, starting at fromHeight, from oldest to youngest (empty if fromHeight is
+     * past the end of the finalized chain).
+     * @throws IllegalArgumentException If fromHeight or maxBlocks is negative.
+     */
+    public List<Block> finalizedRange(int fromHeight, int maxBlocks) throws IllegalArgumentException {
+        return FinalizedChainIndex.range(finalizedChain, fromHeight, maxBlocks);
+    }
+
+    /**
+     * Finds where an epoch falls in the finalized chain.
+     *
+     * @param epoch An epoch.
+     * @return The height of the first finalized block with an epoch of at least epoch, or the length of the finalized
+     * chain if there is no such block.
+     */
+    public int finalizedHeightOfEpoch(int epoch) {
+        return FinalizedChainIndex.heightOfEpoch(finalizedChain, epoch);
+    }
+
+}
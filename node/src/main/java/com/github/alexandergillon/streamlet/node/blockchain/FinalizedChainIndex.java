@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Append-only index of the finalized chain, by height: the block at height h is the h-th block after the genesis
+ * block (which has height 0). Blocks are finalized in chain order, so the finalized chain only ever grows at its end,
+ * and a block's position in the index never changes once it is added.
+ * <p>
+ * Along the chain, epochs strictly increase, so blocks can also be looked up by epoch with a binary search.
+ * <p>
+ * Blocks must only be appended by one thread at a time (callers serialize appends), but can be read from any thread
+ * without locking.
+ * A block is written into the backing array before the size is increased past it, and the array is only replaced
+ * by a larger copy, so a reader that reads the size and then the array always sees at least that many blocks. This
+ * also makes {@link #toList()} cheap: it returns a view of the first blocks of the array, which never change.
+ */
+public class FinalizedChainIndex {
+
+    /** Initial capacity of the backing array. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The finalized chain, from oldest to youngest block, followed by unused space. Only ever appended to. */
+    private volatile Block[] blocks = new Block[INITIAL_CAPACITY];
+    /** Number of blocks in the finalized chain. Written after the block itself, so that readers see the block. */
+    private volatile int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param genesisBlock The first block of the chain, at height 0.
+     */
+    public FinalizedChainIndex(Block genesisBlock) {
+        append(genesisBlock);
+    }
+
+    /**
+     * Adds a newly finalized block to the end of the chain. Must not be called by two threads at once.
+     *
+     * @param block The block to add. Its parent must be the current last block of the chain.
+     * @return The height of the added block.
+     */
+    public int append(Block block) {
+        int height = size;
+        Block[] current = blocks;
+        if (height == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            blocks = current;
+        }
+        current[height] = block;
+        size = height + 1;
+        return height;
+    }
+
+    /** @return The number of blocks in the finalized chain, including the genesis block. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a range of the finalized chain.
+     *
+     * @param fromHeight The height of the first block to get.
+     * @param maxBlocks The maximum number of blocks to get.
+     * @return Up to maxBlocks blocks, starting at fromHeight, from oldest to youngest (empty if fromHeight is past the
+     * end of the chain).
+     * @throws IllegalArgumentException If fromHeight or maxBlocks is negative.
+     */
+    public List<Block> range(int fromHeight, int maxBlocks) throws IllegalArgumentException {
+        return range(toList(), fromHeight, maxBlocks);
+    }
+
+    /** @return The youngest block of the finalized chain. */
+    public Block last() {
+        int currentSize = size;
+        return blocks[currentSize - 1];
+    }
+
+    /**
+     * @return The whole finalized chain, from oldest to youngest block, as an unmodifiable view that does not grow
+     * when blocks are appended later. Does not copy the chain.
+     */
+    public List<Block> toList() {
+        int currentSize = size;
+        return new Prefix(blocks, currentSize);
+    }
+
+    /**
+     * Finds where an epoch falls in the finalized chain.
+     *
+     * @param epoch An epoch.
+     * @return The height of the first block in the finalized chain with an epoch of at least epoch, or the size of the
+     * chain if there is no such block.
+     */
+    public int heightOfEpoch(int epoch) {
+        return heightOfEpoch(toList(), epoch);
+    }
+
+    /**
+     * Gets a range of a finalized chain.
+     *
+     * @param chain A finalized chain, from oldest to youngest block.
+     * @param fromHeight The height of the first block to get.
+     * @param maxBlocks The maximum number of blocks to get.
+     * @return Up to maxBlocks blocks, starting at fromHeight, from oldest to youngest.
+     * @throws IllegalArgumentException If fromHeight or maxBlocks is negative.
+     */
+    static List<Block> range(List<Block> chain, int fromHeight, int maxBlocks) throws IllegalArgumentException {
+        if (fromHeight < 0) throw new IllegalArgumentException("Height must not be negative.");
+        if (maxBlocks < 0) throw new IllegalArgumentException("Number of blocks must not be negative.");
+        if (fromHeight >= chain.size()) return List.of();
+        int toHeight = (int) Long.min((long) fromHeight + maxBlocks, chain.size());
+        return chain.subList(fromHeight, toHeight);
+    }
+
+    /**
+     * Finds where an epoch falls in a finalized chain.
+     *
+     * @param chain A finalized chain, from oldest to youngest block.
+     * @param epoch An epoch.
+     * @return The height of the first block in the chain with an epoch of at least epoch, or the size of the chain if
+     * there is no such block.
+     */
+    static int heightOfEpoch(List<Block> chain, int epoch) {
+        int low = 0;
+        int high = chain.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chain.get(mid).getEpoch() < epoch) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /** Unmodifiable view of the first blocks of a backing array, which are never written again. */
+    private static class Prefix extends AbstractList<Block> implements RandomAccess {
+
+        private final Block[] blocks;
+        private final int size;
+
+        private Prefix(Block[] blocks, int size) {
+            this.blocks = blocks;
+            this.size = size;
+        }
+
+        @Override
+        public Block get(int index) {
+            return blocks[Objects.checkIndex(index, size)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
+}
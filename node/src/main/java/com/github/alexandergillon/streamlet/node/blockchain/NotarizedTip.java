@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import java.util.List;
+
+/**
+ * The notarized blocks beyond the end of the finalized chain, on the longest notarized chain that extends it. These
+ * blocks are likely, but not certain, to be finalized: a conflicting notarized chain may still overtake them.
+ *
+ * @param fromHeight The height of the first block (i.e. the length of the finalized chain, including the genesis
+ *                   block, when the tip was taken).
+ * @param blocks The blocks, from oldest to youngest. May be empty.
+ */
+public record NotarizedTip(int fromHeight, List<Block> blocks) {
+
+    /** @return The height of the youngest block of the tip, or of the finalized chain if the tip is empty. */
+    public int tipHeight() {
+        return fromHeight + blocks.size() - 1;
+    }
+
+    /**
+     * Gets what is left of this tip once a block is finalized, until the tip is recomputed.
+     *
+     * @param block A block that was just finalized, at height {@link #fromHeight()}.
+     * @return The rest of this tip if it started with that block, or an empty tip after that block otherwise.
+     */
+    public NotarizedTip afterFinalizing(Block block) {
+        if (!blocks.isEmpty() && blocks.get(0).equals(block)) return new NotarizedTip(fromHeight + 1, blocks.subList(1, blocks.size()));
+        return new NotarizedTip(fromHeight + 1, List.of());
+    }
+
+}
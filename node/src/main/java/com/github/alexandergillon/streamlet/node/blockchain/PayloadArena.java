@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only, off-heap storage for block payloads. Payloads are copied into slabs of direct memory, and are
+ * identified by a handle (slab index in the upper 32 bits, offset into the slab in the lower 32 bits). Payloads
+ * larger than a slab are given a slab of their own.
+ * <p>
+ * Blocks are never removed from the blockchain, so the arena never frees memory. Storing is synchronized, and reading
+ * only uses absolute gets on slabs that are never written again at that position, so reads are safe from any thread.
+ */
+public class PayloadArena {
+
+    /** Default size of each slab, in bytes. */
+    public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+    /** Size of each (regular) slab, in bytes. */
+    private final int slabBytes;
+    /** The slabs. Only ever appended to. */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    /** Slab that is currently being filled, or null if there is none. */
+    private ByteBuffer currentSlab;
+    /** Index of {@link #currentSlab} in {@link #slabs}. */
+    private int currentSlabIndex = -1;
+    /** Total number of payload bytes stored. */
+    private long bytesStored = 0;
+
+    /** Constructor. Uses slabs of {@link #DEFAULT_SLAB_BYTES}. */
+    public PayloadArena() {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param slabBytes The size of each slab of direct memory, in bytes.
+     * @throws IllegalArgumentException If slabBytes is not positive.
+     */
+    public PayloadArena(int slabBytes) throws IllegalArgumentException {
+        if (slabBytes <= 0) throw new IllegalArgumentException("Slab size of payload arena must be positive.");
+        this.slabBytes = slabBytes;
+    }
+
+    /**
+     * Copies a payload into the arena.
+     *
+     * @param payload The payload to store.
+     * @return A handle to the stored payload, to be passed to {@link #load(long, int)} along with the payload's length.
+     */
+    public synchronized long store(byte[] payload) {
+        int slabIndex;
+        int offset;
+        if (payload.length > slabBytes) {
+            // Oversized payloads get a dedicated slab, and the current slab is kept for later payloads
+            slabIndex = addSlab(payload.length);
+            offset = 0;
+        } else {
+            if (currentSlab == null || currentSlab.remaining() < payload.length) {
+                currentSlabIndex = addSlab(slabBytes);
+                currentSlab = slabs.get(currentSlabIndex);
+            }
+            slabIndex = currentSlabIndex;
+            offset = currentSlab.position();
+        }
+
+        slabs.get(slabIndex).put(offset, payload);
+        if (slabIndex == currentSlabIndex) currentSlab.position(offset + payload.length);
+        bytesStored += payload.length;
+        return ((long) slabIndex << 32) | offset;
+    }
+
+    /**
+     * Copies a payload out of the arena.
+     *
+     * @param handle The handle returned by {@link #store(byte[])} when the payload was stored.
+     * @param length The length of the payload.
+     * @return A new array, containing the payload.
+     */
+    public byte[] load(long handle, int length) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get((int) (handle >>> 32));
+        }
+        byte[] payload = new byte[length];
+        slab.get((int) handle, payload);
+        return payload;
+    }
+
+    /**
+     * Gets a view of a payload in the arena, without copying it. The view must not be written to.
+     *
+     * @param handle The handle returned by {@link #store(byte[])} when the payload was stored.
+     * @param length The length of the payload.
+     * @return A buffer containing exactly the payload, positioned at its start.
+     */
+    ByteBuffer slice(long handle, int length) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get((int) (handle >>> 32));
+        }
+        return slab.slice((int) handle, length);
+    }
+
+    /** @return The total number of payload bytes stored in the arena. */
+    public synchronized long getBytesStored() {
+        return bytesStored;
+    }
+
+    /** @return The total number of bytes of direct memory allocated by the arena. */
+    public synchronized long getBytesAllocated() {
+        long allocated = 0;
+        for (ByteBuffer slab : slabs) {
+            allocated += slab.capacity();
+        }
+        return allocated;
+    }
+
+    /**
+     * Allocates a new slab.
+     *
+     * @param capacity The size of the slab.
+     * @return The index of the new slab.
+     */
+    private int addSlab(int capacity) {
+        slabs.add(ByteBuffer.allocateDirect(capacity));
+        return slabs.size() - 1;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Index of every node of a {@link BlockTree}, by block hash and by epoch, so that blocks can be found in constant time
+ * rather than by searching the tree. Several blocks can share an epoch, if the blocks conflict.
+ * <p>
+ * Nodes are added by the thread that grows the tree, and the index can be read from any thread. States are read from
+ * each node's {@link BlockInfo}, which is kept when the node is indexed, rather than through the tree (whose storage
+ * can be replaced as it grows), and the index keeps its own (thread-safe) list of each node's children.
+ */
+public class BlockIndex {
+
+    /** An indexed node, its information (which belongs to the node for its whole lifetime), and its children. */
+    private record Entry(BlockTree node, BlockInfo blockInfo, List<Block> children) { }
+
+    /** Entries, by block hash. Hashes are wrapped in buffers, as buffers compare by content, and are never modified. */
+    private final Map<ByteBuffer, Entry> byHash = new ConcurrentHashMap<>();
+    /** Entries, by epoch. */
+    private final Map<Integer, List<Entry>> byEpoch = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param root The root of the tree, which must contain no other nodes.
+     */
+    public BlockIndex(BlockTree root) {
+        index(root);
+    }
+
+    /**
+     * Adds a newly inserted node to the index.
+     *
+     * @param node A node that was just added to the tree.
+     * @throws IllegalArgumentException If the node's parent has not been added.
+     */
+    public void add(BlockTree node) throws IllegalArgumentException {
+        Entry parent = byHash.get(ByteBuffer.wrap(node.getBlockInfo().getParentHash()));
+        if (parent == null) throw new IllegalArgumentException("Parent of node to add is not in the index.");
+        index(node);
+        parent.children().add(node.getBlockInfo().getBlock());
+    }
+
+    /**
+     * Finds a node of the tree. As the node reads the tree, it must only be used by the thread that grows the tree.
+     *
+     * @param hash The hash of a block.
+     * @return The node of the tree containing that block, or null if there is none.
+     */
+    public BlockTree find(byte[] hash) {
+        Entry entry = byHash.get(ByteBuffer.wrap(hash));
+        return entry == null ? null : entry.node();
+    }
+
+    /**
+     * @param hash The hash of a block.
+     * @return The current state of that block, or null if it is not in the tree.
+     */
+    public BlockState getState(byte[] hash) {
+        Entry entry = byHash.get(ByteBuffer.wrap(hash));
+        return entry == null ? null : snapshot(entry);
+    }
+
+    /**
+     * @param epoch An epoch.
+     * @return The current state of each block in the tree with that epoch, in the order they were added.
+     */
+    public List<BlockState> getStatesOfEpoch(int epoch) {
+        List<BlockState> states = new ArrayList<>();
+        for (Entry entry : byEpoch.getOrDefault(epoch, List.of())) {
+            states.add(snapshot(entry));
+        }
+        return states;
+    }
+
+    /** @return The number of blocks in the index. */
+    public int size() {
+        return byHash.size();
+    }
+
+    private void index(BlockTree node) {
+        BlockInfo blockInfo = node.getBlockInfo();
+        Entry entry = new Entry(node, blockInfo, new CopyOnWriteArrayList<>());
+        byHash.put(ByteBuffer.wrap(blockInfo.getHash()), entry);
+        byEpoch.computeIfAbsent(blockInfo.getEpoch(), epoch -> new CopyOnWriteArrayList<>()).add(entry);
+    }
+
+    private static BlockState snapshot(Entry entry) {
+        BlockInfo blockInfo = entry.blockInfo();
+        // Finalization notarizes first, so reading in this order never sees a finalized block that is not notarized
+        boolean finalized = blockInfo.isFinalized();
+        boolean notarized = finalized || blockInfo.isNotarized();
+        List<Integer> voters = Arrays.stream(blockInfo.getVoters()).boxed().toList();
+        return new BlockState(blockInfo.getBlock(), blockInfo.getHeight(), notarized, finalized, voters, List.copyOf(entry.children()));
+    }
+
+}
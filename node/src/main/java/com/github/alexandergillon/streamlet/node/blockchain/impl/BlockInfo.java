@@ -21,26 +21,55 @@ import com.github.alexandergillon.streamlet.node.services.PayloadService;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.text.ParseException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Stores a block, and information about it (such as voters on the block, whether the block is notarized/finalized, etc.). */
 @Slf4j
 public class BlockInfo {
 
+    /** Maximum number of voters on a block, used when the number of participants in the network is not supplied. */
+    public static final int DEFAULT_MAX_VOTERS = 1024;
+
     /** The block whose information we are tracking. */
     @Getter
     private final Block block;
+    /** Height of the block: the number of ancestors it has in the block tree (so the genesis block has height 0). */
+    @Getter
+    private final int height;
     /** Whether the block is notarized. */
-    private boolean notarized = false;
+    private final AtomicBoolean notarized = new AtomicBoolean(false);
     /** Whether the block is finalized. */
-    private boolean finalized = false;
+    private volatile boolean finalized = false;
     /** Who has voted on the block. */
-    private final Set<Integer> voters = new HashSet<>();
+    private final VoteTally voters;
 
-    /** Constructor. */
+    /** Constructor, for a block at the root of a tree. Allows up to {@link #DEFAULT_MAX_VOTERS} voters. */
     public BlockInfo(Block block) {
+        this(block, DEFAULT_MAX_VOTERS);
+    }
+
+    /**
+     * Constructor, for a block at the root of a tree.
+     *
+     * @param block The block whose information to track.
+     * @param maxVoters The maximum number of voters on the block (i.e. the number of participants in the network).
+     */
+    public BlockInfo(Block block, int maxVoters) {
+        this(block, maxVoters, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param block The block whose information to track.
+     * @param maxVoters The maximum number of voters on the block (i.e. the number of participants in the network).
+     * @param height The height of the block in the block tree (one more than the height of its parent).
+     */
+    public BlockInfo(Block block, int maxVoters, int height) {
         this.block = block;
+        this.height = height;
+        voters = new VoteTally(maxVoters);
     }
 
     /** Convenience method to get the parent hash of the underlying block. */
@@ -68,9 +97,16 @@ public class BlockInfo {
      * voted on this block, this has no effect.
      *
      * @param voterId The voter who voted on this block.
+     * @return Whether the voter was newly added (i.e. false if they had already voted on this block).
+     * @throws IllegalArgumentException If voterId is outside the range of voters that this block can hold.
      */
-    public void addVoter(int voterId) {
-        voters.add(voterId);
+    public boolean addVoter(int voterId) throws IllegalArgumentException {
+        return voters.add(voterId);
+    }
+
+    /** @return The IDs of the voters who have voted on this block, in increasing order. */
+    public int[] getVoters() {
+        return voters.voterIds();
     }
 
     /** @return The number of voters who have voted on this block. */
@@ -78,15 +114,21 @@ public class BlockInfo {
         return voters.size();
     }
 
-    /** Notarizes this block. */
-    public void notarize() {
+    /**
+     * Notarizes this block. Safe to call from multiple threads: only one caller will ever observe the transition
+     * from un-notarized to notarized.
+     *
+     * @return Whether this call notarized the block (i.e. false if the block was already notarized).
+     */
+    public boolean notarize() {
+        if (!notarized.compareAndSet(false, true)) return false;
         log.info("Notarized block: {}", block.toString());
-        notarized = true;
+        return true;
     }
 
     /** @return Whether this block is notarized. */
     public boolean isNotarized() {
-        return notarized;
+        return notarized.get();
     }
 
     /**
@@ -94,13 +136,20 @@ public class BlockInfo {
      * {@code finalize()} as this method is already implemented by {@code Object}.
      *
      * @param payloadService Any payload service that is interested in the finalization of a block. If this argument
-     *                       is not null, this payload service will be informed that this block has been finalized.
+     *                       is not null, this payload service will be informed that this block has been finalized (see
+     *                       {@link PayloadService#finalizedBlock(Block, int)}).
      */
     public void finalizeBlock(PayloadService payloadService) {
         log.info("Finalized block: {}", block.toString());
-        notarized = true;
+        notarized.set(true);
         finalized = true;
-        if (payloadService != null) payloadService.finalizedPayload(block.getPayload());
+        if (payloadService == null) return;
+        try {
+            payloadService.finalizedBlock(block, height);
+        } catch (ParseException e) {
+            // The block is finalized regardless: its payload just cannot contain any of our pending messages
+            log.error("Finalized block with malformed payload ({}): {}", e.getMessage(), block.toString());
+        }
     }
 
     /** @return Whether this block is finalized. */
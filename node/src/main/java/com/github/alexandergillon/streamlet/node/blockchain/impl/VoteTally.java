@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of voters on a block, stored as a fixed-width bitset (one bit per participant). Voters are added with an atomic
+ * compare-and-set, so a tally can safely be updated from multiple threads without locking.
+ */
+public class VoteTally {
+
+    /** Number of voter IDs stored in each word of the bitset. */
+    private static final int BITS_PER_WORD = Long.SIZE;
+
+    /** Maximum number of voters that this tally can hold. Voter IDs must be in the range [0, capacity). */
+    private final int capacity;
+    /** The bitset: bit {@code i % 64} of word {@code i / 64} is set if voter {@code i} has voted. */
+    private final AtomicLongArray words;
+    /** Number of bits set in the bitset. Kept separately so that counting votes does not need a popcount. */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of voters (i.e. the number of participants in the network).
+     * @throws IllegalArgumentException If capacity is not positive.
+     */
+    public VoteTally(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity of vote tally must be positive.");
+        this.capacity = capacity;
+        words = new AtomicLongArray((capacity + BITS_PER_WORD - 1) / BITS_PER_WORD);
+    }
+
+    /**
+     * Adds a voter to this tally. If the voter has already voted, this has no effect.
+     *
+     * @param voterId The voter to add.
+     * @return Whether the voter was newly added (i.e. false if they had already voted).
+     * @throws IllegalArgumentException If voterId is outside the range [0, capacity).
+     */
+    public boolean add(int voterId) throws IllegalArgumentException {
+        checkVoterId(voterId);
+        int index = voterId / BITS_PER_WORD;
+        long mask = 1L << (voterId % BITS_PER_WORD);
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) != 0) return false;
+            if (words.compareAndSet(index, word, word | mask)) {
+                count.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param voterId A voter.
+     * @return Whether that voter is in this tally.
+     * @throws IllegalArgumentException If voterId is outside the range [0, capacity).
+     */
+    public boolean contains(int voterId) throws IllegalArgumentException {
+        checkVoterId(voterId);
+        return (words.get(voterId / BITS_PER_WORD) & (1L << (voterId % BITS_PER_WORD))) != 0;
+    }
+
+    /**
+     * Gets the voters in this tally. Voters added concurrently may or may not be included.
+     *
+     * @return The IDs of the voters in this tally, in increasing order.
+     */
+    public int[] voterIds() {
+        int[] voterIds = new int[size()];
+        int found = 0;
+        for (int index = 0; index < words.length(); index++) {
+            long word = words.get(index);
+            while (word != 0) {
+                int voterId = index * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+                // The count and the words are not read atomically together, so more voters than counted may be found
+                if (found == voterIds.length) voterIds = Arrays.copyOf(voterIds, found + 1);
+                voterIds[found++] = voterId;
+                word &= word - 1;
+            }
+        }
+        return found == voterIds.length ? voterIds : Arrays.copyOf(voterIds, found);
+    }
+
+    /** @return The number of voters in this tally. */
+    public int size() {
+        return count.get();
+    }
+
+    /** @return The maximum number of voters that this tally can hold. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Checks that a voter ID can be stored in this tally.
+     *
+     * @param voterId The voter ID to check.
+     * @throws IllegalArgumentException If voterId is outside the range [0, capacity).
+     */
+    private void checkVoterId(int voterId) throws IllegalArgumentException {
+        if (voterId < 0 || voterId >= capacity) throw new IllegalArgumentException("Voter " + voterId + " is outside the range [0, " + capacity + ").");
+    }
+
+}
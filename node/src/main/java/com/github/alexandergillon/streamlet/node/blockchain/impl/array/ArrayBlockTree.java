@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl.array;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.exceptions.AlreadyExistsException;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockInfo;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockTree;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.GenesisBlockInfoWrapper;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of a tree of blocks, stored as a struct of arrays (see {@link BlockTreeArrays}) rather than as a graph
+ * of node objects. An {@code ArrayBlockTree} is a lightweight view of a single node in the arrays: views are created
+ * on demand, and two views are equal if they refer to the same node of the same tree.
+ */
+public class ArrayBlockTree implements BlockTree {
+
+    /** The arrays that store the tree. */
+    private final BlockTreeArrays arrays;
+    /** The ID of the node that this view refers to. */
+    private final int id;
+
+    private ArrayBlockTree(BlockTreeArrays arrays, int id) {
+        this.arrays = arrays;
+        this.id = id;
+    }
+
+    /**
+     * Constructor. Creates a new tree, with {@code block} as its root. Allows up to
+     * {@link BlockInfo#DEFAULT_MAX_VOTERS} voters on each block.
+     *
+     * @param block The block at the root of the tree.
+     */
+    public ArrayBlockTree(Block block) {
+        this(block, BlockInfo.DEFAULT_MAX_VOTERS);
+    }
+
+    /**
+     * Constructor. Creates a new tree, with {@code block} as its root.
+     *
+     * @param block The block at the root of the tree.
+     * @param maxVoters The maximum number of voters on each block in the tree (i.e. the number of participants in the network).
+     */
+    public ArrayBlockTree(Block block, int maxVoters) {
+        arrays = new BlockTreeArrays(maxVoters);
+        id = arrays.add(new ArrayBlockInfo(block, maxVoters, 0, arrays, arrays.size()), BlockTreeArrays.NONE);
+    }
+
+    public static ArrayBlockTree GENESIS_BLOCK_TREE() {
+        return GENESIS_BLOCK_TREE(BlockInfo.DEFAULT_MAX_VOTERS);
+    }
+
+    /**
+     * @param maxVoters The maximum number of voters on each block in the tree (i.e. the number of participants in the network).
+     * @return A new tree, containing only the genesis block.
+     */
+    public static ArrayBlockTree GENESIS_BLOCK_TREE(int maxVoters) {
+        BlockTreeArrays arrays = new BlockTreeArrays(maxVoters);
+        return new ArrayBlockTree(arrays, arrays.add(new GenesisBlockInfoWrapper(), BlockTreeArrays.NONE));
+    }
+
+    @Override
+    public BlockInfo getBlockInfo() {
+        return arrays.blockInfo(id);
+    }
+
+    @Override
+    public BlockTree getParent() {
+        return view(arrays.parent(id));
+    }
+
+    @Override
+    public List<? extends BlockTree> getChildren() {
+        List<ArrayBlockTree> children = new ArrayList<>();
+        for (int child = arrays.firstChild(id); child != BlockTreeArrays.NONE; child = arrays.nextSibling(child)) {
+            children.add(new ArrayBlockTree(arrays, child));
+        }
+        return children;
+    }
+
+    @Override
+    public BlockTree addChild(Block block) throws IllegalArgumentException, AlreadyExistsException {
+        if (!arrays.hashEquals(id, block.getParentHash())) throw new IllegalArgumentException("Parent hash of child to add does not match this node's hash.");
+
+        // A block's hash covers its parent hash, so if a block with this hash exists, it is a child of this node
+        int existingChild = arrays.find(block.getHash());
+        if (existingChild != BlockTreeArrays.NONE) throw new AlreadyExistsException(view(existingChild), "Block already exists as a child of this node.");
+
+        int child = arrays.add(new ArrayBlockInfo(block, arrays.maxVoters, getBlockInfo().getHeight() + 1, arrays, arrays.size()), id);
+        return new ArrayBlockTree(arrays, child);
+    }
+
+    @Override
+    public BlockTree find(Block block) {
+        return findByHash(block.getHash());
+    }
+
+    @Override
+    public BlockTree findByHash(byte[] hash) {
+        int found = arrays.find(hash);
+        if (found == BlockTreeArrays.NONE || !arrays.isInSubtree(id, found)) return null;
+        return new ArrayBlockTree(arrays, found);
+    }
+
+    @Override
+    public BlockTree insert(Block block) throws NoSuchElementException, AlreadyExistsException {
+        if (block.equals(getBlockInfo().getBlock())) throw new AlreadyExistsException(this, "Block already exists in the tree.");
+        BlockTree parent = findByHash(block.getParentHash());
+        if (parent == null) throw new NoSuchElementException("Parent block does not exist in tree.");
+        return parent.addChild(block);
+    }
+
+    @Override
+    public void vote(int voterId) {
+        getBlockInfo().addVoter(voterId);
+    }
+
+    @Override
+    public void voteOnBlock(Block block, int voterId) throws NoSuchElementException {
+        BlockTree blockTree = find(block);
+        if (blockTree == null) throw new NoSuchElementException("Block does not exist in tree.");
+        blockTree.vote(voterId);
+    }
+
+    @Override
+    public int getVotes() {
+        return getBlockInfo().getVotes();
+    }
+
+    @Override
+    public int getVotesOnBlock(Block block) throws NoSuchElementException {
+        BlockTree blockTree = find(block);
+        if (blockTree == null) throw new NoSuchElementException("Block does not exist in tree.");
+        return blockTree.getVotes();
+    }
+
+    @Override
+    public int getNotarizedChainLength() {
+        return arrays.notarizedChainLength(id);
+    }
+
+    @Override
+    public int getLongestNotarizedChainLength() {
+        return BlockTreeArrays.chainLength(arrays.longestNotarizedChain(id));
+    }
+
+    @Override
+    public BlockTree getLongestNotarizedChainTail() {
+        return view(BlockTreeArrays.chainTail(arrays.longestNotarizedChain(id)));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ArrayBlockTree other)) return false;
+        return arrays == other.arrays && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(arrays) + id;
+    }
+
+    /**
+     * @param id A node ID, or {@link BlockTreeArrays#NONE}.
+     * @return A view of that node in this tree, or null if {@code id} is {@link BlockTreeArrays#NONE}.
+     */
+    private ArrayBlockTree view(int id) {
+        return id == BlockTreeArrays.NONE ? null : new ArrayBlockTree(arrays, id);
+    }
+
+    /**
+     * {@link BlockInfo} for a node of an {@link ArrayBlockTree}, which mirrors notarization and finalization into the
+     * flags array, so that chain queries do not need to touch the {@link BlockInfo} objects.
+     */
+    private static class ArrayBlockInfo extends BlockInfo {
+
+        /** The arrays that store the tree. */
+        private final BlockTreeArrays arrays;
+        /** The ID of the node whose information this is. */
+        private final int id;
+
+        private ArrayBlockInfo(Block block, int maxVoters, int height, BlockTreeArrays arrays, int id) {
+            super(block, maxVoters, height);
+            this.arrays = arrays;
+            this.id = id;
+        }
+
+        @Override
+        public boolean notarize() {
+            boolean notarized = super.notarize();
+            arrays.setFlags(id, BlockTreeArrays.NOTARIZED);
+            return notarized;
+        }
+
+        @Override
+        public void finalizeBlock(PayloadService payloadService) {
+            super.finalizeBlock(payloadService);
+            arrays.setFlags(id, (byte) (BlockTreeArrays.NOTARIZED | BlockTreeArrays.FINALIZED));
+        }
+
+    }
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl.array;
+
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockInfo;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for an {@link ArrayBlockTree}. Every block in the tree is given a dense integer ID, in
+ * insertion order (the root has ID 0). Per-block data is held in primitive arrays indexed by that ID, and block
+ * hashes are packed into a single {@code long[]}, with a hash index (open addressing, linear probing) mapping hashes
+ * to IDs.
+ * <p>
+ * As children are always inserted after their parent, a child's ID is always greater than its parent's ID. Queries
+ * over a subtree can therefore be answered with a single backwards sweep over the arrays.
+ * <p>
+ * Like {@link com.github.alexandergillon.streamlet.node.blockchain.impl.memory.InMemoryBlockTree}, this is not
+ * safe to modify from multiple threads. {@link #longestNotarizedChain(int)} also writes to shared scratch arrays, so it
+ * must only be called by the thread that modifies the tree (or with the same lock held).
+ */
+class BlockTreeArrays {
+
+    /** Marks a block with no parent, no first child, or no next sibling. */
+    static final int NONE = -1;
+
+    /** Bit in {@link #flags} which is set if a block is notarized. */
+    static final byte NOTARIZED = 1;
+    /** Bit in {@link #flags} which is set if a block is finalized. */
+    static final byte FINALIZED = 2;
+
+    /** Number of {@code long}s needed to store a (SHA-256) block hash. */
+    private static final int HASH_WORDS = 4;
+    /** Length of a block hash, in bytes. */
+    private static final int HASH_BYTES = HASH_WORDS * Long.BYTES;
+    /** Initial number of blocks that the arrays can hold before they need to grow. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Maximum number of voters on each block in the tree. */
+    final int maxVoters;
+
+    /** Number of blocks in the tree. IDs are in the range [0, size). */
+    private int size = 0;
+
+    /** Parent ID of each block, or {@link #NONE} for the root. */
+    private int[] parents = new int[INITIAL_CAPACITY];
+    /** Epoch of each block. */
+    private int[] epochs = new int[INITIAL_CAPACITY];
+    /** Distance of each block from the root. */
+    private int[] depths = new int[INITIAL_CAPACITY];
+    /** {@link #NOTARIZED} and {@link #FINALIZED} bits of each block. */
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    /** First child of each block, or {@link #NONE}. */
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    /** Last child of each block, or {@link #NONE}. Kept so that children can be appended in insertion order. */
+    private int[] lastChildren = new int[INITIAL_CAPACITY];
+    /** Next sibling of each block, or {@link #NONE}. */
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    /** Hash of each block, as {@link #HASH_WORDS} big-endian words per block. */
+    private long[] hashes = new long[INITIAL_CAPACITY * HASH_WORDS];
+    /** Block information (the block itself, and its votes) of each block. */
+    private BlockInfo[] blockInfos = new BlockInfo[INITIAL_CAPACITY];
+
+    /** Hash index: each slot holds {@code ID + 1} of a block, or 0 if the slot is empty. Length is a power of two. */
+    private int[] hashIndex = new int[INITIAL_CAPACITY * 2];
+
+    /** Scratch space for {@link #longestNotarizedChain(int)}, kept so that it does not allocate on every call. */
+    private int[] chainLengths = new int[INITIAL_CAPACITY];
+    private int[] chainTails = new int[INITIAL_CAPACITY];
+
+    /**
+     * Constructor.
+     *
+     * @param maxVoters The maximum number of voters on each block in the tree.
+     */
+    BlockTreeArrays(int maxVoters) {
+        this.maxVoters = maxVoters;
+    }
+
+    /** @return The number of blocks in the tree. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a block to the arrays.
+     *
+     * @param blockInfo Information about the block to add.
+     * @param parent The ID of the parent of the block, or {@link #NONE} if the block is the root.
+     * @return The ID of the new block.
+     */
+    int add(BlockInfo blockInfo, int parent) {
+        if (size == parents.length) grow();
+
+        int id = size++;
+        parents[id] = parent;
+        epochs[id] = blockInfo.getEpoch();
+        depths[id] = parent == NONE ? 0 : depths[parent] + 1;
+        flags[id] = (byte) ((blockInfo.isNotarized() ? NOTARIZED : 0) | (blockInfo.isFinalized() ? FINALIZED : 0));
+        firstChildren[id] = NONE;
+        lastChildren[id] = NONE;
+        nextSiblings[id] = NONE;
+        blockInfos[id] = blockInfo;
+
+        byte[] hash = blockInfo.getHash();
+        for (int word = 0; word < HASH_WORDS; word++) {
+            hashes[id * HASH_WORDS + word] = hashWord(hash, word);
+        }
+
+        if (parent != NONE) {
+            if (firstChildren[parent] == NONE) firstChildren[parent] = id;
+            else nextSiblings[lastChildren[parent]] = id;
+            lastChildren[parent] = id;
+        }
+
+        if (size * 2 > hashIndex.length) rehash();
+        indexHash(id);
+        return id;
+    }
+
+    /**
+     * @param hash A block hash.
+     * @return The ID of the block with that hash, or {@link #NONE} if there is no such block.
+     */
+    int find(byte[] hash) {
+        if (hash == null || hash.length != HASH_BYTES) return NONE;
+
+        long word0 = hashWord(hash, 0);
+        int mask = hashIndex.length - 1;
+        for (int slot = slotFor(word0, mask); hashIndex[slot] != 0; slot = (slot + 1) & mask) {
+            int id = hashIndex[slot] - 1;
+            if (hashEquals(id, hash, word0)) return id;
+        }
+        return NONE;
+    }
+
+    /**
+     * @param id A block ID.
+     * @param hash A block hash.
+     * @return Whether the block with that ID has that hash.
+     */
+    boolean hashEquals(int id, byte[] hash) {
+        return hash != null && hash.length == HASH_BYTES && hashEquals(id, hash, hashWord(hash, 0));
+    }
+
+    int parent(int id) {
+        return parents[id];
+    }
+
+    int epoch(int id) {
+        return epochs[id];
+    }
+
+    int depth(int id) {
+        return depths[id];
+    }
+
+    int firstChild(int id) {
+        return firstChildren[id];
+    }
+
+    int nextSibling(int id) {
+        return nextSiblings[id];
+    }
+
+    BlockInfo blockInfo(int id) {
+        return blockInfos[id];
+    }
+
+    boolean isNotarized(int id) {
+        return (flags[id] & NOTARIZED) != 0;
+    }
+
+    boolean isFinalized(int id) {
+        return (flags[id] & FINALIZED) != 0;
+    }
+
+    /**
+     * Sets flag bits on a block.
+     *
+     * @param id A block ID.
+     * @param bits The bits to set ({@link #NOTARIZED} and/or {@link #FINALIZED}).
+     */
+    void setFlags(int id, byte bits) {
+        flags[id] |= bits;
+    }
+
+    /**
+     * @param ancestor A block ID.
+     * @param id Another block ID.
+     * @return Whether the block with ID {@code id} is in the subtree rooted at {@code ancestor} (including
+     * {@code ancestor} itself).
+     */
+    boolean isInSubtree(int ancestor, int id) {
+        int ancestorDepth = depths[ancestor];
+        while (id != NONE && depths[id] > ancestorDepth) {
+            id = parents[id];
+        }
+        return id == ancestor;
+    }
+
+    /**
+     * @param id A block ID.
+     * @return The length of the notarized chain from the root to that block, or 0 if any block on that chain is not
+     * notarized. Has the same semantics as {@link ArrayBlockTree#getNotarizedChainLength()}.
+     */
+    int notarizedChainLength(int id) {
+        int length = 0;
+        for (; id != NONE; id = parents[id]) {
+            if (!isNotarized(id)) return 0;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Finds the longest notarized chain starting at a block. Ties are broken in favour of the chain through the
+     * earliest-inserted child, as in {@link com.github.alexandergillon.streamlet.node.blockchain.impl.memory.InMemoryBlockTree}.
+     *
+     * @param id A block ID.
+     * @return The length of the longest notarized chain starting at that block (in the upper 32 bits), and the ID of
+     * the tail of that chain (in the lower 32 bits). If the block is not notarized, the length is 0 and the tail is
+     * {@link #NONE}.
+     */
+    long longestNotarizedChain(int id) {
+        if (!isNotarized(id)) return pack(0, NONE);
+
+        /* Children always have greater IDs than their parents, so sweeping backwards from the end of the arrays visits
+        every child before its parent. Blocks outside the subtree are swept too, but only those with IDs greater than
+        `id`, and they never propagate into it. Lengths/tails are indexed relative to `id`. A tail is always written
+        before it is read, so only the lengths need clearing. */
+        int count = size - id;
+        int[] childLengths = chainLengths;
+        int[] tails = chainTails;
+        Arrays.fill(childLengths, 0, count, 0);
+        for (int i = count - 1; i >= 0; i--) {
+            int block = id + i;
+            if (!isNotarized(block)) continue;
+            if (childLengths[i] == 0) tails[i] = block;
+
+            int length = childLengths[i] + 1;
+            int parent = parents[block];
+            if (i == 0 || parent < id) continue;
+
+            // Siblings are visited from latest to earliest, so >= gives ties to the earliest
+            int parentIndex = parent - id;
+            if (length >= childLengths[parentIndex]) {
+                childLengths[parentIndex] = length;
+                tails[parentIndex] = tails[i];
+            }
+        }
+        return pack(childLengths[0] + 1, tails[0]);
+    }
+
+    /** @return The length from a value returned by {@link #longestNotarizedChain(int)}. */
+    static int chainLength(long chain) {
+        return (int) (chain >>> 32);
+    }
+
+    /** @return The tail ID from a value returned by {@link #longestNotarizedChain(int)}. */
+    static int chainTail(long chain) {
+        return (int) chain;
+    }
+
+    private static long pack(int length, int tail) {
+        return ((long) length << 32) | (tail & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Compares the stored hash of a block with a hash.
+     *
+     * @param id A block ID.
+     * @param hash A hash, of length {@link #HASH_BYTES}.
+     * @param word0 The first word of {@code hash}.
+     * @return Whether the block's hash equals {@code hash}.
+     */
+    private boolean hashEquals(int id, byte[] hash, long word0) {
+        int base = id * HASH_WORDS;
+        if (hashes[base] != word0) return false;
+        for (int word = 1; word < HASH_WORDS; word++) {
+            if (hashes[base + word] != hashWord(hash, word)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a block to the hash index.
+     *
+     * @param id The ID of the block.
+     */
+    private void indexHash(int id) {
+        int mask = hashIndex.length - 1;
+        int slot = slotFor(hashes[id * HASH_WORDS], mask);
+        while (hashIndex[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashIndex[slot] = id + 1;
+    }
+
+    /** Doubles the size of the hash index, and re-indexes every block. */
+    private void rehash() {
+        hashIndex = new int[hashIndex.length * 2];
+        for (int id = 0; id < size; id++) {
+            indexHash(id);
+        }
+    }
+
+    /** Doubles the capacity of the per-block arrays. */
+    private void grow() {
+        int capacity = parents.length * 2;
+        parents = Arrays.copyOf(parents, capacity);
+        epochs = Arrays.copyOf(epochs, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        hashes = Arrays.copyOf(hashes, capacity * HASH_WORDS);
+        blockInfos = Arrays.copyOf(blockInfos, capacity);
+        chainLengths = new int[capacity];
+        chainTails = new int[capacity];
+    }
+
+    /** Hashes are already uniformly distributed, so the first word of a hash is used directly to pick its slot. */
+    private static int slotFor(long word0, int mask) {
+        return (int) (word0 ^ (word0 >>> 32)) & mask;
+    }
+
+    /**
+     * @param hash A block hash.
+     * @param word Which word to read.
+     * @return Bytes {@code [8 * word, 8 * word + 8)} of the hash, as a big-endian long.
+     */
+    private static long hashWord(byte[] hash, int word) {
+        long value = 0;
+        for (int i = word * Long.BYTES; i < (word + 1) * Long.BYTES; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+}
@@ -36,25 +36,48 @@ public class InMemoryBlockTree implements BlockTree {
     private final BlockTree parent;
     /** The children of this node. */
     private final List<InMemoryBlockTree> children = new ArrayList<>();
+    /** Maximum number of voters on the block at this node (and on the blocks of any children added to this node). */
+    private final int maxVoters;
 
     /**
-     * Constructor.
+     * Constructor. Allows up to {@link BlockInfo#DEFAULT_MAX_VOTERS} voters on each block.
      *
      * @param block The data to be stored at this node.
      * @param parent The parent of this node, or null if this node is the root.
      */
     public InMemoryBlockTree(Block block, BlockTree parent) {
-        blockInfo = new BlockInfo(block);
+        this(block, parent, BlockInfo.DEFAULT_MAX_VOTERS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param block The data to be stored at this node.
+     * @param parent The parent of this node, or null if this node is the root.
+     * @param maxVoters The maximum number of voters on each block in the tree (i.e. the number of participants in the network).
+     */
+    public InMemoryBlockTree(Block block, BlockTree parent, int maxVoters) {
+        blockInfo = new BlockInfo(block, maxVoters, parent == null ? 0 : parent.getBlockInfo().getHeight() + 1);
         this.parent = parent;
+        this.maxVoters = maxVoters;
     }
 
-    private InMemoryBlockTree(BlockInfo blockInfo) {
+    private InMemoryBlockTree(BlockInfo blockInfo, int maxVoters) {
         this.blockInfo = blockInfo;
         parent = null;
+        this.maxVoters = maxVoters;
     }
 
     public static InMemoryBlockTree GENESIS_BLOCK_TREE() {
-        return new InMemoryBlockTree(new GenesisBlockInfoWrapper());
+        return GENESIS_BLOCK_TREE(BlockInfo.DEFAULT_MAX_VOTERS);
+    }
+
+    /**
+     * @param maxVoters The maximum number of voters on each block in the tree (i.e. the number of participants in the network).
+     * @return A new tree, containing only the genesis block.
+     */
+    public static InMemoryBlockTree GENESIS_BLOCK_TREE(int maxVoters) {
+        return new InMemoryBlockTree(new GenesisBlockInfoWrapper(), maxVoters);
     }
 
     @Override
@@ -79,7 +102,7 @@ public class InMemoryBlockTree implements BlockTree {
         BlockTree existingChild = searchList(children, block);
         if (existingChild != null) throw new AlreadyExistsException(existingChild, "Block already exists as a child of this node.");
 
-        InMemoryBlockTree child = new InMemoryBlockTree(block, this);
+        InMemoryBlockTree child = new InMemoryBlockTree(block, this, maxVoters);
         children.add(child);
         return child;
     }
@@ -17,28 +17,44 @@
 package com.github.alexandergillon.streamlet.node.blockchain.impl.memory;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
 import com.github.alexandergillon.streamlet.node.blockchain.Blockchain;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.FinalizedChainIndex;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.blockchain.PayloadArena;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.AlreadyExistsException;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.InvalidBlockException;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.UnknownBlockException;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockIndex;
 import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockInfo;
 import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockTree;
 import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import lombok.extern.slf4j.Slf4j;
 
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
-/** Implementation of the {@link Blockchain} interface, with data stored in-memory. */
+/**
+ * Implementation of the {@link Blockchain} interface, with data stored in-memory.
+ * <p>
+ * Proposals and votes arrive on different threads, so every method that reads or changes the block tree holds this
+ * object's lock. Only one thread at a time therefore changes the tree, appends to the finalized chain or publishes a
+ * snapshot. Readers of {@link #getSnapshot()} and the block index never lock.
+ */
+@Slf4j
 public class InMemoryBlockchain implements Blockchain {
 
     /**
      * Root of the 'block tree', i.e. the blockchain (which is actually a tree at any given time, due to the
      * possibility of conflicting un-finalized blocks in the blockchain).
      */
-    private final BlockTree root = InMemoryBlockTree.GENESIS_BLOCK_TREE();
+    private final BlockTree root;
 
     /** Node id of this node in the network. */
     private final int networkNodeId;
@@ -47,25 +63,79 @@ public class InMemoryBlockchain implements Blockchain {
     private final int notarizationThreshold;
 
     /** Reference to the latest (in terms of epoch number) block that has been finalized in the blockchain. */
-    private BlockTree latestFinalizedBlock = root;  // TODO: use
+    private BlockTree latestFinalizedBlock;  // TODO: use
 
     /** {@link PayloadService} which is interested in finalization of payloads. */
     private final PayloadService payloadService;
 
+    /** Index of every block in the tree, by hash and by epoch, so that blocks can be found without searching the tree. */
+    private final BlockIndex blockIndex;
+
+    /** Index of the finalized chain by height, so that it can be read without walking the tree. */
+    private final FinalizedChainIndex finalizedChain;
+
     /**
-     * Constructor.
+     * The finalized chain and notarized tip, as served to readers. Replaced (with the lock held) whenever a block is
+     * finalized or notarized, and never modified, so readers on other threads never need to lock.
+     */
+    private volatile ChainSnapshot snapshot;
+
+    /** Arena that payloads of blocks are moved into once they are retained in the tree, or null to keep them on the heap. */
+    private final PayloadArena payloadArena;
+
+    /**
+     * Constructor. Allows up to {@link BlockInfo#DEFAULT_MAX_VOTERS} participants in the network.
      *
      * @param networkNodeId The id of this node in the network.
      */
     public InMemoryBlockchain(int networkNodeId, int notarizationThreshold, PayloadService payloadService) {
+        this(networkNodeId, BlockInfo.DEFAULT_MAX_VOTERS, notarizationThreshold, payloadService);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param networkNodeId The id of this node in the network.
+     * @param participants The number of nodes in the network. Node IDs must be in the range [0, participants).
+     */
+    public InMemoryBlockchain(int networkNodeId, int participants, int notarizationThreshold, PayloadService payloadService) {
+        this(networkNodeId, InMemoryBlockTree.GENESIS_BLOCK_TREE(participants), notarizationThreshold, payloadService);
+    }
+
+    /**
+     * Constructor, which allows the {@link BlockTree} implementation to be chosen.
+     *
+     * @param networkNodeId The id of this node in the network.
+     * @param root An empty tree (i.e. one containing only the genesis block) to store the blockchain in.
+     */
+    public InMemoryBlockchain(int networkNodeId, BlockTree root, int notarizationThreshold, PayloadService payloadService) {
+        this(networkNodeId, root, notarizationThreshold, payloadService, null);
+    }
+
+    /**
+     * Constructor, which allows the {@link BlockTree} implementation to be chosen, and payloads of blocks to be
+     * stored off-heap.
+     *
+     * @param networkNodeId The id of this node in the network.
+     * @param root An empty tree (i.e. one containing only the genesis block) to store the blockchain in.
+     * @param payloadArena Arena to move the payloads of blocks into when they are inserted into the tree, or null to
+     *                     keep payloads on the heap.
+     */
+    public InMemoryBlockchain(int networkNodeId, BlockTree root, int notarizationThreshold, PayloadService payloadService, PayloadArena payloadArena) {
+        this.payloadArena = payloadArena;
         this.networkNodeId = networkNodeId;
         this.notarizationThreshold = notarizationThreshold;
         this.payloadService = payloadService;
+        this.root = root;
+        latestFinalizedBlock = root;
+        blockIndex = new BlockIndex(root);
+        finalizedChain = new FinalizedChainIndex(root.getBlockInfo().getBlock());
+        snapshot = new ChainSnapshot(finalizedChain.toList(), new NotarizedTip(1, List.of()));
     }
 
     @Override
-    public boolean processProposedBlock(Block block, int proposer, int currentEpoch, boolean firstProposal) throws InvalidBlockException, UnknownBlockException {
-        BlockTree parent = root.findByHash(block.getParentHash());
+    public synchronized boolean processProposedBlock(Block block, int proposer, int currentEpoch, boolean firstProposal) throws InvalidBlockException, UnknownBlockException {
+        BlockTree parent = blockIndex.find(block.getParentHash());
         if (parent == null) throw new UnknownBlockException("Parent block cannot be found in the tree.");
 
         if (block.getEpoch() < 0) throw new InvalidBlockException("Epoch of block is < 0.");
@@ -89,14 +159,14 @@ public class InMemoryBlockchain implements Blockchain {
     }
 
     @Override
-    public void processBlockVote(Block block, int voterId) throws UnknownBlockException {
-        BlockTree blockTree = root.find(block);
+    public synchronized void processBlockVote(Block block, int voterId) throws UnknownBlockException {
+        BlockTree blockTree = blockIndex.find(block.getHash());
         if (blockTree != null) {
             blockTree.vote(voterId);
             checkForNotarization(blockTree);
             return;
         } else {
-            BlockTree parent = root.findByHash(block.getParentHash());
+            BlockTree parent = blockIndex.find(block.getParentHash());
             if (parent != null) {
                 insertIntoTree(block, parent, voterId, false);
                 return;
@@ -106,57 +176,61 @@ public class InMemoryBlockchain implements Blockchain {
     }
 
     @Override
-    public boolean contains(Block block) {
-        return root.find(block) != null;
+    public synchronized boolean contains(Block block) {
+        return blockIndex.find(block.getHash()) != null;
     }
 
     @Override
-    public boolean isNotarized(Block block) throws NoSuchElementException {
-        BlockTree found = root.find(block);
+    public synchronized boolean isNotarized(Block block) throws NoSuchElementException {
+        BlockTree found = blockIndex.find(block.getHash());
         if (found == null) throw new NoSuchElementException("Block does not exist in the blockchain.");
         return found.getBlockInfo().isNotarized();
     }
 
     @Override
-    public boolean isFinalized(Block block) throws NoSuchElementException {
-        BlockTree found = root.find(block);
+    public synchronized boolean isFinalized(Block block) throws NoSuchElementException {
+        BlockTree found = blockIndex.find(block.getHash());
         if (found == null) throw new NoSuchElementException("Block does not exist in the blockchain.");
         return found.getBlockInfo().isFinalized();
     }
 
     @Override
-    public Block getParent(Block block) throws NoSuchElementException {
-        BlockTree found = root.find(block);
+    public synchronized Block getParent(Block block) throws NoSuchElementException {
+        BlockTree found = blockIndex.find(block.getHash());
         if (found == null) throw new NoSuchElementException("Block does not exist in the blockchain.");
         return found.getParent().getBlockInfo().getBlock();
     }
 
     @Override
     public List<Block> getFinalizedChain() {
-        ArrayList<Block> finalizedChain = new ArrayList<>();
-        finalizedChain.add(root.getBlockInfo().getBlock());
-        BlockTree node = root;
-        while (true) {
-            BlockTree child = findFinalizedChild(node);
-            if (child == null) {
-                return finalizedChain;
-            } else {
-                finalizedChain.add(child.getBlockInfo().getBlock());
-                node = child;
-            }
-        }
+        return snapshot.finalizedChain();
+    }
+
+    @Override
+    public ChainSnapshot getSnapshot() {
+        return snapshot;
     }
 
     @Override
-    public Block getLongestNotarizedChainTail() {
+    public BlockState getBlockState(byte[] hash) {
+        return blockIndex.getState(hash);
+    }
+
+    @Override
+    public List<BlockState> getBlockStatesOfEpoch(int epoch) {
+        return blockIndex.getStatesOfEpoch(epoch);
+    }
+
+    @Override
+    public synchronized Block getLongestNotarizedChainTail() {
         return root.getLongestNotarizedChainTail().getBlockInfo().getBlock();
     }
 
     @Override
-    public Set<Block> getUnfinalizedAncestorSetOf(Block block) {
+    public synchronized Set<Block> getUnfinalizedAncestorSetOf(Block block) {
         HashSet<Block> unfinalizedSet = new HashSet<>();
 
-        BlockTree current = root.find(block);
+        BlockTree current = blockIndex.find(block.getHash());
         while (!current.getBlockInfo().isFinalized()) {
             unfinalizedSet.add(current.getBlockInfo().getBlock());
             current = current.getParent();
@@ -184,6 +258,10 @@ public class InMemoryBlockchain implements Blockchain {
         BlockTree insertedBlock;
         try {
             insertedBlock = parent.addChild(block);
+            blockIndex.add(insertedBlock);
+            decodeMessages(block);
+            // Only move blocks that were actually retained: duplicates are dropped, so their payloads can stay on the heap
+            if (payloadArena != null) block.moveToArena(payloadArena);
         } catch (AlreadyExistsException e) {
             insertedBlock = e.getExistingNode();
         }
@@ -194,9 +272,26 @@ public class InMemoryBlockchain implements Blockchain {
         checkForNotarization(insertedBlock);
     }
 
+    /**
+     * Decodes the messages in a block that has just entered the tree, while its payload is still on the heap. The
+     * decoded messages are kept with the block until it is finalized, so that notarizing, proposing and finalizing
+     * never parse it again.
+     *
+     * @param block The block to decode.
+     */
+    private void decodeMessages(Block block) {
+        try {
+            block.getMessages();
+        } catch (ParseException e) {
+            // Not fatal until the block is finalized (if ever), which reports the error
+            log.debug("Block with malformed payload entered the tree: {}", block);
+        }
+    }
+
     /**
      * Checks whether a node should be notarized, after a vote has occurred. If notarization occurs, also checks if
-     * any blocks can now be finalized.
+     * any blocks can now be finalized. Only the caller that actually notarizes the block goes on to check for
+     * finalization, as {@link BlockInfo#notarize()} reports the threshold crossing exactly once.
      *
      * @param node The node to check whether to notarize.
      */
@@ -204,9 +299,39 @@ public class InMemoryBlockchain implements Blockchain {
         BlockInfo blockInfo = node.getBlockInfo();
         if (blockInfo.isNotarized()) return;
 
-        if (blockInfo.getVotes() >= notarizationThreshold) {
-            blockInfo.notarize();
+        if (blockInfo.getVotes() >= notarizationThreshold && blockInfo.notarize()) {
+            notifyNotarized(blockInfo);
             checkForFinalization(node);
+            updateNotarizedTip();
+        }
+    }
+
+    /**
+     * Recomputes the notarized tip, after a block is notarized (and possibly, blocks are finalized), and publishes it.
+     * Only the subtree under the youngest finalized block is searched, as blocks elsewhere can no longer be finalized.
+     */
+    private void updateNotarizedTip() {
+        BlockTree lastFinalized = blockIndex.find(finalizedChain.last().getHash());
+        List<Block> blocks = new ArrayList<>();
+        for (BlockTree current = lastFinalized.getLongestNotarizedChainTail(); !current.getBlockInfo().isFinalized(); current = current.getParent()) {
+            blocks.add(current.getBlockInfo().getBlock());
+        }
+        Collections.reverse(blocks);
+        snapshot = new ChainSnapshot(finalizedChain.toList(), new NotarizedTip(lastFinalized.getBlockInfo().getHeight() + 1, List.copyOf(blocks)));
+    }
+
+    /**
+     * Informs the payload service that a block has been notarized, if there is one.
+     *
+     * @param blockInfo The block that was notarized.
+     */
+    private void notifyNotarized(BlockInfo blockInfo) {
+        if (payloadService == null) return;
+        try {
+            payloadService.notarizedBlock(blockInfo.getBlock(), blockInfo.getHeight());
+        } catch (ParseException e) {
+            // Reported if the block is ever finalized
+            log.debug("Notarized block with malformed payload: {}", blockInfo.getBlock());
         }
     }
 
@@ -271,33 +396,25 @@ public class InMemoryBlockchain implements Blockchain {
     }
 
     /**
-     * Finalizes the prefix chain of a node (including that node).
+     * Finalizes the prefix chain of a node (including that node). Blocks are finalized in chain order, from the oldest
+     * unfinalized ancestor down to the node, so that the payload service sees finalized blocks in order of height, and
+     * the finalized chain index only ever grows at its end.
      *
      * @param node The node to finalize the prefix chain (includes the node itself).
      */
     private void finalizePrefixChain(BlockTree node) {
-        node.getBlockInfo().finalizeBlock(payloadService);
-        while (true) {
-            BlockTree parent = node.getParent();
-            if (parent == null) return;
-            if (parent.getBlockInfo().isFinalized()) return;
-            parent.getBlockInfo().finalizeBlock(payloadService);
-            node = parent;
+        List<BlockTree> unfinalized = new ArrayList<>();
+        for (BlockTree current = node; current != null && !current.getBlockInfo().isFinalized(); current = current.getParent()) {
+            unfinalized.add(current);
         }
-    }
-
-    /**
-     * Finds a finalized child of a node, if one exists.
-     *
-     * @param node Node to query.
-     * @return A finalized child of that node, or none if none exist.
-     */
-    private static BlockTree findFinalizedChild(BlockTree node) {
-        for (BlockTree child : node.getChildren()) {
-            if (child.getBlockInfo().isFinalized()) {
-                return child;
-            }
+        for (int i = unfinalized.size() - 1; i >= 0; i--) {
+            BlockInfo blockInfo = unfinalized.get(i).getBlockInfo();
+            // Published first, so that anything the payload service notifies can already read the block by height
+            finalizedChain.append(blockInfo.getBlock());
+            snapshot = new ChainSnapshot(finalizedChain.toList(), snapshot.notarizedTip().afterFinalizing(blockInfo.getBlock()));
+            blockInfo.finalizeBlock(payloadService);
+            // Listeners have seen the messages by now, so they need not stay on the heap next to an off-heap payload
+            if (payloadArena != null) blockInfo.getBlock().releaseMessages();
         }
-        return null;
     }
 }
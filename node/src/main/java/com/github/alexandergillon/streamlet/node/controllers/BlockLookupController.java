@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
+import com.github.alexandergillon.streamlet.node.models.BlockDetails;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Controller to allow operators to inspect individual blocks in this node's block tree, including unfinalized and
+ * conflicting blocks, e.g. to see why the chain is not being finalized.
+ */
+@RestController
+@RequiredArgsConstructor
+public class BlockLookupController {
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final BlockchainService blockchainService;
+
+    /**
+     * Gets a block by its hash.
+     *
+     * @param hash The hash of the block, base-64 encoded (standard or URL-safe).
+     * @return The block, its status, its voters and its children. Status codes: 200 OK, 400 Bad Request if the hash
+     * is malformed, or 404 Not Found if this node does not have the block.
+     */
+    @GetMapping(value = "/blocks/by-hash", produces = MediaType.APPLICATION_JSON_VALUE)
+    public BlockDetails getBlockByHash(@RequestParam String hash) {
+        BlockState blockState = blockchainService.getBlockState(decodeHash(hash));
+        if (blockState == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Block is not in the block tree.");
+        return SerializationUtils.toBlockDetails(blockState);
+    }
+
+    /**
+     * Gets the blocks of an epoch.
+     *
+     * @param epoch The epoch.
+     * @return The blocks with that epoch (none if this node has not received one, or several if they conflict), with
+     * their statuses, voters and children. Status codes: 200 OK, or 400 Bad Request if the epoch is negative.
+     */
+    @GetMapping(value = "/blocks/by-epoch/{epoch}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BlockDetails> getBlocksByEpoch(@PathVariable int epoch) {
+        if (epoch < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Epoch must not be negative.");
+        return blockchainService.getBlockStatesOfEpoch(epoch).stream().map(SerializationUtils::toBlockDetails).toList();
+    }
+
+    /**
+     * Decodes a block hash from a request.
+     *
+     * @param hash A base-64 encoded hash, in either the standard or the URL-safe alphabet.
+     * @return The decoded hash.
+     * @throws ResponseStatusException (400 Bad Request) If the hash is not valid base-64, or is the wrong length.
+     */
+    private static byte[] decodeHash(String hash) throws ResponseStatusException {
+        // An unencoded '+' in a query string arrives as a space
+        String normalized = hash.trim().replace(' ', '+');
+        byte[] decoded;
+        try {
+            boolean urlSafe = normalized.indexOf('-') >= 0 || normalized.indexOf('_') >= 0;
+            decoded = (urlSafe ? Base64.getUrlDecoder() : Base64.getDecoder()).decode(normalized);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Hash must be base-64 encoded.");
+        }
+        if (decoded.length != Block.SHA_256_HASH_LENGTH_BYTES) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Hash must be " + Block.SHA_256_HASH_LENGTH_BYTES + " bytes long.");
+        return decoded;
+    }
+
+}
@@ -16,31 +16,238 @@
  */
 package com.github.alexandergillon.streamlet.node.controllers;
 
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.models.ChainPage;
+import com.github.alexandergillon.streamlet.node.models.FinalizedBlock;
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
+import com.github.alexandergillon.streamlet.node.models.TipBlock;
+import com.github.alexandergillon.streamlet.node.models.TipPage;
 import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.ChainRenderService;
 import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 
 /** Controller to allow users / other web services to view the blockchain. */
 @RestController
 @RequiredArgsConstructor
 public class BlockchainController {
 
+    // Constants from Spring properties
+    @Value("${streamlet.chain.page.default-size:100}")
+    private int defaultPageSize;
+    @Value("${streamlet.chain.page.max-size:1000}")
+    private int maxPageSize;
+    @Value("${streamlet.chain.render-cache.enabled:true}")
+    private boolean renderCacheEnabled;
+
     // Autowired dependencies (via RequiredArgsConstructor)
     private final BlockchainService blockchainService;
+    private final ChainRenderService chainRenderService;
 
-    /** @return The finalized message chain of the blockchain, as readable text. */
-    @GetMapping(value = "/chain/readable", produces = MediaType.TEXT_PLAIN_VALUE)
-    public String getChainText() {
-         return SerializationUtils.blockListMessagesToReadableText(blockchainService.getFinalizedChain());
+    /**
+     * @param webRequest The request, to check whether the client already has the current chain.
+     * @return The finalized message chain of the blockchain, as readable text. Status codes: 200 OK, or 304 Not
+     * Modified if the request's If-None-Match header matches the current chain's ETag.
+     */
+    @GetMapping(value = "/chain/readable", produces = MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8")
+    public ResponseEntity<StreamingResponseBody> getChainText(WebRequest webRequest) {
+        MediaType contentType = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+        if (!renderCacheEnabled) {
+            // Streamed from a snapshot as it is rendered, so memory use does not grow with the chain
+            List<Block> finalizedChain = blockchainService.getSnapshot().finalizedChain();
+            return ResponseEntity.ok()
+                    .contentType(contentType)
+                    .body(outputStream -> SerializationUtils.writeBlockMessagesAsReadableText(finalizedChain, outputStream));
+        }
+        return cachedRendering(chainRenderService.renderReadableText(), contentType, webRequest);
     }
 
-    /** @return The finalized message chain of the blockchain, as a JSON string. */
+    /**
+     * @param webRequest The request, to check whether the client already has the current chain.
+     * @return The finalized message chain of the blockchain, as a JSON array. Status codes: 200 OK, or 304 Not
+     * Modified if the request's If-None-Match header matches the current chain's ETag.
+     */
     @GetMapping(value = "/chain/json", produces = MediaType.APPLICATION_JSON_VALUE)
-    public String getChainJson() {
-        return SerializationUtils.blockListMessagesToJson(blockchainService.getFinalizedChain());
+    public ResponseEntity<StreamingResponseBody> getChainJson(WebRequest webRequest) {
+        if (!renderCacheEnabled) {
+            // Streamed from a snapshot as it is rendered, so memory use does not grow with the chain
+            List<Block> finalizedChain = blockchainService.getSnapshot().finalizedChain();
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(outputStream -> SerializationUtils.writeBlockMessagesAsJson(finalizedChain, outputStream));
+        }
+        return cachedRendering(chainRenderService.renderJson(), MediaType.APPLICATION_JSON, webRequest);
+    }
+
+    /**
+     * Gets a page of the finalized chain, by height.
+     *
+     * @param from The height of the first block to get (the genesis block has height 0).
+     * @param to The height of the last block to get, inclusive. By default, the end of the finalized chain.
+     * @param limit The maximum number of blocks to return (capped at streamlet.chain.page.max-size).
+     * @return Finalized blocks with heights in the range, from oldest to youngest. If there are more, the cursor is the
+     * value of 'from' for the next page. Status codes: 200 OK, or 400 Bad Request if the range or limit is invalid.
+     */
+    @GetMapping(value = "/chain/blocks", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ChainPage getBlocksByHeight(@RequestParam(defaultValue = "0") int from,
+                                       @RequestParam(required = false) Integer to,
+                                       @RequestParam(required = false) Integer limit) {
+        if (from < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Height must not be negative.");
+        if (to != null && to < from) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "End of range must not be before its start.");
+        int pageSize = pageSize(limit);
+
+        // One block past the page tells us whether there is a next page
+        List<Block> blocks = blockchainService.getSnapshot().finalizedRange(from, pageSize + 1);
+        int inRange = to == null ? blocks.size() : (int) Long.min(blocks.size(), (long) to - from + 1);
+        boolean more = inRange > pageSize;
+        return new ChainPage(toFinalizedBlocks(blocks.subList(0, Integer.min(inRange, pageSize)), from), more ? from + pageSize : null);
+    }
+
+    /**
+     * Gets a page of the finalized chain, by epoch. Each epoch has at most one finalized block.
+     *
+     * @param from The first epoch to get a block for.
+     * @param to The last epoch to get a block for, inclusive. By default, the end of the finalized chain.
+     * @param limit The maximum number of blocks to return (capped at streamlet.chain.page.max-size).
+     * @return Finalized blocks with epochs in the range, from oldest to youngest. If there are more, the cursor is the
+     * value of 'from' for the next page. Status codes: 200 OK, or 400 Bad Request if the range or limit is invalid.
+     */
+    @GetMapping(value = "/chain/blocks/by-epoch", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ChainPage getBlocksByEpoch(@RequestParam(defaultValue = "0") int from,
+                                      @RequestParam(required = false) Integer to,
+                                      @RequestParam(required = false) Integer limit) {
+        if (from < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Epoch must not be negative.");
+        if (to != null && to < from) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "End of range must not be before its start.");
+        int pageSize = pageSize(limit);
+
+        ChainSnapshot snapshot = blockchainService.getSnapshot();
+        int fromHeight = snapshot.finalizedHeightOfEpoch(from);
+        List<Block> blocks = snapshot.finalizedRange(fromHeight, pageSize + 1);
+        int inRange = 0;
+        while (inRange < blocks.size() && (to == null || blocks.get(inRange).getEpoch() <= to)) inRange++;
+        boolean more = inRange > pageSize;
+        return new ChainPage(toFinalizedBlocks(blocks.subList(0, Integer.min(inRange, pageSize)), fromHeight), more ? blocks.get(pageSize).getEpoch() : null);
+    }
+
+    /**
+     * Gets the finalized blocks after a cursor, to follow the chain as it grows. Unlike the range queries, there is
+     * always a cursor: once a client has caught up, it gets an empty page, and polls again with the same cursor.
+     *
+     * @param cursor The cursor returned by the previous call, or 0 to start from the genesis block.
+     * @param limit The maximum number of blocks to return (capped at streamlet.chain.page.max-size).
+     * @return Finalized blocks after the cursor, from oldest to youngest, and the cursor to continue from. Status codes:
+     * 200 OK, or 400 Bad Request if the cursor or limit is invalid.
+     */
+    @GetMapping(value = "/chain/blocks/since", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ChainPage getBlocksSince(@RequestParam(defaultValue = "0") int cursor,
+                                    @RequestParam(required = false) Integer limit) {
+        if (cursor < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor must not be negative.");
+        List<Block> blocks = blockchainService.getSnapshot().finalizedRange(cursor, pageSize(limit));
+        return new ChainPage(toFinalizedBlocks(blocks, cursor), cursor + blocks.size());
+    }
+
+    /**
+     * Gets the chain up to its notarized tip: finalized blocks, then the notarized blocks of the longest notarized
+     * chain, each tagged with its status. Notarized blocks are likely, but not certain, to be finalized, so clients
+     * that accept this can show messages a few epochs sooner than with the finalized chain alone.
+     *
+     * @param from The height of the first block to get. By default, the first block after the finalized chain.
+     * @param limit The maximum number of blocks to return (capped at streamlet.chain.page.max-size).
+     * @param webRequest The request, to check whether the client already has the current tip.
+     * @return Blocks from the height onwards, from oldest to youngest, with the heights of the finalized chain and of
+     * the tip. If the page does not reach the tip, the cursor is the value of 'from' for the next page. Status codes:
+     * 200 OK, 304 Not Modified if the request's If-None-Match header matches the current tip's ETag, or 400 Bad
+     * Request if the height or limit is invalid.
+     */
+    @GetMapping(value = "/chain/tip", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<TipPage> getNotarizedTip(@RequestParam(required = false) Integer from,
+                                                   @RequestParam(required = false) Integer limit,
+                                                   WebRequest webRequest) {
+        if (from != null && from < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Height must not be negative.");
+        int pageSize = pageSize(limit);
+
+        // One snapshot, so that the finalized blocks and the tip join up exactly
+        ChainSnapshot snapshot = blockchainService.getSnapshot();
+        NotarizedTip tip = snapshot.notarizedTip();
+        Block tipBlock = tip.blocks().isEmpty() ? null : tip.blocks().get(tip.blocks().size() - 1);
+        String eTag = "\"tip-" + tip.fromHeight() + "-" + (tipBlock == null ? "none" : HexFormat.of().formatHex(tipBlock.getHash(), 0, 8)) + "\"";
+        if (webRequest.checkNotModified(eTag)) return null;
+
+        int fromHeight = from == null ? tip.fromHeight() : from;
+        List<TipBlock> blocks = new ArrayList<>();
+        if (fromHeight < tip.fromHeight()) {
+            List<Block> finalized = snapshot.finalizedRange(fromHeight, Integer.min(pageSize, tip.fromHeight() - fromHeight));
+            for (int i = 0; i < finalized.size(); i++) {
+                blocks.add(SerializationUtils.toTipBlock(finalized.get(i), fromHeight + i, MessageStatus.State.FINALIZED));
+            }
+        }
+        for (int height = Integer.max(fromHeight, tip.fromHeight()); height <= tip.tipHeight() && blocks.size() < pageSize; height++) {
+            blocks.add(SerializationUtils.toTipBlock(tip.blocks().get(height - tip.fromHeight()), height, MessageStatus.State.NOTARIZED));
+        }
+
+        int nextHeight = fromHeight + blocks.size();
+        Integer nextCursor = nextHeight <= tip.tipHeight() ? nextHeight : null;
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .body(new TipPage(tip.fromHeight() - 1, tip.tipHeight(), blocks, nextCursor));
+    }
+
+    /**
+     * Builds a response from a rendering of the chain.
+     *
+     * @param rendering A rendering of the chain.
+     * @param contentType The content type of that rendering.
+     * @param webRequest The request, to check whether the client already has the rendering.
+     * @return The rendering, with its ETag, or null if a 304 Not Modified response has already been set up.
+     */
+    private static ResponseEntity<StreamingResponseBody> cachedRendering(ChainRenderService.Rendering rendering, MediaType contentType, WebRequest webRequest) {
+        if (webRequest.checkNotModified(rendering.getETag())) return null;
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .contentLength(rendering.getLength())
+                .eTag(rendering.getETag())
+                .body(rendering::writeTo);
+    }
+
+    /**
+     * @param limit The page size requested by a client, or null if none was requested.
+     * @return The page size to use.
+     * @throws ResponseStatusException If the requested page size is not positive.
+     */
+    private int pageSize(Integer limit) throws ResponseStatusException {
+        if (limit == null) return defaultPageSize;
+        if (limit <= 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive.");
+        return Integer.min(limit, maxPageSize);
+    }
+
+    /**
+     * @param blocks Consecutive blocks of the finalized chain.
+     * @param fromHeight The height of the first of those blocks.
+     * @return Those blocks, converted to {@link FinalizedBlock}s.
+     */
+    private static List<FinalizedBlock> toFinalizedBlocks(List<Block> blocks, int fromHeight) {
+        List<FinalizedBlock> finalizedBlocks = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            finalizedBlocks.add(SerializationUtils.toFinalizedBlock(blocks.get(i), fromHeight + i));
+        }
+        return finalizedBlocks;
     }
 
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.services.ChainEventService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Controller to push newly finalized messages to clients as server-sent events, so that they do not have to poll the
+ * chain. See {@link ChainEventService} for the format of the events.
+ */
+@RestController
+@RequiredArgsConstructor
+public class ChainEventController {
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final ChainEventService chainEventService;
+
+    /**
+     * Subscribes to finalized blocks. A client that reconnects (as browsers do automatically) resumes after the last
+     * event it received, from its Last-Event-ID header.
+     *
+     * @param fromHeight The height of the first block to send. By default, only blocks finalized from now on are sent.
+     * @param lastEventId The ID of the last event received on a previous connection, if any. Takes precedence over
+     *                    fromHeight.
+     * @return A stream of finalized blocks. Status codes: 200 OK, 400 Bad Request if the height or event ID is invalid,
+     * or 503 Service Unavailable if there are too many subscribers.
+     */
+    @GetMapping(value = "/chain/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestParam(required = false) Integer fromHeight,
+                                @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        int from;
+        if (lastEventId != null) {
+            try {
+                int lastHeight = Integer.parseInt(lastEventId.trim());
+                if (lastHeight < 0) throw new NumberFormatException("Negative height.");
+                from = Math.addExact(lastHeight, 1);
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Last-Event-ID must be a block height.");
+            }
+        } else if (fromHeight != null) {
+            if (fromHeight < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Height must not be negative.");
+            from = fromHeight;
+        } else {
+            from = -1;
+        }
+
+        SseEmitter emitter = chainEventService.subscribe(from);
+        if (emitter == null) throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many subscribers, try again later.");
+        return emitter;
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.MempoolStatus;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Controller to expose the state of this node's pending messages, so that submissions can be throttled. */
+@RestController
+@RequiredArgsConstructor
+public class MempoolController {
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final PayloadService payloadService;
+
+    /** @return Occupancy and eviction counts of the pending message buffer, and whether there is back-pressure. */
+    @GetMapping(value = "/mempool", produces = MediaType.APPLICATION_JSON_VALUE)
+    public MempoolStatus getMempoolStatus() {
+        return payloadService.getMempoolStatus();
+    }
+
+}
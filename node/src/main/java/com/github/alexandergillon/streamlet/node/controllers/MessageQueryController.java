@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.MessagePage;
+import com.github.alexandergillon.streamlet.node.models.SearchPage;
+import com.github.alexandergillon.streamlet.node.services.MessageIndexService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/** Controller to allow moderation and analytics tools to query finalized messages, without downloading the chain. */
+@RestController
+@RequiredArgsConstructor
+public class MessageQueryController {
+
+    // Constants from Spring properties
+    @Value("${streamlet.chain.page.default-size:100}")
+    private int defaultPageSize;
+    @Value("${streamlet.chain.page.max-size:1000}")
+    private int maxPageSize;
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final MessageIndexService messageIndexService;
+
+    /**
+     * Finds finalized messages by user and/or time range. At least one of them must be given.
+     *
+     * @param user The user whose messages to find. By default, messages from all users.
+     * @param from Earliest timestamp of messages to find (inclusive, in milliseconds since the Unix epoch).
+     * @param to Latest timestamp of messages to find (exclusive).
+     * @param cursor Where to start: 0 (the default), or the cursor of the previous page.
+     * @param limit The maximum number of messages to return (capped at streamlet.chain.page.max-size).
+     * @return Matching messages, in chain order. If there may be more, the cursor is the value of 'cursor' for the next
+     * page. Status codes: 200 OK, or 400 Bad Request if the query is invalid.
+     */
+    @GetMapping(value = "/messages", produces = MediaType.APPLICATION_JSON_VALUE)
+    public MessagePage findMessages(@RequestParam(required = false) String user,
+                                    @RequestParam(required = false) Long from,
+                                    @RequestParam(required = false) Long to,
+                                    @RequestParam(defaultValue = "0") int cursor,
+                                    @RequestParam(required = false) Integer limit) {
+        if (user == null && from == null && to == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A user or a time range is required.");
+        if (from != null && to != null && to < from) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "End of range must not be before its start.");
+        if (cursor < 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor must not be negative.");
+        if (limit != null && limit <= 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive.");
+        int pageSize = limit == null ? defaultPageSize : Integer.min(limit, maxPageSize);
+
+        if (user != null) return messageIndexService.findByUser(user, from, to, cursor, pageSize);
+        return messageIndexService.findByTime(from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to, cursor, pageSize);
+    }
+
+    /**
+     * Searches finalized messages for words.
+     *
+     * @param q The words to search for. Messages containing any of them match.
+     * @param cursor Where to start: absent for the first page, or the cursor of the previous page.
+     * @param limit The maximum number of messages to return (capped at streamlet.chain.page.max-size).
+     * @return Matching messages, most relevant first. If there may be more, the cursor is the value of 'cursor' for the
+     * next page. Status codes: 200 OK, or 400 Bad Request if the query or cursor is invalid.
+     */
+    @GetMapping(value = "/messages/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SearchPage searchMessages(@RequestParam String q,
+                                     @RequestParam(required = false) String cursor,
+                                     @RequestParam(required = false) Integer limit) {
+        if (q.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Query must not be blank.");
+        if (limit != null && limit <= 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive.");
+        int pageSize = limit == null ? defaultPageSize : Integer.min(limit, maxPageSize);
+        try {
+            return messageIndexService.search(q, cursor, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor.");
+        }
+    }
+
+}
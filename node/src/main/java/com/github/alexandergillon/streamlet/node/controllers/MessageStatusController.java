@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Controller to allow users to follow a submitted message to finality, without downloading the chain. Requests can
+ * long-poll: they are answered as soon as the message reaches the requested state, or when the wait runs out.
+ */
+@RestController
+@RequiredArgsConstructor
+public class MessageStatusController {
+
+    /** Format of a message ID: a hex-encoded SHA-256 hash. */
+    private static final Pattern MESSAGE_ID = Pattern.compile("[0-9a-f]{64}");
+
+    // Constants from Spring properties
+    @Value("${streamlet.message-status.max-wait-ms:30000}")
+    private long maxWaitMillis;
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final PayloadService payloadService;
+
+    /**
+     * Gets the status of a message, optionally waiting for it to reach a state.
+     *
+     * @param messageId The ID of the message, as returned by the broadcast server's /send endpoint.
+     * @param until The state to wait for: "notarized" or "finalized" (the default). Later states also end the wait.
+     * @param waitMillis How long to wait for, in milliseconds (capped at streamlet.message-status.max-wait-ms). By
+     *                   default, does not wait.
+     * @return The status of the message, once it reaches the state or the wait runs out (in which case the state is
+     * earlier than requested). Status codes: 200 OK, or 400 Bad Request if the ID or state is malformed.
+     */
+    @GetMapping(value = "/messages/{messageId}/status", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<MessageStatus> getMessageStatus(@PathVariable String messageId,
+                                                             @RequestParam(defaultValue = "finalized") String until,
+                                                             @RequestParam(name = "waitMs", defaultValue = "0") long waitMillis) {
+        String normalizedId = messageId.toLowerCase(Locale.ROOT);
+        if (!MESSAGE_ID.matcher(normalizedId).matches()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Message ID must be 64 hex digits.");
+
+        MessageStatus.State state = switch (until.toLowerCase(Locale.ROOT)) {
+            case "notarized" -> MessageStatus.State.NOTARIZED;
+            case "finalized" -> MessageStatus.State.FINALIZED;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "State to wait for must be 'notarized' or 'finalized'.");
+        };
+
+        return payloadService.awaitMessageStatus(normalizedId, state, Long.min(Long.max(waitMillis, 0), maxWaitMillis));
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.models.PayloadRequest;
+import com.github.alexandergillon.streamlet.node.models.SubmissionResponse;
+import com.github.alexandergillon.streamlet.node.services.KafkaSendingService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Controller to allow users to submit messages directly to this node, rather than via the broadcast server. Messages
+ * go straight into this node's pending messages, and are relayed to other nodes through the broadcast server in the
+ * background. Only enabled if streamlet.payload.direct-submission.enabled is true.
+ */
+@RestController
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(value = "streamlet.payload.direct-submission.enabled", havingValue = "true")
+public class PayloadController {
+
+    // Constants from Spring properties
+    @Value("${streamlet.node.id}")
+    private int nodeId;
+    @Value("${streamlet.node.replica:false}")
+    private boolean replica;
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final PayloadService payloadService;
+    private final KafkaSendingService kafkaSendingService;
+
+    /**
+     * Endpoint to allow users to submit messages to be included in the blockchain. Validation is the same as that of
+     * the broadcast server's /send endpoint.
+     *
+     * @param request Details about the message to be submitted. Username must not contain a colon character.
+     * @return The ID of the submitted message, and its timestamp. Status codes: 200 OK if the message was added to this
+     * node's pending messages (or, on a replica, relayed to the participants), 400 Bad Request if the request is
+     * missing parameters, or 503 Service Unavailable if this node has too many pending messages (in which case the
+     * request should be retried later). A replica has no pending messages of its own, and cannot see those of the
+     * participants, so it never responds with 503: messages relayed while the participants are busy may be evicted.
+     */
+    @PostMapping(value = "/send", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SubmissionResponse processMessage(@RequestBody PayloadRequest request) {
+        if (request.getUsername() == null || request.getText() == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        if (request.getUsername().contains(":")) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username cannot contain ':'.");
+
+        // A replica's own mempool is always empty, so it says nothing about whether the participants are busy
+        if (!replica && payloadService.getMempoolStatus().isBackPressure()) {
+            log.info("Rejecting message from {}: mempool reports back-pressure", request.getUsername());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Node is busy, try again later.");
+        }
+
+        PayloadMessage message = new PayloadMessage(request.getUsername(), request.getText(), System.currentTimeMillis());
+        log.info("Received payload directly from user {}: {}", message.getUsername(), message.getText());
+        // Replicas never propose, so they only relay the message to the participants
+        if (!replica) payloadService.addPendingMessage(message);
+        kafkaSendingService.broadcastAsync(SerializationUtils.buildPayloadBroadcast(nodeId, message));
+        return new SubmissionResponse(message.messageId(), message.getTimestamp(), "Message submitted for inclusion in the blockchain.");
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * POJO to represent a block in this node's block tree (finalized or not) and what this node knows about it, so that
+ * it can be served as JSON. Hashes are base-64 encoded strings.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BlockDetails {
+
+    /** Height of the block in the block tree (the genesis block has height 0). */
+    private int height;
+    /** Epoch of the block. */
+    private int epoch;
+    /** Hash of the block. */
+    private String hash;
+    /** Hash of the block's parent. */
+    private String parentHash;
+    /** Whether the block is notarized. */
+    private boolean notarized;
+    /** Whether the block is finalized. */
+    private boolean finalized;
+    /** IDs of the nodes that have voted on the block, in increasing order. */
+    private List<Integer> voters;
+    /** Hashes of the block's children, in the order this node received them. */
+    private List<String> children;
+    /** Messages in the block's payload, in order. Absent if the payload is malformed. */
+    private List<PayloadMessage> messages;
+
+}
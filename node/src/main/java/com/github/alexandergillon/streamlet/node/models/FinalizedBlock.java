@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/** POJO to represent a finalized block and the messages it contains, so that it can be served as JSON. */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class FinalizedBlock {
+
+    /** Height of the block in the finalized chain (the genesis block has height 0). */
+    private int height;
+    /** Epoch of the block. */
+    private int epoch;
+    /** Hash of the block, as a base-64 encoded string. */
+    private String hash;
+    /** Messages in the block's payload, in order. */
+    private List<PayloadMessage> messages;
+
+}
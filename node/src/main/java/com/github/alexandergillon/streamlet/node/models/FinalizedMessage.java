@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/** POJO to represent a message in the finalized chain, with where it is, so that it can be served as JSON. */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class FinalizedMessage {
+
+    /** Height of the block containing the message (the genesis block has height 0). */
+    private int height;
+    /** Epoch of the block containing the message. */
+    private int epoch;
+    /** The message. */
+    private PayloadMessage message;
+
+}
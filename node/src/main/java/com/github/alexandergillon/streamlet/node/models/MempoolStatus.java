@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/** POJO to represent the state of a node's pool of pending messages, so that it can be served as JSON. */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class MempoolStatus {
+
+    /** Number of pending messages. */
+    private int pendingMessages;
+    /** Total size of the pending messages, in bytes (as encoded in a payload). */
+    private long pendingBytes;
+    /** Maximum total size of pending messages, in bytes. */
+    private long maxBytes;
+    /** Fraction of {@link #maxBytes} in use, between 0 and 1. */
+    private double occupancy;
+    /** Number of pending messages that have been evicted to stay under {@link #maxBytes}, since startup. */
+    private long evictedMessages;
+    /** Total size of the evicted messages, in bytes. */
+    private long evictedBytes;
+    /** Whether the pool is full enough that message submission should be slowed down. */
+    private boolean backPressure;
+
+}
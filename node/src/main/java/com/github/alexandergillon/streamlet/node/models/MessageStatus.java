@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * POJO to represent how far a submitted message has got towards finality, as known to this node, so that it can be
+ * served as JSON. The position fields are only present once the message is in a notarized or finalized block.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageStatus {
+
+    /** How far a message has got. Later states are further along. */
+    public enum State {
+        /** The message is not in any notarized block known to this node (it may be pending, or unknown). */
+        UNKNOWN,
+        /** The message is in a notarized block, which may still be abandoned for a conflicting chain. */
+        NOTARIZED,
+        /** The message is in a finalized block. */
+        FINALIZED;
+
+        /**
+         * @param other Another state.
+         * @return Whether this state is at least as far along as other.
+         */
+        public boolean reached(State other) {
+            return compareTo(other) >= 0;
+        }
+    }
+
+    /** ID of the message (see {@link PayloadMessage#messageId()}). */
+    private String messageId;
+    /** How far the message has got. */
+    private State state;
+    /** Height of the block containing the message (the genesis block has height 0). */
+    private Integer height;
+    /** Epoch of the block containing the message. */
+    private Integer epoch;
+    /** Hash of the block containing the message, as a base-64 encoded string. */
+    private String blockHash;
+
+    /**
+     * @param messageId The ID of a message.
+     * @return The status of a message that is not in any notarized block.
+     */
+    public static MessageStatus unknown(String messageId) {
+        return new MessageStatus(messageId, State.UNKNOWN, null, null, null);
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes and decodes block payloads, which carry zero or more {@link PayloadMessage}s. Formats:
+ * <ul>
+ *   <li>Empty: no messages (e.g. the genesis block).</li>
+ *   <li>Single: one message, encoded as by {@link PayloadMessage#toBytes()} (or, in older blocks, by
+ *       {@link PayloadMessage#toStringBytes()}). Used for blocks with one message.</li>
+ *   <li>Batch: several messages, in the following format:                  <pre>
+ *   byte                    {@link #BATCH_MARKER}
+ *   int32                   number of messages
+ *   for each message:
+ *     int32                 encoded message length
+ *     byte[length]          message, encoded as in the single format      </pre>
+ *   </li>
+ * </ul>
+ * A single-format payload can never start with {@link #BATCH_MARKER}, as it starts with
+ * {@link PayloadMessage#VERSION_1} or an ASCII date.
+ */
+public class PayloadBatch {
+
+    /** First byte of a batch-format payload. */
+    public static final byte BATCH_MARKER = 0x00;
+    /** Length of the header of a batch-format payload: the marker, then the number of messages. */
+    public static final int BATCH_HEADER_BYTES = 1 + Integer.BYTES;
+    /** Length of the per-message header in a batch-format payload: the message length. */
+    public static final int ENTRY_HEADER_BYTES = Integer.BYTES;
+
+    private PayloadBatch() {
+        throw new IllegalStateException("Utility class should not be instantiated.");
+    }
+
+    /**
+     * Encodes messages as a block payload.
+     *
+     * @param messages The messages to encode, in order.
+     * @return The messages, encoded in the empty, single or batch format (depending on how many messages there are).
+     */
+    public static byte[] encode(List<PayloadMessage> messages) {
+        if (messages.isEmpty()) return new byte[0];
+        if (messages.size() == 1) return messages.get(0).toBytes();
+
+        List<byte[]> encodedMessages = new ArrayList<>(messages.size());
+        int length = BATCH_HEADER_BYTES;
+        for (PayloadMessage message : messages) {
+            byte[] encodedMessage = message.toBytes();
+            encodedMessages.add(encodedMessage);
+            length += ENTRY_HEADER_BYTES + encodedMessage.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(BATCH_MARKER);
+        buffer.putInt(encodedMessages.size());
+        for (byte[] encodedMessage : encodedMessages) {
+            buffer.putInt(encodedMessage.length);
+            buffer.put(encodedMessage);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a block payload.
+     *
+     * @param payload A block payload, in any of the formats.
+     * @return The messages in that payload, in order, as an unmodifiable list.
+     * @throws ParseException If the payload, or any message in it, is malformed.
+     */
+    public static List<PayloadMessage> decode(byte[] payload) throws ParseException {
+        if (payload.length == 0) return List.of();
+        if (payload[0] != BATCH_MARKER) return List.of(PayloadMessage.fromBytes(payload));
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.get();  // marker
+        if (buffer.remaining() < Integer.BYTES) throw new ParseException("Batch payload is missing its message count.", buffer.position());
+        int count = buffer.getInt();
+        if (count < 0) throw new ParseException("Batch payload has a negative message count.", buffer.position());
+
+        List<PayloadMessage> messages = new ArrayList<>(Integer.min(count, buffer.remaining() / ENTRY_HEADER_BYTES));
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < ENTRY_HEADER_BYTES) throw new ParseException("Batch payload is truncated.", buffer.position());
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) throw new ParseException("Batch payload has an invalid message length.", buffer.position());
+            byte[] encodedMessage = new byte[length];
+            buffer.get(encodedMessage);
+            messages.add(PayloadMessage.fromBytes(encodedMessage));
+        }
+        if (buffer.hasRemaining()) throw new ParseException("Batch payload has trailing bytes.", buffer.position());
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @param messageCount A number of messages.
+     * @param totalMessageBytes The total length of those messages, each encoded as by {@link PayloadMessage#toBytes()}.
+     * @return The length of a payload containing those messages.
+     */
+    public static int encodedLength(int messageCount, int totalMessageBytes) {
+        if (messageCount <= 1) return totalMessageBytes;
+        return BATCH_HEADER_BYTES + messageCount * ENTRY_HEADER_BYTES + totalMessageBytes;
+    }
+
+}
@@ -21,20 +21,51 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Date;
-import java.util.TimeZone;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
 
-/** POJO to represent a message, sent by users to be included in the blockchain. */
+/**
+ * POJO to represent a message, sent by users to be included in the blockchain. Messages are encoded in payloads in
+ * the following binary format (see {@link #toBytes()}):                  <pre>
+ *   byte                    {@link #VERSION_1}
+ *   varint                  username length, in bytes
+ *   byte[length]            username, UTF-8 encoded
+ *   varint                  text length, in bytes
+ *   byte[length]            text, UTF-8 encoded
+ *   int64                   timestamp, in milliseconds since the epoch    </pre>
+ * Varints are unsigned LEB128 (7 bits per byte, least significant group first). Older blocks hold messages in the
+ * legacy string format (see {@link #toStringBytes()}), which is still decoded by {@link #fromBytes(byte[])}.
+ */
 @Getter
 @NoArgsConstructor
 @EqualsAndHashCode
 public class PayloadMessage {
 
+    /** First byte of a message in the binary format. A legacy string-format message starts with an ASCII digit. */
+    public static final byte VERSION_1 = 0x01;
+
+    /** Format of the timestamp in the string representation of a message. Immutable, so shared between threads. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm").withZone(ZoneOffset.UTC);
+
+    /** SHA-256 digest for each thread, for message IDs. */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm provider.");
+        }
+    });
+
     /** The username of the user who sent this message. */
     private String username;
 
@@ -42,11 +73,14 @@ public class PayloadMessage {
     @Setter
     private String text;
 
-    /** Timestamp of the message. Used for de-duplication. All timestamps are truncated to minute-level accuracy. */
+    /**
+     * Timestamp of the message, in milliseconds. Used for de-duplication. Messages decoded from the legacy string
+     * format only have minute-level accuracy.
+     */
     private Long timestamp;
 
     /**
-     * Constructor. NOTE: all timestamps are truncated to minute-level accuracy.
+     * Constructor.
      * @throws IllegalArgumentException If username contains a colon character.
      * */
     public PayloadMessage(String username, String text, long timestamp) throws IllegalArgumentException {
@@ -64,10 +98,9 @@ public class PayloadMessage {
         this.username = username;
     }
 
-    /** Sets timestamp. NOTE: all timestamps are truncated to minute-level accuracy. */
+    /** Sets timestamp, in milliseconds. */
     public void setTimestamp(long timestamp) {
-        // truncates timestamp to minutes
-        this.timestamp = Instant.ofEpochMilli(timestamp).truncatedTo(ChronoUnit.MINUTES).toEpochMilli();
+        this.timestamp = timestamp;
     }
 
     @Override
@@ -76,12 +109,71 @@ public class PayloadMessage {
         if (text == null) throw new IllegalStateException("Message object has not been correctly initialized: text is null.");
         if (timestamp == null) throw new IllegalStateException("Message object has not been correctly initialized: timestamp is null.");
 
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return simpleDateFormat.format(new Date(timestamp)) + " | " + username + ": " + text;
+        return DATE_FORMAT.format(Instant.ofEpochMilli(timestamp)) + " | " + username + ": " + text;
     }
 
-    /** Converts this message to its string representation, then converts that string to ASCII bytes. */
+    /**
+     * Computes the ID of this message: the SHA-256 hash of its binary encoding (see {@link #toBytes()}), as a lowercase
+     * hex string. This is the submission ID that the broadcast server returns for the message. Not a getter, so that
+     * it is not serialized as part of the message.
+     *
+     * @return The ID of this message.
+     * @throws IllegalStateException If this message has not been correctly initialized.
+     */
+    public String messageId() {
+        return HexFormat.of().formatHex(SHA_256.get().digest(toBytes()));
+    }
+
+    /**
+     * Encodes this message in the binary format (see {@link PayloadMessage}).
+     *
+     * @return This message, encoded.
+     * @throws IllegalStateException If this message has not been correctly initialized.
+     */
+    public byte[] toBytes() {
+        if (username == null) throw new IllegalStateException("Message object has not been correctly initialized: username is null.");
+        if (text == null) throw new IllegalStateException("Message object has not been correctly initialized: text is null.");
+        if (timestamp == null) throw new IllegalStateException("Message object has not been correctly initialized: timestamp is null.");
+
+        byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + varintLength(usernameBytes.length) + usernameBytes.length
+                + varintLength(textBytes.length) + textBytes.length + Long.BYTES);
+        buffer.put(VERSION_1);
+        putVarint(buffer, usernameBytes.length);
+        buffer.put(usernameBytes);
+        putVarint(buffer, textBytes.length);
+        buffer.put(textBytes);
+        buffer.putLong(timestamp);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a message, in either the binary format or the legacy string format.
+     *
+     * @param bytes An encoded message.
+     * @return That message, decoded.
+     * @throws ParseException If the encoded message is malformed.
+     */
+    public static PayloadMessage fromBytes(byte[] bytes) throws ParseException {
+        if (bytes.length == 0 || bytes[0] != VERSION_1) return fromStringBytes(bytes);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();  // version
+        String username = getString(buffer);
+        String text = getString(buffer);
+        if (buffer.remaining() != Long.BYTES) throw new ParseException("Message has a missing timestamp or trailing bytes.", buffer.position());
+        long timestamp = buffer.getLong();
+
+        if (username.contains(":")) throw new ParseException("Username " + username + " cannot contain ':'", 0);
+        return new PayloadMessage(username, text, timestamp);
+    }
+
+    /**
+     * Converts this message to its string representation, then converts that string to ASCII bytes. This is the legacy
+     * payload format: it cannot represent non-ASCII text, and only keeps minute-level timestamps. New payloads use
+     * {@link #toBytes()}.
+     */
     public byte[] toStringBytes() {
         return toString().getBytes(StandardCharsets.US_ASCII);
     }
@@ -94,22 +186,26 @@ public class PayloadMessage {
      * @throws ParseException If the string representation is invalid.
      */
     public static PayloadMessage fromString(String string) throws ParseException {
-        int barIndex = string.indexOf("|");
-        int colonIndex = barIndex + string.substring(barIndex).indexOf(":");
-        String dateString = string.substring(0, barIndex);
+        int barIndex = string.indexOf('|');
+        int colonIndex = barIndex < 0 ? -1 : string.indexOf(':', barIndex);
+        if (colonIndex < barIndex + 2 || colonIndex + 1 >= string.length()) throw new ParseException("Malformed message: " + string, 0);
         String username = string.substring(barIndex + 2, colonIndex);
         String message = string.substring(colonIndex + 2);
 
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-
-        long timestamp = simpleDateFormat.parse(dateString).getTime();
+        long timestamp;
+        try {
+            // Parsing from a position (rather than the whole string) stops at the end of the date
+            timestamp = Instant.from(DATE_FORMAT.parse(string, new ParsePosition(0))).toEpochMilli();
+        } catch (DateTimeException e) {
+            throw new ParseException("Unparseable date: " + string.substring(0, barIndex), 0);
+        }
 
         return new PayloadMessage(username, message, timestamp);
     }
 
     /**
      * Converts an ASCII-encoded string (given as a byte array) to a string, and then converts that string to a {@link PayloadMessage}.
+     * Prefer {@link #fromBytes(byte[])}, which also decodes the binary format.
      *
      * @param bytes ASCII-encoded string, as a byte array.
      * @return That string, converted to a {@link PayloadMessage}.
@@ -120,4 +216,54 @@ public class PayloadMessage {
         return fromString(string);
     }
 
+    /**
+     * @param value A non-negative integer.
+     * @return The number of bytes in the varint encoding of that integer.
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    /**
+     * Writes a varint.
+     *
+     * @param buffer The buffer to write to.
+     * @param value A non-negative integer.
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint-length-prefixed UTF-8 string.
+     *
+     * @param buffer The buffer to read from.
+     * @return The string.
+     * @throws ParseException If the length is malformed or out of bounds, or the string is not valid UTF-8.
+     */
+    private static String getString(ByteBuffer buffer) throws ParseException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!buffer.hasRemaining() || shift > 28) throw new ParseException("Message has a malformed length.", buffer.position());
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length < 0 || length > buffer.remaining()) throw new ParseException("Message has an invalid length.", buffer.position());
+
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(slice).toString();
+        } catch (CharacterCodingException e) {
+            throw new ParseException("Message is not valid UTF-8.", buffer.position());
+        }
+    }
+
 }
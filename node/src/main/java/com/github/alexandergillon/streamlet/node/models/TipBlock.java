@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * POJO to represent a block on the chain that clients can optimistically display (finalized, or notarized on the
+ * longest notarized chain), so that it can be served as JSON. Its messages share its status.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TipBlock {
+
+    /** Height of the block (the genesis block has height 0). */
+    private int height;
+    /** Epoch of the block. */
+    private int epoch;
+    /** Hash of the block, as a base-64 encoded string. */
+    private String hash;
+    /** Whether the block is finalized, or only notarized. */
+    private MessageStatus.State status;
+    /** Messages in the block's payload, in order. Absent if the payload is malformed. */
+    private List<PayloadMessage> messages;
+
+}
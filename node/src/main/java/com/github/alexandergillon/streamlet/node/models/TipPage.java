@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * POJO to represent a page of the chain up to its notarized tip, so that it can be served as JSON. Blocks up to
+ * {@link #finalizedHeight} are final; later blocks can still be replaced, if a conflicting chain is finalized instead.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TipPage {
+
+    /** Height of the youngest finalized block. */
+    private int finalizedHeight;
+    /** Height of the youngest notarized block on the longest notarized chain. */
+    private int tipHeight;
+    /** Blocks of the page, from oldest to youngest. */
+    private List<TipBlock> blocks;
+    /** Height to continue from, if the page does not reach the tip. */
+    private Integer nextCursor;
+
+}
@@ -17,6 +17,8 @@
 package com.github.alexandergillon.streamlet.node.services;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
 
 import java.util.List;
 
@@ -46,7 +48,8 @@ public interface BlockchainService {
      * @param block The proposed block.
      * @param proposer The node who proposed the block.
      * @param signature The digital signature of the proposer on the block.
-     * @return Whether this block should be voted on by this node, according to the Streamlet protocol.
+     * @return Whether this block should be voted on by this node, according to the Streamlet protocol. Always false on
+     * a replica node, which follows the chain without voting.
      */
     boolean processProposedBlock(Block block, int proposer, byte[] signature);
 
@@ -65,6 +68,25 @@ public interface BlockchainService {
     /** @return The finalized chain of the blockchain, from oldest to youngest block. */
     List<Block> getFinalizedChain();
 
+    /**
+     * @return The latest immutable snapshot of the finalized chain and notarized tip. Readers should answer each request
+     * from a single snapshot, so that they see a consistent view of the chain without locking.
+     */
+    ChainSnapshot getSnapshot();
+
+    /**
+     * @param hash The hash of a block.
+     * @return The current state of that block (finalized or not), or null if it is not in the blockchain.
+     */
+    BlockState getBlockState(byte[] hash);
+
+    /**
+     * @param epoch An epoch.
+     * @return The current state of each block in the blockchain with that epoch (finalized or not). There can be none,
+     * or several if the epoch's leader proposed conflicting blocks.
+     */
+    List<BlockState> getBlockStatesOfEpoch(int epoch);
+
     void proposeBlock();
 
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Service to push newly finalized blocks to clients, as server-sent events, so that they do not have to poll the
+ * chain. Each event is one finalized block with at least one message: its ID is the block's height, its name is
+ * "block", and its data is a {@link com.github.alexandergillon.streamlet.node.models.FinalizedBlock} as JSON.
+ */
+public interface ChainEventService {
+
+    /**
+     * Subscribes to finalized blocks, starting at a height. Blocks that are already finalized are replayed from the
+     * chain, and then new blocks are sent as they are finalized. Subscribers that fall too far behind are dropped (their
+     * stream ends), and can resume from the height after the last event they received.
+     *
+     * @param fromHeight The height of the first block to send, or a negative number to only send blocks that are
+     *                   finalized from now on.
+     * @return An emitter for the subscription's events, or null if there are too many subscribers.
+     */
+    SseEmitter subscribe(int fromHeight);
+
+    /** @return The number of current subscribers. */
+    int getSubscriberCount();
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Service to render the finalized chain for the full-chain endpoints. As the finalized chain only grows at its end, each
+ * block is rendered once, and renderings of the whole chain are served from what has been rendered so far.
+ */
+public interface ChainRenderService {
+
+    /** A rendering of the finalized chain, as it was at some point. Later blocks do not change a rendering. */
+    interface Rendering {
+
+        /** @return A strong entity tag for this rendering, which differs for every finalized chain and format. */
+        String getETag();
+
+        /** @return The length of this rendering, in bytes. */
+        long getLength();
+
+        /**
+         * Writes this rendering to a stream.
+         *
+         * @param outputStream Stream to write to. It is not closed.
+         * @throws IOException If writing to the stream fails.
+         */
+        void writeTo(OutputStream outputStream) throws IOException;
+
+    }
+
+    /** @return The messages in the finalized chain, as readable text (the same as the /chain/readable endpoint). */
+    Rendering renderReadableText();
+
+    /** @return The messages in the finalized chain, as a JSON array (the same as the /chain/json endpoint). */
+    Rendering renderJson();
+
+}
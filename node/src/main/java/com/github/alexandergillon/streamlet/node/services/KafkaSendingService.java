@@ -27,4 +27,12 @@ public interface KafkaSendingService {
      */
     void broadcast(String message);
 
+    /**
+     * Broadcasts a message like {@link #broadcast(String)}, but without waiting for Kafka to acknowledge it. Failures
+     * are logged.
+     *
+     * @param message The message to broadcast.
+     */
+    void broadcastAsync(String message);
+
 }
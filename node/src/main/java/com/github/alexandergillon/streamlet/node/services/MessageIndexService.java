@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services;
+
+import com.github.alexandergillon.streamlet.node.models.MessagePage;
+import com.github.alexandergillon.streamlet.node.models.SearchPage;
+
+/**
+ * Service to query finalized messages without scanning the chain. Messages are indexed by user, by time and by the
+ * words of their text as their blocks are finalized (shortly after, as indexing is done in the background). Results
+ * are paginated with a cursor: for queries by user and time, results are in chain order and the cursor is a position
+ * in the sequence of all finalized messages, starting at 0; for searches, results are ranked and the cursor is an
+ * opaque string, which fixes the messages being ranked as well as the position in the ranking.
+ */
+public interface MessageIndexService {
+
+    /**
+     * Finds finalized messages from a user, optionally in a time range.
+     *
+     * @param username The user whose messages to find.
+     * @param fromTimestamp Earliest timestamp of messages to find (inclusive, in milliseconds since the Unix epoch), or
+     *                      null for no limit.
+     * @param toTimestamp Latest timestamp of messages to find (exclusive), or null for no limit.
+     * @param cursor Where to start: 0, or the cursor of the previous page.
+     * @param limit The maximum number of messages to return.
+     * @return A page of matching messages.
+     */
+    MessagePage findByUser(String username, Long fromTimestamp, Long toTimestamp, int cursor, int limit);
+
+    /**
+     * Finds finalized messages in a time range. Timestamps are as given by the messages' senders.
+     *
+     * @param fromTimestamp Earliest timestamp of messages to find (inclusive, in milliseconds since the Unix epoch).
+     * @param toTimestamp Latest timestamp of messages to find (exclusive).
+     * @param cursor Where to start: 0, or the cursor of the previous page.
+     * @param limit The maximum number of messages to return.
+     * @return A page of matching messages.
+     */
+    MessagePage findByTime(long fromTimestamp, long toTimestamp, int cursor, int limit);
+
+    /**
+     * Searches finalized messages for words. Messages containing any of the words match, and are ranked by how
+     * relevant they are (matching more, and rarer, words ranks higher). Words are runs of letters and digits, and case
+     * is ignored.
+     * <p>
+     * Later pages rank only the messages that were finalized when the first page was requested, so the ranking does
+     * not change between pages. Messages finalized since then are found by starting the search again.
+     *
+     * @param query The words to search for.
+     * @param cursor Where to start: null, or the cursor of the previous page.
+     * @param limit The maximum number of messages to return.
+     * @return A page of matching messages, best first.
+     * @throws IllegalArgumentException If the cursor is malformed, or was not returned by this node.
+     */
+    SearchPage search(String query, String cursor, int limit) throws IllegalArgumentException;
+
+}
@@ -17,14 +17,34 @@
 package com.github.alexandergillon.streamlet.node.services;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.MempoolStatus;
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 
+import java.text.ParseException;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /** Service to handle the payload of blocks. Collects pending messages and returns them when needed.
- * Messages are stored and returned in FIFO order. */
+ * Messages are returned in FIFO order, except that users take turns: a user with many pending messages does not hold
+ * up messages from other users. The buffer of pending messages is bounded, and may evict its oldest messages.
+ * Also tracks which block each notarized or finalized message is in, so that clients can follow their submissions. */
 public interface PayloadService {
 
+    /** Listener for blocks being finalized. */
+    @FunctionalInterface
+    interface FinalizedBlockListener {
+        /**
+         * Called for each finalized block with a well-formed payload, in order of height, once the payload service has
+         * recorded it. Called on the thread that finalized the block, so must not block.
+         *
+         * @param block The block that was finalized.
+         * @param height The height of that block (the genesis block has height 0).
+         */
+        void finalizedBlock(Block block, int height);
+    }
+
     /**
      * Adds a pending message to the internal message buffer.
      * @param message The message to add.
@@ -32,17 +52,46 @@ public interface PayloadService {
     void addPendingMessage(PayloadMessage message);
 
     /**
-     * Notifies this service that a payload has been finalized. This is so that we can discard pending messages in the
+     * Notifies this service that messages have been finalized. This is so that we can discard pending messages in the
      * buffer which have effectively already been 'sent'.
      *
-     * @param payload The payload of the block that was finalized.
+     * @param messages The messages in the payload of the block that was finalized (see {@link Block#getMessages()}).
+     */
+    void finalizedMessages(List<PayloadMessage> messages);
+
+    /**
+     * Notifies this service that a block has been finalized. Blocks are finalized in chain order. Equivalent to
+     * {@link #finalizedMessages(List)} on the block's messages, but also allows where they are to be recorded.
+     *
+     * @param block The block that was finalized.
+     * @param height The height of that block (the genesis block has height 0).
+     * @throws ParseException If the payload of the block is malformed.
      */
-    void finalizedPayload(byte[] payload);
+    default void finalizedBlock(Block block, int height) throws ParseException {
+        finalizedMessages(block.getMessages());
+    }
+
+    /**
+     * Registers a listener to be told about each block finalized from now on, via {@link #finalizedBlock(Block, int)}.
+     *
+     * @param listener The listener to register.
+     */
+    void addFinalizedBlockListener(FinalizedBlockListener listener);
+
+    /**
+     * Notifies this service that a block has been notarized (but not necessarily finalized).
+     *
+     * @param block The block that was notarized.
+     * @param height The height of that block (the genesis block has height 0).
+     * @throws ParseException If the payload of the block is malformed.
+     */
+    default void notarizedBlock(Block block, int height) throws ParseException { }
 
     /**
      * Gets the next payload for a block to be proposed. This method takes the parent unfinalized chain (i.e. the
      * ancestors of the to-be-proposed block which are not finalized) as an argument, to avoid proposing a payload that
-     * has already been included in that chain but has not yet been finalized.
+     * has already been included in that chain but has not yet been finalized. The payload may contain several pending
+     * messages (see {@link com.github.alexandergillon.streamlet.node.models.PayloadBatch}).
      *
      * @param unfinalizedSet The ancestors of the to-be-proposed block which are not finalized.
      * @return The payload which should be proposed as part of a block that extends this unfinalized chain, or null
@@ -51,4 +100,26 @@ public interface PayloadService {
      */
     byte[] getNextPayload(Set<Block> unfinalizedSet);
 
+    /** @return The current occupancy of the buffer of pending messages, eviction counts, and whether message
+     * submission should be slowed down. */
+    MempoolStatus getMempoolStatus();
+
+    /**
+     * @param messageId The ID of a message (see {@link PayloadMessage#messageId()}).
+     * @return How far that message has got towards finality, as known to this node. Messages that were finalized long
+     * ago, or are only in notarized blocks that can no longer be finalized, may be reported as unknown.
+     */
+    MessageStatus getMessageStatus(String messageId);
+
+    /**
+     * Waits for a message to reach a state, without blocking the caller.
+     *
+     * @param messageId The ID of a message (see {@link PayloadMessage#messageId()}).
+     * @param state The state to wait for (or any later state).
+     * @param timeoutMillis How long to wait for, in milliseconds.
+     * @return A future that completes with the status of the message once it reaches that state, or with its status at
+     * the time (which may be an earlier state) after timeoutMillis.
+     */
+    CompletableFuture<MessageStatus> awaitMessageStatus(String messageId, MessageStatus.State state, long timeoutMillis);
+
 }
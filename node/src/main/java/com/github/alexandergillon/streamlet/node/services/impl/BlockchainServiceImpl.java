@@ -17,9 +17,15 @@
 package com.github.alexandergillon.streamlet.node.services.impl;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
 import com.github.alexandergillon.streamlet.node.blockchain.Blockchain;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.PayloadArena;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.InvalidBlockException;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.UnknownBlockException;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockTree;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.array.ArrayBlockTree;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.memory.InMemoryBlockTree;
 import com.github.alexandergillon.streamlet.node.blockchain.impl.memory.InMemoryBlockchain;
 import com.github.alexandergillon.streamlet.node.services.BlockchainService;
 import com.github.alexandergillon.streamlet.node.services.CryptographyService;
@@ -46,8 +52,16 @@ public class BlockchainServiceImpl implements BlockchainService {
     private int nodeId;
     @Value("${streamlet.participants}")
     private int numNodes;
+    @Value("${streamlet.node.replica:false}")
+    private boolean replica;
     @Value("${streamlet.notarization.threshold}")
     private double notarizationProportion;
+    @Value("${streamlet.blockchain.block-tree:memory}")
+    private String blockTreeImplementation;
+    @Value("${streamlet.blockchain.payload-arena.enabled:true}")
+    private boolean payloadArenaEnabled;
+    @Value("${streamlet.blockchain.payload-arena.slab-bytes:1048576}")
+    private int payloadArenaSlabBytes;
 
     // Autowired dependencies (via RequiredArgsConstructor)
     private final CryptographyService cryptographyService;
@@ -65,7 +79,15 @@ public class BlockchainServiceImpl implements BlockchainService {
      */
     @PostConstruct
     private void initializeBlockchain() {
-        blockchain = new InMemoryBlockchain(nodeId, (int)Math.ceil(numNodes * notarizationProportion), payloadService);
+        // A replica's ID must not be a participant's, so that it is never leader and has its own topics
+        if (replica && nodeId < numNodes) throw new IllegalStateException("Replica node ID " + nodeId + " must be at least the number of participants (" + numNodes + ").");
+        BlockTree root = switch (blockTreeImplementation) {
+            case "memory" -> InMemoryBlockTree.GENESIS_BLOCK_TREE(numNodes);
+            case "array" -> ArrayBlockTree.GENESIS_BLOCK_TREE(numNodes);
+            default -> throw new IllegalStateException("Unknown block tree implementation: " + blockTreeImplementation);
+        };
+        PayloadArena payloadArena = payloadArenaEnabled ? new PayloadArena(payloadArenaSlabBytes) : null;
+        blockchain = new InMemoryBlockchain(nodeId, root, (int)Math.ceil(numNodes * notarizationProportion), payloadService, payloadArena);
     }
 
     @Override
@@ -83,7 +105,8 @@ public class BlockchainServiceImpl implements BlockchainService {
         if (!validateProposedBlock(block, proposer, signature)) return false;
 
         try {
-            boolean votedOnBlock = blockchain.processProposedBlock(block, proposer, currentEpoch, firstProposalForEpoch);
+            // Replicas never vote, so no proposal is ever treated as one that this node votes on
+            boolean votedOnBlock = blockchain.processProposedBlock(block, proposer, currentEpoch, firstProposalForEpoch && !replica);
             firstProposalForEpoch = false;
             return votedOnBlock;
         } catch (InvalidBlockException e) {
@@ -119,9 +142,28 @@ public class BlockchainServiceImpl implements BlockchainService {
         return blockchain.getFinalizedChain();
     }
 
+    @Override
+    public ChainSnapshot getSnapshot() {
+        checkEpoch();
+        return blockchain.getSnapshot();
+    }
+
+    @Override
+    public BlockState getBlockState(byte[] hash) {
+        checkEpoch();
+        return blockchain.getBlockState(hash);
+    }
+
+    @Override
+    public List<BlockState> getBlockStatesOfEpoch(int epoch) {
+        checkEpoch();
+        return blockchain.getBlockStatesOfEpoch(epoch);
+    }
+
     @Override
     public void proposeBlock() {
         checkEpoch();
+        if (replica) throw new IllegalStateException("Replica nodes do not propose blocks.");
 
         Block parent = blockchain.getLongestNotarizedChainTail();
         Set<Block> unfinalizedSet = blockchain.getUnfinalizedAncestorSetOf(parent);
@@ -169,7 +211,7 @@ public class BlockchainServiceImpl implements BlockchainService {
             return false;
         }
 
-        if (block.getPayload().length == 0) {
+        if (block.getPayloadLength() == 0) {
             log.warn("Received block with empty payload: {}", block);
             return false;
         }
@@ -207,7 +249,7 @@ public class BlockchainServiceImpl implements BlockchainService {
             return false;
         }
 
-        if (block.getPayload().length == 0) {
+        if (block.getPayloadLength() == 0) {
             log.warn("Received vote on block with empty payload: {}", block);
             return false;
         }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.FinalizedBlock;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.ChainEventService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of a {@link ChainEventService}.
+ * <p>
+ * Finalized blocks are received from the {@link PayloadService} as they are finalized, converted to events once, and
+ * offered to a bounded buffer per subscriber. Finalizing a block never waits for a subscriber: if a subscriber's
+ * buffer is full, the subscriber is dropped. Subscribers are drained by a small shared pool of threads, each drain
+ * sending everything buffered for one subscriber, so the cost of a block is proportional to its messages and the
+ * number of subscribers, and does not depend on the length of the chain.
+ * <p>
+ * Blocks that a subscriber needs but that are not in its buffer (because it is resuming from an earlier height) are
+ * read from the finalized chain. The chain is indexed before the payload service is notified, so a subscriber can
+ * get a block both ways: blocks are sent in order of height, and each height at most once.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChainEventServiceImpl implements ChainEventService {
+
+    /** Name of the events that carry finalized blocks. */
+    public static final String BLOCK_EVENT_NAME = "block";
+
+    // Constants from Spring properties
+    @Value("${streamlet.chain.events.buffer-size:256}")
+    private int bufferSize;
+    @Value("${streamlet.chain.events.max-subscribers:10000}")
+    private int maxSubscribers;
+    @Value("${streamlet.chain.events.timeout-ms:3600000}")
+    private long timeoutMillis;
+    @Value("${streamlet.chain.events.threads:4}")
+    private int threads;
+    @Value("${streamlet.chain.page.max-size:1000}")
+    private int replayPageSize;
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final BlockchainService blockchainService;
+    private final PayloadService payloadService;
+
+    // Member variables
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+
+    /** We need constants from Spring properties to create the thread pool, so we do it in a {@link PostConstruct}. */
+    @PostConstruct
+    private void initialize() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chain-events-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        payloadService.addFinalizedBlockListener(this::publish);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public SseEmitter subscribe(int fromHeight) {
+        if (subscribers.size() >= maxSubscribers) return null;
+
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, fromHeight);
+        emitter.onCompletion(subscriber::closed);
+        emitter.onTimeout(subscriber::closed);
+        emitter.onError(e -> subscriber.closed());
+        subscribers.add(subscriber);
+        subscriber.schedule();  // to replay already finalized blocks
+        return emitter;
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Offers a newly finalized block to all subscribers.
+     *
+     * @param block The block that was finalized.
+     * @param height The height of that block.
+     */
+    private void publish(Block block, int height) {
+        if (subscribers.isEmpty()) return;
+        FinalizedBlock event = toEvent(block, height);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * @param block A finalized block.
+     * @param height The height of that block.
+     * @return The block as an event, without messages if its payload is malformed (it is finalized regardless).
+     */
+    private static FinalizedBlock toEvent(Block block, int height) {
+        try {
+            return new FinalizedBlock(height, block.getEpoch(), block.getHashBase64(), block.getMessages());
+        } catch (ParseException e) {
+            return new FinalizedBlock(height, block.getEpoch(), block.getHashBase64(), List.of());
+        }
+    }
+
+    /** A subscriber, with its buffer of blocks to send. */
+    private class Subscriber {
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<FinalizedBlock> buffer = new ArrayBlockingQueue<>(bufferSize);
+        /** Whether a drain of this subscriber is scheduled or running. At most one runs at a time. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Whether this subscriber has been dropped, or its stream has ended. */
+        private volatile boolean closed = false;
+
+        // Only used by the drain, which runs on one thread at a time
+        /** Height of the next block to send, or negative to start at the next block offered. */
+        private int nextHeight;
+        /** Whether every block that was finalized before subscribing has been read from the chain. */
+        private boolean caughtUp = false;
+
+        private Subscriber(SseEmitter emitter, int fromHeight) {
+            this.emitter = emitter;
+            this.nextHeight = fromHeight;
+        }
+
+        /**
+         * Buffers a block to be sent, or drops this subscriber if its buffer is full. Never blocks.
+         *
+         * @param event The block to send.
+         */
+        private void offer(FinalizedBlock event) {
+            if (closed) return;
+            if (!buffer.offer(event)) {
+                log.info("Dropping subscriber to finalized blocks, which is more than {} blocks behind.", bufferSize);
+                closed = true;  // the drain ends the stream, as this thread must not wait on a send in progress
+            }
+            schedule();
+        }
+
+        /** Schedules a drain of this subscriber, unless one is already scheduled or running. */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) executor.execute(this::drain);
+        }
+
+        /** Called once this subscriber's stream has ended, for whatever reason. */
+        private void closed() {
+            closed = true;
+            subscribers.remove(this);
+        }
+
+        /** Sends everything that this subscriber is due, in order of height. */
+        private void drain() {
+            try {
+                while (!closed) {
+                    FinalizedBlock head = buffer.peek();
+                    if (nextHeight < 0) {
+                        // Subscribed to new blocks only, so starts at the first block offered
+                        if (head == null) break;
+                        nextHeight = head.getHeight();
+                        caughtUp = true;
+                    } else if (head != null && head.getHeight() <= nextHeight) {
+                        buffer.poll();
+                        if (head.getHeight() == nextHeight) send(head);  // otherwise, it was already read from the chain
+                    } else if (head != null || !caughtUp) {
+                        // Blocks before the head of the buffer (or, on subscribing, all finalized blocks) come from the chain
+                        int maxBlocks = head == null ? replayPageSize : Integer.min(replayPageSize, head.getHeight() - nextHeight);
+                        List<Block> blocks = finalizedChain(nextHeight, maxBlocks);
+                        for (Block block : blocks) send(toEvent(block, nextHeight));
+                        if (head == null && blocks.size() < maxBlocks) caughtUp = true;
+                        if (head != null && blocks.isEmpty()) nextHeight = head.getHeight();  // not in the chain: skip
+                    } else {
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Subscriber to finalized blocks disconnected.", e);
+                closed = true;
+            } finally {
+                if (closed) {
+                    subscribers.remove(this);
+                    emitter.complete();
+                }
+                scheduled.set(false);
+                // A block may have been offered after the buffer was last checked, while the drain was still scheduled
+                if (!closed && !buffer.isEmpty()) schedule();
+            }
+        }
+
+        /**
+         * Sends a block, if it has any messages, and moves on to the next height.
+         *
+         * @param event The block to send, which must be at the next height.
+         * @throws IOException If sending fails.
+         */
+        private void send(FinalizedBlock event) throws IOException {
+            if (!event.getMessages().isEmpty()) {
+                emitter.send(SseEmitter.event()
+                        .id(Integer.toString(event.getHeight()))
+                        .name(BLOCK_EVENT_NAME)
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+            nextHeight = event.getHeight() + 1;
+        }
+
+        /**
+         * @param fromHeight The height of the first block to get.
+         * @param maxBlocks The maximum number of blocks to get.
+         * @return Finalized blocks from the chain, or none if the chain is not available yet.
+         */
+        private List<Block> finalizedChain(int fromHeight, int maxBlocks) {
+            try {
+                return blockchainService.getSnapshot().finalizedRange(fromHeight, maxBlocks);
+            } catch (IllegalStateException e) {
+                return List.of();  // the epoch has not been set yet, so nothing is finalized
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.ChainRenderService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Implementation of a {@link ChainRenderService}.
+ * <p>
+ * Renderings are appended to chunked byte buffers, which are never modified below their current length. When a
+ * rendering is requested, blocks finalized since the last request are rendered (under a lock), and then the rendering
+ * is a snapshot of the buffers' chunks and length, which can be written out without the lock. Requests therefore cost
+ * the rendering of new blocks, plus copying bytes to the response.
+ * <p>
+ * Entity tags are made from the number of blocks rendered and the hash of the last one, so that they also differ
+ * between runs of a node (whose chains are not persisted).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChainRenderServiceImpl implements ChainRenderService {
+
+    /** Size of each chunk of rendered bytes. */
+    private static final int CHUNK_BYTES = 64 * 1024;
+    /** Number of bytes of the hash of the last block in an entity tag. */
+    private static final int ETAG_HASH_BYTES = 8;
+
+    private static final byte[] READABLE_LINE_END = "\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_ARRAY_START = "[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_ARRAY_END = "]".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final BlockchainService blockchainService;
+
+    // Member variables, guarded by this
+    private final ChunkedBytes readableText = new ChunkedBytes();
+    /** JSON messages, separated by commas, but without the surrounding brackets. */
+    private final ChunkedBytes jsonMessages = new ChunkedBytes();
+    /** Number of blocks rendered, i.e. height of the next block to render. */
+    private int renderedBlocks = 0;
+    /** The last block rendered. */
+    private Block lastBlock;
+
+    @Override
+    public synchronized Rendering renderReadableText() {
+        catchUp();
+        return new ChunkedRendering(eTag("readable"), new byte[0], readableText.chunks(), readableText.length(), new byte[0]);
+    }
+
+    @Override
+    public synchronized Rendering renderJson() {
+        catchUp();
+        return new ChunkedRendering(eTag("json"), JSON_ARRAY_START, jsonMessages.chunks(), jsonMessages.length(), JSON_ARRAY_END);
+    }
+
+    /** Renders blocks that have been finalized since the last rendering. */
+    private void catchUp() {
+        List<Block> finalizedChain = blockchainService.getSnapshot().finalizedChain();
+        while (renderedBlocks < finalizedChain.size()) {
+            render(finalizedChain.get(renderedBlocks));
+        }
+    }
+
+    /**
+     * Appends the rendering of a block's messages to the buffers.
+     *
+     * @param block The next finalized block.
+     */
+    private void render(Block block) {
+        List<PayloadMessage> messages;
+        try {
+            messages = block.getMessages();
+        } catch (ParseException e) {
+            // The block is finalized regardless: it just has no messages to show
+            log.error("Finalized block with malformed payload ({}): {}", e.getMessage(), block);
+            messages = List.of();
+        }
+
+        for (PayloadMessage message : messages) {
+            readableText.append(message.toString().getBytes(StandardCharsets.UTF_8));
+            readableText.append(READABLE_LINE_END);
+            if (jsonMessages.length() > 0) jsonMessages.append(JSON_SEPARATOR);
+            jsonMessages.append(SerializationUtils.payloadMessageToJsonBytes(message));
+        }
+        renderedBlocks++;
+        lastBlock = block;
+    }
+
+    /**
+     * @param format Name of the format of a rendering.
+     * @return A strong entity tag for the current rendering in that format.
+     */
+    private String eTag(String format) {
+        String lastHash = lastBlock == null ? "" : HexFormat.of().formatHex(Arrays.copyOf(lastBlock.getHash(), ETAG_HASH_BYTES));
+        return "\"" + format + "-" + renderedBlocks + "-" + lastHash + "\"";
+    }
+
+    /** Append-only bytes, in fixed-size chunks. Bytes below the current length are never modified. */
+    private static class ChunkedBytes {
+
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long length = 0;
+
+        /** @param bytes Bytes to append. */
+        private void append(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int used = (int) (length % CHUNK_BYTES);
+                if (used == 0 && length / CHUNK_BYTES == chunks.size()) chunks.add(new byte[CHUNK_BYTES]);
+                int count = Integer.min(bytes.length - offset, CHUNK_BYTES - used);
+                System.arraycopy(bytes, offset, chunks.get(chunks.size() - 1), used, count);
+                offset += count;
+                length += count;
+            }
+        }
+
+        /** @return The current chunks. */
+        private List<byte[]> chunks() {
+            return List.copyOf(chunks);
+        }
+
+        /** @return The number of bytes appended. */
+        private long length() {
+            return length;
+        }
+
+    }
+
+    /**
+     * A rendering, made of the first {@code length} bytes of some chunks, between a prefix and a suffix.
+     *
+     * @param eTag The entity tag of the rendering.
+     * @param prefix Bytes before the chunks.
+     * @param chunks The chunks. They may extend past {@code length}, but those bytes are not part of the rendering.
+     * @param chunkedLength The number of bytes of the chunks which are part of the rendering.
+     * @param suffix Bytes after the chunks.
+     */
+    private record ChunkedRendering(String eTag, byte[] prefix, List<byte[]> chunks, long chunkedLength, byte[] suffix) implements Rendering {
+
+        @Override
+        public String getETag() {
+            return eTag;
+        }
+
+        @Override
+        public long getLength() {
+            return prefix.length + chunkedLength + suffix.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(prefix);
+            long remaining = chunkedLength;
+            for (byte[] chunk : chunks) {
+                if (remaining == 0) break;
+                int count = (int) Long.min(remaining, chunk.length);
+                outputStream.write(chunk, 0, count);
+                remaining -= count;
+            }
+            outputStream.write(suffix);
+            outputStream.flush();
+        }
+
+    }
+
+}
@@ -39,8 +39,9 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** Implementation of a {@link CryptographyService}. */
 @Service
@@ -50,23 +51,45 @@ public class CryptographyServiceImpl implements CryptographyService {
     private int numNodes;
     @Value("${streamlet.keystore.public.directory}")
     private String publicKeyDirectory;
-    @Value("${streamlet.keystore.private.location}")
+    // Replicas never sign anything, so they need not be given a private key
+    @Value("${streamlet.keystore.private.location:}")
     private String privateKeyPath;
-    @Value("${streamlet.keystore.private.alias}")
+    @Value("${streamlet.keystore.private.alias:}")
     private String privateKeyAlias;
-    @Value("${streamlet.keystore.private.password}")
+    @Value("${streamlet.keystore.private.password:}")
     private String privateKeyPassword;
 
+    /** Signature instance for each thread. Re-initialized with the right key for every sign/verify. */
+    private static final ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA384withECDSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA384withECDSA algorithm provider.", e);
+        }
+    });
+    /** SHA-256 digest for each thread, for leader election. */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm provider.", e);
+        }
+    });
+
+    // Member variables
+    /** The private key for this node, loaded from the keystore on first use. */
+    private volatile PrivateKey privateKey;
+    /** Public keys of other nodes, loaded from their certificates on first use. */
+    private final ConcurrentMap<Integer, PublicKey> publicKeys = new ConcurrentHashMap<>();
+
     @Override
     public byte[] sign(Block block) {
         try {
-            Signature signature = Signature.getInstance("SHA384withECDSA");
+            Signature signature = SIGNATURE.get();
             signature.initSign(getPrivateKey());
 
-            signature.update(block.toBytes());
+            block.updateSignature(signature);
             return signature.sign();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("No SHA384withECDSA algorithm provider.", e);
         } catch (InvalidKeyException e) {
             throw new IllegalStateException("Private key for this node is invalid.", e);
         } catch (SignatureException e) {
@@ -91,13 +114,11 @@ public class CryptographyServiceImpl implements CryptographyService {
         try {
             PublicKey leaderPublicKey = getPublicKeyFor(voter);
 
-            Signature signature = Signature.getInstance("SHA384withECDSA");
+            Signature signature = SIGNATURE.get();
             signature.initVerify(leaderPublicKey);
 
-            signature.update(block.toBytes());
+            block.updateSignature(signature);
             return signature.verify(signatureBytes);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("No SHA384withECDSA algorithm provider.", e);
         } catch (InvalidKeyException e) {
             throw new IllegalStateException("Public key for node " + voter + " is invalid.", e);
         } catch (SignatureException e) {
@@ -107,21 +128,25 @@ public class CryptographyServiceImpl implements CryptographyService {
 
     @Override
     public int leaderForEpoch(int epoch) {
-        try {
-            byte[] bytes = SerializationUtils.intToFourBytesBigEndian(epoch);
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = messageDigest.digest(bytes);
-            int pseudoRandomNumber = SerializationUtils.fourBytesToIntBigEndian(Arrays.copyOfRange(hash, 0, Integer.BYTES));
-            int modulus = pseudoRandomNumber % numNodes;
-            // modulus may be negative, if pseudoRandomNumber was negative - this step makes it positive in all cases
-            return (modulus + numNodes) % numNodes;
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("No SHA-256 algorithm provider.", e);
-        }
+        byte[] hash = SHA_256.get().digest(SerializationUtils.intToFourBytesBigEndian(epoch));
+        int pseudoRandomNumber = (hash[0] << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+        int modulus = pseudoRandomNumber % numNodes;
+        // modulus may be negative, if pseudoRandomNumber was negative - this step makes it positive in all cases
+        return (modulus + numNodes) % numNodes;
     }
 
-    /** @return The private key for this node. */
+    /** @return The private key for this node. Loaded once, as reading the keystore is expensive. */
     private PrivateKey getPrivateKey() {
+        PrivateKey key = privateKey;
+        if (key == null) {
+            key = loadPrivateKey();
+            privateKey = key;
+        }
+        return key;
+    }
+
+    /** @return The private key for this node, read from its keystore. */
+    private PrivateKey loadPrivateKey() {
         try {
             KeyStore keyStore = getPrivateKeyStore();
             return (PrivateKey) keyStore.getKey(privateKeyAlias, privateKeyPassword.toCharArray());
@@ -136,6 +161,7 @@ public class CryptographyServiceImpl implements CryptographyService {
 
     /** @return The keystore for the private key for this node. */
     private KeyStore getPrivateKeyStore() {
+        if (privateKeyPath.isEmpty()) throw new IllegalStateException("No private key configured for this node (streamlet.keystore.private.location).");
         try {
             FileInputStream keystoreFile = new FileInputStream(privateKeyPath);
             KeyStore keyStore = KeyStore.getInstance("PKCS12");
@@ -155,12 +181,22 @@ public class CryptographyServiceImpl implements CryptographyService {
     }
 
     /**
-     * Gets the public key for a node.
+     * Gets the public key for a node. Loaded once per node, as reading the certificate is expensive.
      *
      * @param nodeId The ID of the node.
      * @return The public key of that node.
      */
     private PublicKey getPublicKeyFor(int nodeId) {
+        return publicKeys.computeIfAbsent(nodeId, this::loadPublicKeyFor);
+    }
+
+    /**
+     * Reads the public key for a node from its certificate.
+     *
+     * @param nodeId The ID of the node.
+     * @return The public key of that node.
+     */
+    private PublicKey loadPublicKeyFor(int nodeId) {
         try {
             CertificateFactory certificateFactory = getX509CertificateFactory();
             FileInputStream certificateFile = new FileInputStream(buildCertificatePath(nodeId));
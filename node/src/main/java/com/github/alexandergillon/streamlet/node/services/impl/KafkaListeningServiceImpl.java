@@ -17,6 +17,7 @@
 package com.github.alexandergillon.streamlet.node.services.impl;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockInterner;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.models.ProposeMessage;
 import com.github.alexandergillon.streamlet.node.models.VoteMessage;
@@ -53,6 +54,10 @@ public class KafkaListeningServiceImpl implements KafkaListeningService {
     private final PayloadService payloadService;
     private final KafkaSendingService kafkaSendingService;
 
+    // Member variables
+    /** Proposals and votes for the same block share one decoded {@link Block}. */
+    private final BlockInterner blockInterner = new BlockInterner(BlockInterner.DEFAULT_CAPACITY);
+
     @Override
     @KafkaListener(topics = "payloadsForNode" + "${streamlet.node.id}", properties = {"spring.json.value.default.type=com.github.alexandergillon.streamlet.node.models.PayloadMessage"})
     public void processPayload(PayloadMessage message) {
@@ -64,9 +69,7 @@ public class KafkaListeningServiceImpl implements KafkaListeningService {
     @KafkaListener(topics = "proposalsForNode" + "${streamlet.node.id}", properties = {"spring.json.value.default.type=com.github.alexandergillon.streamlet.node.models.ProposeMessage"})
     public void processProposal(ProposeMessage message) {
         log.info("Received proposed block from node {}: {}", message.getNodeId(), message.getBlock().toString());
-        byte[] parentHash = Base64.getDecoder().decode(message.getBlock().getParentHash());
-        byte[] payload = Base64.getDecoder().decode(message.getBlock().getPayload());
-        Block proposedBlock = new Block(parentHash, message.getBlock().getEpoch(), payload);
+        Block proposedBlock = blockInterner.intern(message.getBlock());
 
         byte[] signature = Base64.getDecoder().decode(message.getSignature());
 
@@ -81,9 +84,7 @@ public class KafkaListeningServiceImpl implements KafkaListeningService {
     @KafkaListener(topics = "votesForNode" + "${streamlet.node.id}", properties = {"spring.json.value.default.type=com.github.alexandergillon.streamlet.node.models.VoteMessage"})
     public void processVote(VoteMessage message) {
         log.info("Received vote on block from node {}: {}", message.getNodeId(), message.getBlock().toString());
-        byte[] parentHash = Base64.getDecoder().decode(message.getBlock().getParentHash());
-        byte[] payload = Base64.getDecoder().decode(message.getBlock().getPayload());
-        Block block = new Block(parentHash, message.getBlock().getEpoch(), payload);
+        Block block = blockInterner.intern(message.getBlock());
 
         byte[] signature = Base64.getDecoder().decode(message.getSignature());
         byte[] proposerSignature = Base64.getDecoder().decode(message.getProposerSignature());
@@ -53,4 +53,12 @@ public class KafkaSendingServiceImpl implements KafkaSendingService {
         }
     }
 
+    @Override
+    public void broadcastAsync(String message) {
+        log.info("Broadcasting {} asynchronously", message);
+        kafkaTemplate.send(broadcastTopicName, message).whenComplete((result, e) -> {
+            if (e != null) log.error("Exception while sending Kafka message asynchronously.", e);
+        });
+    }
+
 }
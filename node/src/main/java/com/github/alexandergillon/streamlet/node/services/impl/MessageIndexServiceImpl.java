@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.FinalizedMessage;
+import com.github.alexandergillon.streamlet.node.models.MessagePage;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.models.SearchPage;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.MessageIndexService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Implementation of a {@link MessageIndexService}.
+ * <p>
+ * Every finalized message is given a sequence number, in chain order. Each index maps a key (a user, or a bucket of
+ * timestamps) to a postings list: the sequence numbers of the messages with that key, in increasing order. Finalized
+ * messages are only ever appended, so postings lists are too, and a cursor is found in one by binary search.
+ * <p>
+ * Messages themselves are not kept: for each sequence number, the index only stores where the message is in the
+ * finalized chain (its block's height, and its position in the block), with its timestamp and user, in primitive
+ * arrays. A query touches only the postings of its key (for a time range, the buckets that overlap the range, merged
+ * in sequence order), and filters them on those arrays. Only the messages of the page being returned are decoded, from
+ * their blocks in a snapshot of the finalized chain. Text is indexed by a {@link TextIndex}, whose documents are
+ * messages, numbered by sequence number.
+ * <p>
+ * Blocks are indexed on a single background thread, in the order they are finalized, so that tokenizing messages
+ * does not hold up consensus. Indexing takes a write lock, and queries take a read lock.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MessageIndexServiceImpl implements MessageIndexService {
+
+    // Constants from Spring properties
+    @Value("${streamlet.message-index.time-bucket-ms:60000}")
+    private long timeBucketMillis;
+
+    // Autowired dependencies (via RequiredArgsConstructor)
+    private final PayloadService payloadService;
+    private final BlockchainService blockchainService;
+
+    // Member variables
+    /** Indexes finalized blocks, one at a time. */
+    private ExecutorService indexer;
+
+    // Member variables, guarded by lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Number of finalized messages, i.e. the next sequence number. */
+    private int messageCount = 0;
+    /** Height of the block of each message, by sequence number. */
+    private int[] heights = new int[64];
+    /** Position of each message in its block, by sequence number. */
+    private int[] positions = new int[64];
+    /** Timestamp of each message, by sequence number. */
+    private long[] timestamps = new long[64];
+    /** User number (see {@link #userNumbers}) of each message, by sequence number. */
+    private int[] users = new int[64];
+    /** Number of each user, in the order they were first seen. */
+    private final Map<String, Integer> userNumbers = new HashMap<>();
+    /** Postings of each user, by user number. */
+    private final List<Postings> userIndex = new ArrayList<>();
+    /** Postings of each time bucket (timestamp divided by {@link #timeBucketMillis}, rounded down). */
+    private final NavigableMap<Long, Postings> timeIndex = new TreeMap<>();
+    /** Index of the text of each message. */
+    private final TextIndex textIndex = new TextIndex();
+
+    @PostConstruct
+    private void initialize() {
+        indexer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        payloadService.addFinalizedBlockListener((block, height) -> indexer.execute(() -> indexBlock(block, height)));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        indexer.shutdownNow();
+    }
+
+    /**
+     * Indexes the messages of a newly finalized block.
+     *
+     * @param block The block that was finalized.
+     * @param height The height of that block.
+     */
+    void indexBlock(Block block, int height) {
+        List<PayloadMessage> blockMessages;
+        try {
+            blockMessages = block.getMessages();
+        } catch (ParseException e) {
+            return;  // not reached: listeners are only told about blocks with well-formed payloads
+        }
+        if (blockMessages.isEmpty()) return;
+
+        lock.writeLock().lock();
+        try {
+            for (int position = 0; position < blockMessages.size(); position++) {
+                PayloadMessage message = blockMessages.get(position);
+                int sequence = messageCount++;
+                if (sequence == heights.length) {
+                    heights = Arrays.copyOf(heights, sequence * 2);
+                    positions = Arrays.copyOf(positions, sequence * 2);
+                    timestamps = Arrays.copyOf(timestamps, sequence * 2);
+                    users = Arrays.copyOf(users, sequence * 2);
+                }
+                int user = userNumbers.computeIfAbsent(message.getUsername(), username -> {
+                    userIndex.add(new Postings());
+                    return userIndex.size() - 1;
+                });
+                heights[sequence] = height;
+                positions[sequence] = position;
+                timestamps[sequence] = message.getTimestamp();
+                users[sequence] = user;
+                userIndex.get(user).add(sequence);
+                timeIndex.computeIfAbsent(timeBucket(message.getTimestamp()), bucket -> new Postings()).add(sequence);
+                textIndex.add(sequence, message.getText());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public MessagePage findByUser(String username, Long fromTimestamp, Long toTimestamp, int cursor, int limit) {
+        long from = fromTimestamp == null ? Long.MIN_VALUE : fromTimestamp;
+        long to = toTimestamp == null ? Long.MAX_VALUE : toTimestamp;
+        if (to <= from) return new MessagePage(List.of(), null);
+
+        lock.readLock().lock();
+        try {
+            Integer user = userNumbers.get(username);
+            if (user == null) return new MessagePage(List.of(), null);
+            Postings postings = userIndex.get(user);
+
+            // Intersects the user's postings with those of the time range, driven by whichever list is shorter
+            int start = postings.firstAtLeast(cursor);
+            if (fromTimestamp != null || toTimestamp != null) {
+                Collection<Postings> buckets = bucketsInRange(from, to);
+                long bucketPostings = 0;
+                for (Postings bucket : buckets) bucketPostings += bucket.size() - bucket.firstAtLeast(cursor);
+                if (bucketPostings < postings.size() - start) {
+                    return mergePostings(buckets, cursor, limit, sequence -> inRange(sequence, from, to) && users[sequence] == user);
+                }
+            }
+
+            List<Integer> page = new ArrayList<>();
+            for (int i = start; i < postings.size(); i++) {
+                int sequence = postings.get(i);
+                if (page.size() == limit) return new MessagePage(decode(page), sequence);
+                if (inRange(sequence, from, to)) page.add(sequence);
+            }
+            return new MessagePage(decode(page), null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public MessagePage findByTime(long fromTimestamp, long toTimestamp, int cursor, int limit) {
+        if (toTimestamp <= fromTimestamp) return new MessagePage(List.of(), null);
+
+        lock.readLock().lock();
+        try {
+            return mergePostings(bucketsInRange(fromTimestamp, toTimestamp), cursor, limit,
+                    sequence -> inRange(sequence, fromTimestamp, toTimestamp));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SearchPage search(String query, String cursor, int limit) throws IllegalArgumentException {
+        // The cursor is the position in the ranking, and the number of messages being ranked
+        int position = 0;
+        int maxDocument = -1;
+        if (cursor != null) {
+            String[] parts = cursor.split("\\.", -1);
+            try {
+                if (parts.length != 2) throw new NumberFormatException();
+                position = Integer.parseInt(parts[0]);
+                maxDocument = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed search cursor: " + cursor);
+            }
+            if (position < 0 || maxDocument < 0) throw new IllegalArgumentException("Malformed search cursor: " + cursor);
+        }
+
+        lock.readLock().lock();
+        try {
+            if (maxDocument < 0) maxDocument = textIndex.size();
+            // One extra hit, to tell whether there is another page
+            long end = (long) position + limit;
+            if (end >= Integer.MAX_VALUE) return new SearchPage(List.of(), null);
+            List<TextIndex.Hit> hits = textIndex.search(query, (int) end + 1, maxDocument);
+
+            List<Integer> page = new ArrayList<>();
+            for (int i = position; i < hits.size() && i < end; i++) {
+                page.add(hits.get(i).document());
+            }
+            return new SearchPage(decode(page), hits.size() > end ? end + "." + maxDocument : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the postings of the time buckets which overlap a time range. Must be called with the read lock held.
+     *
+     * @param from Earliest timestamp (inclusive).
+     * @param to Latest timestamp (exclusive). Must be after from.
+     * @return The postings of each bucket which overlaps that range. Buckets at the ends of the range may also hold
+     * messages outside it.
+     */
+    private Collection<Postings> bucketsInRange(long from, long to) {
+        return timeIndex.subMap(timeBucket(from), true, timeBucket(to - 1), true).values();
+    }
+
+    /**
+     * Merges postings lists into a page of messages, in sequence order. Must be called with the read lock held.
+     *
+     * @param postingsLists The postings lists to merge.
+     * @param cursor Sequence number to start from.
+     * @param limit Maximum number of messages in the page.
+     * @param filter Which of the messages in the lists belong in the page, by sequence number.
+     * @return A page of the messages in the lists which pass the filter.
+     */
+    private MessagePage mergePostings(Collection<Postings> postingsLists, int cursor, int limit, IntPredicate filter) {
+        PriorityQueue<PostingsCursor> merge = new PriorityQueue<>(Comparator.comparingInt(PostingsCursor::current));
+        for (Postings postings : postingsLists) {
+            int index = postings.firstAtLeast(cursor);
+            if (index < postings.size()) merge.add(new PostingsCursor(postings, index));
+        }
+
+        List<Integer> page = new ArrayList<>();
+        while (!merge.isEmpty()) {
+            PostingsCursor head = merge.poll();
+            int sequence = head.current();
+            if (page.size() == limit) return new MessagePage(decode(page), sequence);
+            if (filter.test(sequence)) page.add(sequence);
+            if (head.advance()) merge.add(head);
+        }
+        return new MessagePage(decode(page), null);
+    }
+
+    /**
+     * Decodes the messages of a page from their blocks, in a snapshot of the finalized chain. Each block is decoded at
+     * most once. Must be called with the read lock held.
+     *
+     * @param sequences The sequence numbers of the messages in the page.
+     * @return The messages, in the same order.
+     */
+    private List<FinalizedMessage> decode(List<Integer> sequences) {
+        if (sequences.isEmpty()) return List.of();
+        // Blocks are published to snapshots before they are indexed, so every indexed message is in this snapshot
+        List<Block> chain = blockchainService.getSnapshot().finalizedChain();
+        Map<Integer, List<PayloadMessage>> decoded = new HashMap<>();
+        List<FinalizedMessage> page = new ArrayList<>(sequences.size());
+        for (int sequence : sequences) {
+            Block block = chain.get(heights[sequence]);
+            List<PayloadMessage> blockMessages = decoded.computeIfAbsent(heights[sequence], height -> {
+                try {
+                    return block.getMessages();
+                } catch (ParseException e) {
+                    // Not reached: the block was decoded when it was indexed
+                    throw new IllegalStateException("Indexed block has a malformed payload: " + block, e);
+                }
+            });
+            page.add(new FinalizedMessage(heights[sequence], block.getEpoch(), blockMessages.get(positions[sequence])));
+        }
+        return page;
+    }
+
+    /**
+     * @param timestamp A timestamp, in milliseconds since the Unix epoch.
+     * @return The time bucket of that timestamp.
+     */
+    private long timeBucket(long timestamp) {
+        return Math.floorDiv(timestamp, timeBucketMillis);
+    }
+
+    /**
+     * @param sequence The sequence number of a finalized message.
+     * @param from Earliest timestamp (inclusive).
+     * @param to Latest timestamp (exclusive).
+     * @return Whether that message's timestamp is in the range. Must be called with the read lock held.
+     */
+    private boolean inRange(int sequence, long from, long to) {
+        long timestamp = timestamps[sequence];
+        return timestamp >= from && timestamp < to;
+    }
+
+    /** A postings list: sequence numbers of messages, in increasing order. Only ever appended to. */
+    private static class Postings {
+
+        private int[] sequences = new int[4];
+        private int size = 0;
+
+        private void add(int sequence) {
+            if (size == sequences.length) sequences = Arrays.copyOf(sequences, size * 2);
+            sequences[size++] = sequence;
+        }
+
+        private int get(int index) {
+            return sequences[index];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * @param sequence A sequence number.
+         * @return The index of the first posting at or after that sequence number, or {@link #size()} if none is.
+         */
+        private int firstAtLeast(int sequence) {
+            int index = Arrays.binarySearch(sequences, 0, size, sequence);
+            return index >= 0 ? index : -index - 1;
+        }
+
+    }
+
+    /** A position in a postings list, for merging several lists. */
+    private static class PostingsCursor {
+
+        private final Postings postings;
+        private int index;
+
+        private PostingsCursor(Postings postings, int index) {
+            this.postings = postings;
+            this.index = index;
+        }
+
+        private int current() {
+            return postings.get(index);
+        }
+
+        /** @return Whether there is another posting, which is now current. */
+        private boolean advance() {
+            return ++index < postings.size();
+        }
+
+    }
+
+}
@@ -17,58 +17,414 @@
 package com.github.alexandergillon.streamlet.node.services.impl;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.MempoolStatus;
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.text.ParseException;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
-/** Implementation of a {@link com.github.alexandergillon.streamlet.node.services.PayloadService}. */
+/**
+ * Implementation of a {@link com.github.alexandergillon.streamlet.node.services.PayloadService}.
+ * <p>
+ * Pending messages are kept in a bounded mempool. Each message is tagged with a round on arrival: one more than the
+ * round of the previous pending message from the same user, but never behind the oldest round still pending. Messages
+ * are proposed in order of round, then arrival, so each user gets one message per round and a user with a large
+ * backlog cannot starve everyone else. Users who only send one message at a time see plain FIFO order.
+ * <p>
+ * The total size of pending messages is capped: when a new message would exceed the cap, pending messages are evicted
+ * from whichever user has the most pending bytes, oldest first (ties going to the user with the oldest pending message).
+ * A user flooding the mempool therefore only evicts their own messages, not those of users who send a few at a time.
+ * Once occupancy passes a threshold, {@link #getMempoolStatus()} reports back-pressure, so
+ * that submissions can be slowed down before anything is evicted.
+ * <p>
+ * Adding and removing messages takes a short lock. Choosing a payload does not: it walks a concurrent ordered set.
+ * Proposed payloads are batches of pending messages (see {@link PayloadBatch}), up to a budget of messages and bytes.
+ * <p>
+ * Messages in notarized and finalized blocks are indexed by ID, so that their status can be looked up (and waited on)
+ * without scanning the chain. The index and its waiters are concurrent maps, separate from the mempool's lock. Only the
+ * most recently finalized messages keep their status, as with the messages that may not become pending again, and
+ * notarized messages are forgotten once their block can no longer be finalized.
+ */
 @Service
 @Slf4j
 public class PayloadServiceImpl implements PayloadService {
 
-    private final Set<PayloadMessage> pendingMessages = Collections.synchronizedSet(new LinkedHashSet<>());
+    // Constants from Spring properties
+    @Value("${streamlet.payload.batch.max-messages:64}")
+    private int maxBatchMessages;
+    @Value("${streamlet.payload.batch.max-bytes:65536}")
+    private int maxBatchBytes;
+    @Value("${streamlet.payload.mempool.max-bytes:67108864}")
+    private long maxMempoolBytes;
+    @Value("${streamlet.payload.mempool.back-pressure-threshold:0.8}")
+    private double backPressureThreshold;
+    @Value("${streamlet.payload.finalized-history:65536}")
+    private int finalizedHistorySize;
+
+    /** A pending message, with its place in the mempool. */
+    private record Entry(PayloadMessage message, long round, long sequence, int bytes) { }
+
+    /** Per-user state: the round of the user's newest pending message, and the user's pending messages. */
+    @RequiredArgsConstructor
+    private static class UserState {
+        private final String username;
+        private long lastRound;
+        /** The user's pending messages, by arrival sequence number (i.e. in eviction order). */
+        private final NavigableMap<Long, Entry> pending = new TreeMap<>();
+        private long pendingBytes;
+    }
+
+    /** Lock for all members below except {@link #selectionOrder}, which is also read without it. */
+    private final Object lock = new Object();
+    /** Pending messages (i.e. not yet finalized), and their entries. */
+    private final Map<PayloadMessage, Entry> pendingMessages = new HashMap<>();
+    /** Pending messages, in the order they should be proposed. */
+    private final NavigableSet<Entry> selectionOrder = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong(Entry::round).thenComparingLong(Entry::sequence));
+    /** State of each user with pending messages. */
+    private final Map<String, UserState> users = new HashMap<>();
+    /**
+     * Users with pending messages, in eviction order: most pending bytes first, then oldest pending message first. A
+     * user's state is only changed while they are out of this set.
+     */
+    private final NavigableSet<UserState> evictionOrder = new TreeSet<>(
+            Comparator.comparingLong((UserState user) -> -user.pendingBytes).thenComparingLong(user -> user.pending.firstKey()));
+    /** Sequence number of the next message to arrive. */
+    private long nextSequence = 0;
+    /** Oldest round among pending messages, or the last such round if there are none. */
+    private long currentRound = 0;
+    /** Total size of pending messages, in bytes. */
+    private long pendingBytes = 0;
+    /** Number and total size of messages evicted since startup. */
+    private long evictedMessages = 0;
+    private long evictedBytes = 0;
+    /**
+     * The most recently finalized messages, up to {@link #finalizedHistorySize}. A message can arrive again after it
+     * is finalized (e.g. when the broadcast server falls back to sending it to every node), and must not become pending
+     * again, or it would be proposed twice.
+     */
+    private final Map<PayloadMessage, Boolean> recentlyFinalized = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PayloadMessage, Boolean> eldest) {
+            return size() > finalizedHistorySize;
+        }
+    };
+
+    /** A caller waiting for a message to reach a state. */
+    private record StatusWaiter(MessageStatus.State state, CompletableFuture<MessageStatus> future) { }
+
+    /** Status of each message in a notarized or finalized block, by message ID. Read without {@link #statusLock}. */
+    private final Map<String, MessageStatus> messageStatuses = new ConcurrentHashMap<>();
+    /** Lock for updates to {@link #messageStatuses}, and for the members below, which bound it. */
+    private final Object statusLock = new Object();
+    /** Statuses of finalized messages in {@link #messageStatuses}, oldest first, up to {@link #finalizedHistorySize}. */
+    private final Deque<MessageStatus> finalizedStatuses = new ArrayDeque<>();
+    /** IDs of messages which were recorded as notarized, by the height of their block. */
+    private final NavigableMap<Integer, List<String>> notarizedByHeight = new TreeMap<>();
+    /** Height of the most recently finalized block. Notarized blocks at or below it can no longer be finalized. */
+    private int finalizedHeight = 0;
+    /** Callers waiting for messages to reach a state, by message ID. */
+    private final Map<String, Set<StatusWaiter>> statusWaiters = new ConcurrentHashMap<>();
+    /** Listeners to finalized blocks. */
+    private final List<FinalizedBlockListener> finalizedBlockListeners = new CopyOnWriteArrayList<>();
 
     @Override
     public void addPendingMessage(PayloadMessage message) {
-        pendingMessages.add(message);
+        int bytes = message.toBytes().length;
+        synchronized (lock) {
+            if (pendingMessages.containsKey(message)) return;
+            if (recentlyFinalized.containsKey(message)) {
+                log.debug("Ignoring message that was already finalized: " + message);
+                return;
+            }
+            if (bytes > maxMempoolBytes) {
+                log.warn("Dropping message larger than the mempool: " + message);
+                evictedMessages++;
+                evictedBytes += bytes;
+                return;
+            }
+            while (pendingBytes + bytes > maxMempoolBytes) {
+                Entry evicted = evictionOrder.first().pending.firstEntry().getValue();
+                log.debug("Evicting pending message to make space in the mempool: " + evicted.message());
+                removeEntry(evicted);
+                evictedMessages++;
+                evictedBytes += evicted.bytes();
+            }
+
+            UserState user = users.get(message.getUsername());
+            if (user == null) {
+                user = new UserState(message.getUsername());
+                users.put(user.username, user);
+            } else {
+                evictionOrder.remove(user);
+            }
+            long round = user.pending.isEmpty() ? currentRound : Long.max(currentRound, user.lastRound + 1);
+            user.lastRound = round;
+
+            Entry entry = new Entry(message, round, nextSequence++, bytes);
+            pendingMessages.put(message, entry);
+            selectionOrder.add(entry);
+            pendingBytes += bytes;
+            user.pending.put(entry.sequence(), entry);
+            user.pendingBytes += bytes;
+            evictionOrder.add(user);
+        }
     }
 
     @Override
-    public void finalizedPayload(byte[] payload) {
-        try {
-            PayloadMessage message = PayloadMessage.fromStringBytes(payload);
-            /* A block containing a message that does not appear in our pending messages is not necessarily an error -
-            it is possible that we didn't hear about this proposed message. However, if this happens often, this may
-            be a symptom of some other issue (e.g. network, Kafka, etc.), which is likely of interest. */
-            if (!pendingMessages.remove(message)) log.info("Finalized message that was not pending: " + message);
-        } catch (ParseException e) {
-            throw new RuntimeException(e);
+    public void finalizedMessages(List<PayloadMessage> messages) {
+        synchronized (lock) {
+            for (PayloadMessage message : messages) {
+                if (finalizedHistorySize > 0) recentlyFinalized.put(message, Boolean.TRUE);
+                Entry entry = pendingMessages.get(message);
+                /* A block containing a message that does not appear in our pending messages is not necessarily an error -
+                it is possible that we didn't hear about this proposed message, or evicted it. However, if this happens
+                often, this may be a symptom of some other issue (e.g. network, Kafka, etc.), which is likely of interest. */
+                if (entry == null) {
+                    log.info("Finalized message that was not pending: " + message);
+                } else {
+                    removeEntry(entry);
+                }
+            }
         }
     }
 
+    @Override
+    public void finalizedBlock(Block block, int height) throws ParseException {
+        List<PayloadMessage> messages = block.getMessages();
+        recordStatus(block, height, messages, MessageStatus.State.FINALIZED);
+        forgetAbandonedNotarizations(height);
+        finalizedMessages(messages);
+        for (FinalizedBlockListener listener : finalizedBlockListeners) {
+            try {
+                listener.finalizedBlock(block, height);
+            } catch (RuntimeException e) {
+                // A listener must not be able to stop the blockchain from making progress
+                log.error("Finalized block listener failed.", e);
+            }
+        }
+    }
+
+    @Override
+    public void addFinalizedBlockListener(FinalizedBlockListener listener) {
+        finalizedBlockListeners.add(listener);
+    }
+
+    @Override
+    public void notarizedBlock(Block block, int height) throws ParseException {
+        recordStatus(block, height, block.getMessages(), MessageStatus.State.NOTARIZED);
+    }
+
     @Override
     public byte[] getNextPayload(Set<Block> unfinalizedSet) {
-        try {
-            // TODO: synchronization issues to do with finalizing a block right as we propose one
-            HashSet<PayloadMessage> alreadyIncluded = new HashSet<>();
-            for (Block block : unfinalizedSet) {
-                alreadyIncluded.add(PayloadMessage.fromStringBytes(block.getPayload()));
+        // TODO: synchronization issues to do with finalizing a block right as we propose one
+        Set<PayloadMessage> alreadyIncluded = unfinalizedMessages(unfinalizedSet);
+
+        /* The messages skipped here are pending messages which are in the unfinalized chain. These are few, as
+        messages are taken from the front of the selection order. */
+        List<PayloadMessage> batch = new ArrayList<>();
+        Set<PayloadMessage> inBatch = new HashSet<>();
+        int batchMessageBytes = 0;
+        for (Entry entry : selectionOrder) {
+            if (batch.size() >= maxBatchMessages) break;
+            PayloadMessage message = entry.message();
+            if (alreadyIncluded.contains(message) || inBatch.contains(message)) continue;
+
+            // The first message is always taken, so that a message larger than the budget is not stuck forever
+            if (!batch.isEmpty() && PayloadBatch.encodedLength(batch.size() + 1, batchMessageBytes + entry.bytes()) > maxBatchBytes) break;
+            batch.add(message);
+            inBatch.add(message);
+            batchMessageBytes += entry.bytes();
+        }
+
+        return batch.isEmpty() ? null : PayloadBatch.encode(batch);
+    }
+
+    @Override
+    public MempoolStatus getMempoolStatus() {
+        synchronized (lock) {
+            double occupancy = (double) pendingBytes / maxMempoolBytes;
+            return new MempoolStatus(pendingMessages.size(), pendingBytes, maxMempoolBytes, occupancy, evictedMessages,
+                    evictedBytes, occupancy >= backPressureThreshold);
+        }
+    }
+
+    @Override
+    public MessageStatus getMessageStatus(String messageId) {
+        MessageStatus status = messageStatuses.get(messageId);
+        return status == null ? MessageStatus.unknown(messageId) : status;
+    }
+
+    @Override
+    public CompletableFuture<MessageStatus> awaitMessageStatus(String messageId, MessageStatus.State state, long timeoutMillis) {
+        MessageStatus current = getMessageStatus(messageId);
+        if (current.getState().reached(state) || timeoutMillis <= 0) return CompletableFuture.completedFuture(current);
+
+        StatusWaiter waiter = new StatusWaiter(state, new CompletableFuture<>());
+        statusWaiters.compute(messageId, (id, waiters) -> {
+            if (waiters == null) waiters = ConcurrentHashMap.newKeySet();
+            waiters.add(waiter);
+            return waiters;
+        });
+        waiter.future().whenComplete((status, e) -> removeWaiter(messageId, waiter));
+
+        // The message may have reached the state before the waiter was registered
+        current = getMessageStatus(messageId);
+        if (current.getState().reached(state)) {
+            waiter.future().complete(current);
+        } else {
+            CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS)
+                    .execute(() -> waiter.future().complete(getMessageStatus(messageId)));
+        }
+        return waiter.future();
+    }
+
+    /**
+     * Records that messages are in a notarized or finalized block, and wakes up anyone waiting for that.
+     *
+     * @param block The block.
+     * @param height The height of the block.
+     * @param messages The messages in the block.
+     * @param state Whether the block was notarized or finalized.
+     */
+    private void recordStatus(Block block, int height, List<PayloadMessage> messages, MessageStatus.State state) {
+        if (messages.isEmpty()) return;
+        String blockHash = Base64.getEncoder().encodeToString(block.getHash());
+        List<MessageStatus> recorded = new ArrayList<>();
+        synchronized (statusLock) {
+            // A block which conflicts with the finalized chain will never be finalized
+            if (state == MessageStatus.State.NOTARIZED && height <= finalizedHeight) return;
+            for (PayloadMessage message : messages) {
+                String messageId = message.messageId();
+                // A finalized message stays where it was finalized, even if a conflicting block containing it is notarized later
+                MessageStatus old = messageStatuses.get(messageId);
+                if (old != null && old.getState() == MessageStatus.State.FINALIZED) continue;
+
+                MessageStatus status = new MessageStatus(messageId, state, height, block.getEpoch(), blockHash);
+                messageStatuses.put(messageId, status);
+                recorded.add(status);
+                if (state == MessageStatus.State.FINALIZED) {
+                    finalizedStatuses.add(status);
+                    while (finalizedStatuses.size() > finalizedHistorySize) {
+                        MessageStatus oldest = finalizedStatuses.remove();
+                        messageStatuses.remove(oldest.getMessageId(), oldest);
+                    }
+                } else {
+                    notarizedByHeight.computeIfAbsent(height, h -> new ArrayList<>()).add(messageId);
+                }
             }
+        }
 
-            for (PayloadMessage message : pendingMessages) {
-                if (!alreadyIncluded.contains(message)) {
-                    return message.toStringBytes();
+        for (MessageStatus status : recorded) {
+            Set<StatusWaiter> waiters = statusWaiters.get(status.getMessageId());
+            if (waiters == null) continue;
+            for (StatusWaiter waiter : waiters) {
+                if (status.getState().reached(waiter.state())) waiter.future().complete(status);
+            }
+        }
+    }
+
+    /**
+     * Forgets the status of messages in notarized blocks which can no longer be finalized, once a block has been
+     * finalized. Blocks are finalized in chain order, so any block at or below that height which is still only
+     * notarized conflicts with the finalized chain.
+     *
+     * @param height The height of the block that was finalized.
+     */
+    private void forgetAbandonedNotarizations(int height) {
+        synchronized (statusLock) {
+            finalizedHeight = Integer.max(finalizedHeight, height);
+            NavigableMap<Integer, List<String>> abandoned = notarizedByHeight.headMap(height, true);
+            for (List<String> messageIds : abandoned.values()) {
+                for (String messageId : messageIds) {
+                    // The message may since have been finalized, or notarized again in a block that can still be finalized
+                    MessageStatus status = messageStatuses.get(messageId);
+                    if (status != null && status.getState() == MessageStatus.State.NOTARIZED && status.getHeight() <= height) {
+                        messageStatuses.remove(messageId, status);
+                    }
                 }
             }
+            abandoned.clear();
+        }
+    }
 
-            return null;
+    /**
+     * Stops tracking a caller that is no longer waiting for a message.
+     *
+     * @param messageId The ID of the message.
+     * @param waiter The caller.
+     */
+    private void removeWaiter(String messageId, StatusWaiter waiter) {
+        statusWaiters.computeIfPresent(messageId, (id, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+    }
+
+    /**
+     * Removes a pending message from the mempool. Must be called with {@link #lock} held.
+     *
+     * @param entry The entry of the message to remove.
+     */
+    private void removeEntry(Entry entry) {
+        pendingMessages.remove(entry.message());
+        selectionOrder.remove(entry);
+        pendingBytes -= entry.bytes();
+
+        UserState user = users.get(entry.message().getUsername());
+        evictionOrder.remove(user);
+        user.pending.remove(entry.sequence());
+        user.pendingBytes -= entry.bytes();
+        if (user.pending.isEmpty()) {
+            users.remove(user.username);
+        } else {
+            evictionOrder.add(user);
+        }
+        if (!selectionOrder.isEmpty()) currentRound = Long.max(currentRound, selectionOrder.first().round());
+    }
+
+    /**
+     * Gets the messages in an unfinalized set. Blocks keep their decoded messages, so this does not re-parse payloads.
+     *
+     * @param unfinalizedSet A set of unfinalized blocks.
+     * @return The messages contained in those blocks.
+     */
+    private Set<PayloadMessage> unfinalizedMessages(Set<Block> unfinalizedSet) {
+        Set<PayloadMessage> messages = new HashSet<>();
+        try {
+            for (Block block : unfinalizedSet) {
+                messages.addAll(block.getMessages());
+            }
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
+        return messages;
     }
 
 }
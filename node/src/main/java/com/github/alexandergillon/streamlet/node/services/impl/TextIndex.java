@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Inverted index over the text of documents, for ranked keyword search. Documents are numbered from 0, and must be
+ * added in increasing order. Each term's postings are stored as a byte array of variable-length integers: for each
+ * document containing the term, the gap since the previous such document, then the number of times the term occurs
+ * in it. Results are ranked by BM25.
+ * <p>
+ * A search can be limited to the first documents added, so that later pages of a search rank the same documents as the
+ * first, with the same statistics, however many documents have been added since. Scores are accumulated in primitive
+ * arrays, merging each term's postings (which are in document order) into those of the terms before it.
+ * <p>
+ * Not thread-safe: callers must synchronize.
+ */
+class TextIndex {
+
+    /** BM25 term frequency saturation. */
+    private static final double K1 = 1.2;
+    /** BM25 document length normalization. */
+    private static final double B = 0.75;
+
+    /** A search result. */
+    record Hit(int document, double score) { }
+
+    /** Postings of each term. */
+    private final Map<String, TermPostings> postings = new HashMap<>();
+    /** Total number of terms in the documents before each document (so the entry after the last is the total of all). */
+    private long[] lengthTotals = new long[64];
+    /** Number of documents added. */
+    private int documentCount = 0;
+
+    /**
+     * Splits text into terms: maximal runs of letters and digits, in lower case.
+     *
+     * @param text Some text.
+     * @return The terms of that text, in order, including repeats.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) start = i;
+            } else if (start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return terms;
+    }
+
+    /**
+     * Adds a document to the index.
+     *
+     * @param document The number of the document: the number of documents added so far.
+     * @param text The text of the document.
+     * @throws IllegalArgumentException If documents are added out of order.
+     */
+    void add(int document, String text) throws IllegalArgumentException {
+        if (document != documentCount) throw new IllegalArgumentException("Documents must be added in order.");
+        List<String> terms = tokenize(text);
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) frequencies.merge(term, 1, Integer::sum);
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new TermPostings()).add(document, entry.getValue());
+        }
+
+        if (documentCount + 1 == lengthTotals.length) lengthTotals = Arrays.copyOf(lengthTotals, lengthTotals.length * 2);
+        lengthTotals[documentCount + 1] = lengthTotals[documentCount] + terms.size();
+        documentCount++;
+    }
+
+    /** @return The number of documents added. */
+    int size() {
+        return documentCount;
+    }
+
+    /**
+     * Finds the documents that best match a query, among all documents added so far.
+     *
+     * @param query The query text, tokenized as documents are.
+     * @param maxHits The maximum number of results to return.
+     * @return The best matching documents, best first. Documents with equal scores are ordered newest first.
+     */
+    List<Hit> search(String query, int maxHits) {
+        return search(query, maxHits, documentCount);
+    }
+
+    /**
+     * Finds the documents that best match a query, among the documents numbered below some limit. Documents added
+     * after those do not change the results. A document matches if it contains any term of the query.
+     *
+     * @param query The query text, tokenized as documents are.
+     * @param maxHits The maximum number of results to return.
+     * @param maxDocument The number of documents to search: only those numbered below this are scored.
+     * @return The best matching documents, best first. Documents with equal scores are ordered newest first.
+     * @throws IllegalArgumentException If maxDocument is more than the number of documents added.
+     */
+    List<Hit> search(String query, int maxHits, int maxDocument) throws IllegalArgumentException {
+        if (maxDocument < 0 || maxDocument > documentCount) throw new IllegalArgumentException("Cannot search more documents than have been added.");
+        if (maxHits <= 0 || maxDocument == 0) return List.of();
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        double averageLength = (double) lengthTotals[maxDocument] / maxDocument;
+
+        // Matching documents so far, in increasing order, and their scores
+        int[] documents = new int[0];
+        double[] scores = new double[0];
+        int matches = 0;
+        for (String term : terms) {
+            TermPostings termPostings = postings.get(term);
+            if (termPostings == null) continue;
+            int[] termDocuments = new int[Integer.min(termPostings.documentCount, maxDocument)];
+            int[] frequencies = new int[termDocuments.length];
+            int termMatches = termPostings.read(maxDocument, termDocuments, frequencies);
+            if (termMatches == 0) continue;
+
+            double idf = Math.log(1 + (maxDocument - termMatches + 0.5) / (termMatches + 0.5));
+            int[] mergedDocuments = new int[matches + termMatches];
+            double[] mergedScores = new double[matches + termMatches];
+            int merged = 0;
+            int i = 0;
+            int j = 0;
+            while (i < matches || j < termMatches) {
+                if (j == termMatches || (i < matches && documents[i] < termDocuments[j])) {
+                    mergedDocuments[merged] = documents[i];
+                    mergedScores[merged++] = scores[i++];
+                    continue;
+                }
+                int document = termDocuments[j];
+                int tf = frequencies[j++];
+                double norm = K1 * (1 - B + B * (lengthTotals[document + 1] - lengthTotals[document]) / averageLength);
+                double score = idf * tf * (K1 + 1) / (tf + norm);
+                if (i < matches && documents[i] == document) score += scores[i++];
+                mergedDocuments[merged] = document;
+                mergedScores[merged++] = score;
+            }
+            documents = mergedDocuments;
+            scores = mergedScores;
+            matches = merged;
+        }
+
+        // Keeps the best maxHits, with the worst at the head of the queue
+        PriorityQueue<Hit> best = new PriorityQueue<>(TextIndex::compareHits);
+        for (int i = 0; i < matches; i++) {
+            Hit hit = new Hit(documents[i], scores[i]);
+            if (best.size() == maxHits && compareHits(hit, best.peek()) <= 0) continue;
+            best.add(hit);
+            if (best.size() > maxHits) best.poll();
+        }
+        List<Hit> hits = new ArrayList<>(best.size());
+        while (!best.isEmpty()) hits.add(best.poll());
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /** Orders hits from worst to best. */
+    private static int compareHits(Hit first, Hit second) {
+        int byScore = Double.compare(first.score(), second.score());
+        return byScore != 0 ? byScore : Integer.compare(first.document(), second.document());
+    }
+
+    /** Postings of one term. Only ever appended to. */
+    private static class TermPostings {
+
+        private byte[] bytes = new byte[8];
+        private int length = 0;
+        /** Number of documents containing the term. */
+        private int documentCount = 0;
+        /** Last document containing the term. */
+        private int lastDocument = -1;
+
+        private void add(int document, int frequency) {
+            writeVarint(document - lastDocument);
+            writeVarint(frequency);
+            lastDocument = document;
+            documentCount++;
+        }
+
+        /**
+         * Reads the postings of the documents numbered below a limit, in document order.
+         *
+         * @param maxDocument The limit.
+         * @param documents Array to read the documents into.
+         * @param frequencies Array to read the number of times the term occurs in each document into.
+         * @return The number of postings read.
+         */
+        private int read(int maxDocument, int[] documents, int[] frequencies) {
+            int offset = 0;
+            int document = -1;
+            int count = 0;
+            while (offset < length) {
+                // Variable-length integers: 7 bits per byte, least significant first, top bit set on all but the last
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[offset++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int frequency = 0;
+                shift = 0;
+                do {
+                    b = bytes[offset++];
+                    frequency |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                document += gap;
+                if (document >= maxDocument) break;
+                documents[count] = document;
+                frequencies[count++] = frequency;
+            }
+            return count;
+        }
+
+        private void writeVarint(int value) {
+            if (bytes.length - length < 5) bytes = Arrays.copyOf(bytes, Integer.max(bytes.length * 2, length + 5));
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+    }
+
+}
@@ -39,6 +39,8 @@ public class TimingServiceImpl implements TimingService {
     // Constants from Spring properties
     @Value("${streamlet.node.id}")
     private int nodeId;
+    @Value("${streamlet.node.replica:false}")
+    private boolean replica;
     @Value("${streamlet.epoch.duration}")
     private long epochDurationMillis;
 
@@ -74,7 +76,7 @@ public class TimingServiceImpl implements TimingService {
             lastEpoch = epoch;
 
             // TODO: move this check to BlockchainService
-            if (epoch > 0 && cryptographyService.leaderForEpoch(epoch) == nodeId) {
+            if (!replica && epoch > 0 && cryptographyService.leaderForEpoch(epoch) == nodeId) {
                 blockchainService.proposeBlock();
             }
         }
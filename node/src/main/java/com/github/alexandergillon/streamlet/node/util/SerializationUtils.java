@@ -16,17 +16,31 @@
  */
 package com.github.alexandergillon.streamlet.node.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
+import com.github.alexandergillon.streamlet.node.models.BlockDetails;
+import com.github.alexandergillon.streamlet.node.models.FinalizedBlock;
 import com.github.alexandergillon.streamlet.node.models.JsonBlock;
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.models.ProposeMessage;
+import com.github.alexandergillon.streamlet.node.models.TipBlock;
 import com.github.alexandergillon.streamlet.node.models.VoteMessage;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
@@ -39,6 +53,8 @@ public class SerializationUtils {
 
     // For JSON serialization
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // For streamed JSON serialization: the output stream decides when to flush, rather than every message
+    private static final ObjectWriter streamingWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 
     private SerializationUtils() {
         throw new IllegalStateException("Utility class should not be instantiated.");
@@ -51,7 +67,7 @@ public class SerializationUtils {
      * @return That integer as 4 bytes in big-endian order.
      */
     public static byte[] intToFourBytesBigEndian(int i) {
-        return ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.BIG_ENDIAN).putInt(i).array();
+        return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
     }
 
     /**
@@ -113,6 +129,28 @@ public class SerializationUtils {
         }
     }
 
+    /**
+     * Builds a JSON message that can be broadcast, relaying a message that a user submitted directly to this node.
+     *
+     * @param nodeId The ID of this node.
+     * @param message The message that was submitted.
+     * @return A JSON message that can be broadcast, relaying that message to other nodes.
+     */
+    public static String buildPayloadBroadcast(int nodeId, PayloadMessage message) {
+        try {
+            ObjectNode jsonRoot = objectMapper.createObjectNode();
+
+            jsonRoot.put("sender", nodeId);
+            jsonRoot.put("messageType", "payload");
+            jsonRoot.set("message", objectMapper.valueToTree(message));
+
+            return objectMapper.writeValueAsString(jsonRoot);
+        } catch (JsonProcessingException e) {
+            log.error("JsonProcessingException", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Converts a list of blocks to a readable text version of the messages it contains.
      *
@@ -120,12 +158,14 @@ public class SerializationUtils {
      * @return A readable text version of the messages the list of blocks contains.
      */
     public static String blockListMessagesToReadableText(List<Block> blockList) {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (Block block : blockList) {
-            stringBuilder.append(new String(block.getPayload(), StandardCharsets.US_ASCII));
-            stringBuilder.append("\r\n");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            writeBlockMessagesAsReadableText(blockList, outputStream);
+        } catch (IOException e) {
+            log.error("IOException", e);
+            throw new RuntimeException(e);
         }
-        return stringBuilder.toString();
+        return outputStream.toString(StandardCharsets.UTF_8);
     }
 
     /**
@@ -136,22 +176,137 @@ public class SerializationUtils {
      * @return The JSON representation of the messages that the list of blocks contains.
      */
     public static String blockListMessagesToJson(List<Block> blockList) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         try {
-            List<PayloadMessage> jsonMessageList = blockList.stream().map(block -> {
-                try {
-                    return PayloadMessage.fromStringBytes(block.getPayload());
-                } catch (ParseException e) {
-                    log.error("ParseException", e);
-                    throw new RuntimeException(e);
+            writeBlockMessagesAsJson(blockList, outputStream);
+        } catch (IOException e) {
+            log.error("IOException", e);
+            throw new RuntimeException(e);
+        }
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a readable text version of the messages in a sequence of blocks, block by block, so that the whole text
+     * is never held in memory. The output is the same as {@link #blockListMessagesToReadableText(List)}, in UTF-8.
+     *
+     * @param blocks A sequence of blocks. Only one block is needed at a time, so this may be produced lazily.
+     * @param outputStream Stream to write the text to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void writeBlockMessagesAsReadableText(Iterable<Block> blocks, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        for (Block block : blocks) {
+            for (PayloadMessage message : decodePayload(block)) {
+                writer.write(message.toString());
+                writer.write("\r\n");
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the JSON representation of the messages in a sequence of blocks, block by block, so that the whole
+     * document is never held in memory. The output is the same as {@link #blockListMessagesToJson(List)}.
+     *
+     * @param blocks A sequence of blocks. Only one block is needed at a time, so this may be produced lazily.
+     * @param outputStream Stream to write the JSON to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void writeBlockMessagesAsJson(Iterable<Block> blocks, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            for (Block block : blocks) {
+                for (PayloadMessage message : decodePayload(block)) {
+                    streamingWriter.writeValue(generator, message);
                 }
-            }).toList();
-            return objectMapper.writeValueAsString(jsonMessageList);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Converts a message to its JSON representation, as it appears in {@link #blockListMessagesToJson(List)}.
+     *
+     * @param message A message.
+     * @return The JSON representation of that message, in UTF-8.
+     */
+    public static byte[] payloadMessageToJsonBytes(PayloadMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
         } catch (JsonProcessingException e) {
             log.error("JsonProcessingException", e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Converts a finalized block to a {@link FinalizedBlock}, which can be served as JSON.
+     *
+     * @param block A finalized block.
+     * @param height The height of that block in the finalized chain.
+     * @return The block, with the messages in its payload.
+     */
+    public static FinalizedBlock toFinalizedBlock(Block block, int height) {
+        return new FinalizedBlock(height, block.getEpoch(), block.getHashBase64(), decodePayload(block));
+    }
+
+    /**
+     * Converts the state of a block to a {@link BlockDetails}, which can be served as JSON.
+     *
+     * @param blockState The state of a block in the block tree.
+     * @return Details of the block, with the messages in its payload (if it is well-formed).
+     */
+    public static BlockDetails toBlockDetails(BlockState blockState) {
+        Block block = blockState.block();
+        List<String> children = blockState.children().stream().map(Block::getHashBase64).toList();
+        return new BlockDetails(blockState.height(), block.getEpoch(), block.getHashBase64(), block.getParentHashBase64(),
+                blockState.notarized(), blockState.finalized(), blockState.voters(), children, decodePayloadOrNull(block));
+    }
+
+    /**
+     * Converts a block on the chain up to the notarized tip to a {@link TipBlock}, which can be served as JSON.
+     *
+     * @param block A finalized block, or a notarized block on the longest notarized chain.
+     * @param height The height of that block.
+     * @param status Whether that block is finalized or notarized.
+     * @return The block, with the messages in its payload (if it is well-formed).
+     */
+    public static TipBlock toTipBlock(Block block, int height, MessageStatus.State status) {
+        return new TipBlock(height, block.getEpoch(), block.getHashBase64(), status, decodePayloadOrNull(block));
+    }
+
+    /**
+     * Gets the messages in the payload of a block, which are decoded at most once per block.
+     *
+     * @param block A block.
+     * @return The messages in that block's payload, in order (none for a block with an empty payload).
+     */
+    private static List<PayloadMessage> decodePayload(Block block) {
+        try {
+            return block.getMessages();
+        } catch (ParseException e) {
+            log.error("ParseException", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the messages in the payload of a block, for blocks whose payloads may be malformed (payloads are only
+     * checked when a block is finalized).
+     *
+     * @param block A block.
+     * @return The messages in that block's payload, in order, or null if the payload is malformed.
+     */
+    private static List<PayloadMessage> decodePayloadOrNull(Block block) {
+        try {
+            return block.getMessages();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
     /**
      * Builds a {@link ProposeMessage} for a specific block, and returns it as a {@link JsonNode}.
      *
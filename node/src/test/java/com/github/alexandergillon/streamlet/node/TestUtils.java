@@ -17,10 +17,14 @@
 package com.github.alexandergillon.streamlet.node;
 
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.FinalizedChainIndex;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -57,7 +61,7 @@ public class TestUtils {
         ThreadLocalRandom.current().nextBytes(parentHash);
         int epoch = ThreadLocalRandom.current().nextInt(0, 1_000_000);
 
-        return new Block(parentHash, epoch, randomMessage().toStringBytes());
+        return new Block(parentHash, epoch, randomMessage().toBytes());
     }
 
     // Gets a random block, with a specific parent hash
@@ -103,4 +107,9 @@ public class TestUtils {
                 System.currentTimeMillis() - ThreadLocalRandom.current().nextInt(0, 6000000));
     }
 
+    // Gets a snapshot of a finalized chain, with an empty notarized tip
+    public static ChainSnapshot snapshotOf(FinalizedChainIndex index) {
+        return new ChainSnapshot(index.toList(), new NotarizedTip(index.size(), List.of()));
+    }
+
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.benchmarks;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares hashing and signature verification of a block by streaming it into the digest/signature (as
+ * {@link Block} and the cryptography service now do) against serializing it first with a
+ * {@link ByteArrayOutputStream} and fresh provider lookups (as they used to). Run with {@link #main(String[])}, after
+ * {@code ./mvnw test-compile}. The main method enables JMH's GC profiler, which reports allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockSerializationBenchmark {
+
+    @Param({"256", "4096"})
+    private int payloadBytes;
+
+    private Block block;
+    private KeyPair keyPair;
+    private byte[] signatureBytes;
+    private MessageDigest messageDigest;
+    private Signature signature;
+    private final byte[] hash = new byte[Block.SHA_256_HASH_LENGTH_BYTES];
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        messageDigest = MessageDigest.getInstance("SHA-256");
+        signature = Signature.getInstance("SHA384withECDSA");
+        byte[] payload = new byte[payloadBytes];
+        ThreadLocalRandom.current().nextBytes(payload);
+        block = new Block(Block.GENESIS_BLOCK.getHash(), 1, payload);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(384);
+        keyPair = keyPairGenerator.generateKeyPair();
+        signature.initSign(keyPair.getPrivate());
+        block.updateSignature(signature);
+        signatureBytes = signature.sign();
+    }
+
+    // Hash the block as Block's constructor now does: stream it into a reused digest
+    @Benchmark
+    public byte[] hashStreaming() throws GeneralSecurityException {
+        block.updateDigest(messageDigest);
+        messageDigest.digest(hash, 0, hash.length);
+        return hash;
+    }
+
+    // Hash the block as Block's constructor used to: serialize it, and look up a new digest
+    @Benchmark
+    public byte[] hashViaToBytes() throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(oldToBytes(block));
+    }
+
+    // Construct a block (including its hash), which should allocate nothing beyond the block itself
+    @Benchmark
+    public Block construct() {
+        return new Block(block.getParentHash(), block.getEpoch(), block.getPayload());
+    }
+
+    // Verify a signature as the cryptography service now does: stream the block into a reused signature
+    @Benchmark
+    public boolean verifyStreaming() throws GeneralSecurityException {
+        signature.initVerify(keyPair.getPublic());
+        block.updateSignature(signature);
+        return signature.verify(signatureBytes);
+    }
+
+    // Verify a signature as the cryptography service used to: serialize the block, and look up a new signature
+    @Benchmark
+    public boolean verifyViaToBytes() throws GeneralSecurityException {
+        Signature freshSignature = Signature.getInstance("SHA384withECDSA");
+        freshSignature.initVerify(keyPair.getPublic());
+        freshSignature.update(oldToBytes(block));
+        return freshSignature.verify(signatureBytes);
+    }
+
+    /** The previous implementation of {@link Block#toBytes()}, kept here as a baseline. */
+    private static byte[] oldToBytes(Block block) {
+        try {
+            byte[] payload = block.getPayload();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            outputStream.write(block.getParentHash());
+            outputStream.write(SerializationUtils.intToFourBytesBigEndian(block.getEpoch()));
+            outputStream.write(SerializationUtils.intToFourBytesBigEndian(payload.length));
+            outputStream.write(payload);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("ByteArrayOutputStream cannot throw IOException.", e);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BlockSerializationBenchmark.class.getSimpleName()).addProfiler("gc").build()).run();
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.benchmarks;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the peak heap usage of rendering the finalized chain for /chain/json and /chain/readable, between building
+ * the whole response as a string and streaming it block by block, as the chain gets longer. Not a JMH benchmark, as
+ * what matters is peak heap rather than the cost of an operation. Each mode should be run in a fresh JVM, after
+ * {@code ./mvnw test-compile}, e.g.:
+ * <pre>
+ *   java -Xmx4g -Xmn32m -cp &lt;test classpath&gt; com.github.alexandergillon.streamlet.node.benchmarks.ChainRenderingHeapComparison string
+ *   java -Xmx4g -Xmn32m -cp &lt;test classpath&gt; com.github.alexandergillon.streamlet.node.benchmarks.ChainRenderingHeapComparison stream
+ * </pre>
+ * An optional second argument is the longest chain to render (default 10^6 blocks): chains of 1/100, 1/10 and all of
+ * that length are rendered. Peaks include garbage that has not been collected yet, which is why the young generation
+ * is fixed: with streaming, the peak is then bounded by its size, and stays flat as the chain grows.
+ */
+public class ChainRenderingHeapComparison {
+
+    public static void main(String[] args) throws IOException, ParseException {
+        boolean stream = args.length > 0 && args[0].equals("stream");
+        int maxBlocks = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        List<Block> chain = new ArrayList<>(maxBlocks);
+        chain.add(Block.GENESIS_BLOCK);
+        while (chain.size() < maxBlocks) {
+            Block parent = chain.get(chain.size() - 1);
+            Block block = new Block(parent.getHash(), parent.getEpoch() + 1, TestUtils.randomMessage().toBytes());
+            block.getMessages();  // decoded when blocks enter the tree, so this is retained in both modes
+            chain.add(block);
+        }
+
+        System.out.printf("mode=%s%n", stream ? "stream" : "string");
+        for (int numBlocks : new int[] { Integer.max(maxBlocks / 100, 1), Integer.max(maxBlocks / 10, 1), maxBlocks }) {
+            List<Block> prefix = chain.subList(0, numBlocks);
+            for (String format : List.of("json", "readable")) {
+                long baseline = heapUsedAfterGc();
+                resetPeakUsage();
+                long bytesWritten = render(prefix, format, stream);
+                long peak = peakHeapUsed();
+                System.out.printf("blocks=%d format=%s written=%d MiB, peak heap above baseline=%d MiB%n",
+                        numBlocks, format, bytesWritten >> 20, (peak - baseline) >> 20);
+            }
+        }
+    }
+
+    /** Renders the messages of a chain to a stream that discards them, as a client reading the response would. */
+    private static long render(List<Block> chain, String format, boolean stream) throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        if (stream) {
+            if (format.equals("json")) SerializationUtils.writeBlockMessagesAsJson(chain, outputStream);
+            else SerializationUtils.writeBlockMessagesAsReadableText(chain, outputStream);
+        } else {
+            // As the controller used to: build the whole response, and then write it out
+            String response = format.equals("json") ? SerializationUtils.blockListMessagesToJson(chain) : SerializationUtils.blockListMessagesToReadableText(chain);
+            outputStream.write(response.getBytes());
+        }
+        return outputStream.count;
+    }
+
+    private static long heapUsedAfterGc() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (bean.getType() == MemoryType.HEAP) used += bean.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) bean.resetPeakUsage();
+    }
+
+    private static long peakHeapUsed() {
+        long peak = 0;
+        for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (bean.getType() == MemoryType.HEAP) peak += bean.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /** Output stream that counts, and then discards, what is written to it. */
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.benchmarks;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.PayloadArena;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares heap usage and full-GC pause times with a large number of retained blocks, with payloads on the heap and
+ * in a {@link PayloadArena}. Each block's messages are decoded as they are when a block enters the blockchain, and
+ * in {@code arena} mode released again as they are when it is finalized ({@code arena-cached} keeps them, to show
+ * what they cost). Not a JMH benchmark, as what matters is the steady state of the heap rather than the cost of an
+ * operation. Each mode should be run in a fresh JVM, after {@code ./mvnw test-compile}, e.g.:
+ * <pre>
+ *   java -Xmx4g -cp &lt;test classpath&gt; com.github.alexandergillon.streamlet.node.benchmarks.PayloadArenaHeapComparison heap
+ *   java -Xmx4g -XX:MaxDirectMemorySize=4g -cp &lt;test classpath&gt; com.github.alexandergillon.streamlet.node.benchmarks.PayloadArenaHeapComparison arena
+ * </pre>
+ * Optional second and third arguments are the number of blocks (default 10^6) and the length of the text of the
+ * single message in each block (default 256).
+ */
+public class PayloadArenaHeapComparison {
+
+    /** Number of full GCs to time once the blocks are retained. */
+    private static final int FULL_GCS = 5;
+
+    public static void main(String[] args) throws ParseException {
+        String mode = args.length > 0 ? args[0] : "heap";
+        boolean useArena = mode.startsWith("arena");
+        boolean releaseMessages = mode.equals("arena");
+        int numBlocks = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int textLength = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        PayloadArena payloadArena = useArena ? new PayloadArena() : null;
+        List<Block> retained = new ArrayList<>(numBlocks);
+        byte[] parentHash = Block.GENESIS_BLOCK.getHash();
+        char[] text = new char[textLength];
+        for (int i = 0; i < numBlocks; i++) {
+            for (int j = 0; j < textLength; j++) text[j] = (char) ('a' + ThreadLocalRandom.current().nextInt(26));
+            PayloadMessage message = new PayloadMessage("user" + (i % 100), new String(text), System.currentTimeMillis());
+            Block block = new Block(parentHash, i + 1, PayloadBatch.encode(List.of(message)));
+            block.getMessages();
+            if (useArena) block.moveToArena(payloadArena);
+            if (releaseMessages) block.releaseMessages();
+            retained.add(block);
+            parentHash = block.getHash();
+        }
+        int payloadBytes = retained.get(numBlocks - 1).getPayloadLength();
+
+        long gcCountBefore = totalGcCount();
+        long gcMillisBefore = totalGcMillis();
+        long maxPauseMillis = 0;
+        for (int i = 0; i < FULL_GCS; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            maxPauseMillis = Long.max(maxPauseMillis, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("mode=%s blocks=%d payloadBytes=%d%n", mode, numBlocks, payloadBytes);
+        System.out.printf("heap used after GC: %d MiB%n", (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        System.out.printf("direct memory used: %d MiB%n", directMemoryUsed() >> 20);
+        System.out.printf("full GCs: %d, total %d ms, longest %d ms (%.1f ms average)%n", totalGcCount() - gcCountBefore,
+                totalGcMillis() - gcMillisBefore, maxPauseMillis, (double) (totalGcMillis() - gcMillisBefore) / FULL_GCS);
+
+        // Keep the blocks reachable until the measurements are done
+        if (retained.size() != numBlocks) throw new IllegalStateException();
+    }
+
+    private static long totalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) count += bean.getCollectionCount();
+        return count;
+    }
+
+    private static long totalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) millis += bean.getCollectionTime();
+        return millis;
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean bean : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (bean.getName().equals("direct")) return bean.getMemoryUsed();
+        }
+        return 0;
+    }
+
+}
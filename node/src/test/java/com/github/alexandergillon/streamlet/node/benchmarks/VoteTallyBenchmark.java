@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.benchmarks;
+
+import com.github.alexandergillon.streamlet.node.blockchain.impl.VoteTally;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of tallying every participant's vote on a block with a {@link VoteTally} against the
+ * {@code HashSet<Integer>} that it replaced. Run with {@link #main(String[])}, after {@code ./mvnw test-compile}.
+ * Adding {@code -prof gc} (via the JMH command line) shows the allocation difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoteTallyBenchmark {
+
+    @Param({"4", "64", "1024"})
+    private int participants;
+
+    // Every participant votes once, and then the tally is counted
+    @Benchmark
+    public int voteTally() {
+        VoteTally voteTally = new VoteTally(participants);
+        for (int i = 0; i < participants; i++) {
+            voteTally.add(i);
+        }
+        return voteTally.size();
+    }
+
+    // Every participant votes once, and then the set is counted
+    @Benchmark
+    public int hashSet() {
+        Set<Integer> voters = new HashSet<>();
+        for (int i = 0; i < participants; i++) {
+            voters.add(i);
+        }
+        return voters.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VoteTallyBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.models.JsonBlock;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockInternerTest {
+
+    // Tests that equal JSON blocks are decoded to the same instance, which equals the original block
+    @RepeatedTest(20)
+    public void testIntern() {
+        BlockInterner blockInterner = new BlockInterner(BlockInterner.DEFAULT_CAPACITY);
+        Block block = TestUtils.getRandomBlock();
+
+        Block interned = blockInterner.intern(block.toJsonBlock());
+        assertEquals(block, interned);
+        assertArrayEquals(block.getPayload(), interned.getPayload());
+        assertSame(interned, blockInterner.intern(block.toJsonBlock()));
+        assertEquals(1, blockInterner.size());
+    }
+
+    // Tests that the least recently used blocks are evicted once the interner is full
+    @Test
+    public void testEviction() {
+        BlockInterner blockInterner = new BlockInterner(2);
+        JsonBlock block1 = TestUtils.getRandomBlock().toJsonBlock();
+        JsonBlock block2 = TestUtils.getRandomBlock().toJsonBlock();
+        JsonBlock block3 = TestUtils.getRandomBlock().toJsonBlock();
+
+        Block interned1 = blockInterner.intern(block1);
+        Block interned2 = blockInterner.intern(block2);
+        assertSame(interned1, blockInterner.intern(block1));  // block1 is now most recently used
+        blockInterner.intern(block3);                         // evicts block2
+
+        assertEquals(2, blockInterner.size());
+        assertSame(interned1, blockInterner.intern(block1));
+        Block reinterned2 = blockInterner.intern(block2);
+        assertNotSame(interned2, reinterned2);
+        assertEquals(interned2, reinterned2);
+    }
+
+    // Tests that capacity must be positive
+    @Test
+    public void testBadCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new BlockInterner(0));
+    }
+
+}
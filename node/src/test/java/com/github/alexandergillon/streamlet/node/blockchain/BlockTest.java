@@ -1,10 +1,20 @@
 package com.github.alexandergillon.streamlet.node.blockchain;
 
 import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.text.ParseException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -180,4 +190,101 @@ class BlockTest {
         assertArrayEquals(parentHashBefore, block.getParentHash());
         assertArrayEquals(payloadBefore, block.getPayload());
     }
-}
\ No newline at end of file
+
+    // Tests that moving a block's payload off-heap does not change the block
+    @RepeatedTest(50)
+    public void testMoveToArena() {
+        Block block = TestUtils.getRandomBlock();
+        byte[] payloadBefore = block.getPayload().clone();
+        byte[] serializationBefore = block.toBytes();
+        String stringBefore = block.toString();
+
+        PayloadArena payloadArena = new PayloadArena(1024);
+        assertFalse(block.isPayloadOffHeap());
+        block.moveToArena(payloadArena);
+        block.moveToArena(payloadArena);  // second move has no effect
+        assertTrue(block.isPayloadOffHeap());
+
+        assertArrayEquals(payloadBefore, block.getPayload());
+        assertEquals(payloadBefore.length, block.getPayloadLength());
+        assertArrayEquals(serializationBefore, block.toBytes());
+        assertEquals(stringBefore, block.toString());
+        assertEquals(payloadBefore.length, payloadArena.getBytesStored());
+    }
+
+    // Tests that feeding a block into a digest is the same as digesting its serialization, on and off the heap
+    @RepeatedTest(50)
+    public void testUpdateDigest() throws NoSuchAlgorithmException {
+        Block block = TestUtils.getRandomBlock();
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] expected = messageDigest.digest(block.toBytes());
+        assertArrayEquals(expected, block.getHash());
+
+        block.updateDigest(messageDigest);
+        assertArrayEquals(expected, messageDigest.digest());
+
+        block.moveToArena(new PayloadArena(1024));
+        block.updateDigest(messageDigest);
+        assertArrayEquals(expected, messageDigest.digest());
+        assertArrayEquals(expected, messageDigest.digest(block.toBytes()));
+    }
+
+    // Tests that signatures over a streamed block verify against its serialization, on and off the heap
+    @RepeatedTest(10)
+    public void testUpdateSignature() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(384);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        Signature signature = Signature.getInstance("SHA384withECDSA");
+        Block block = TestUtils.getRandomBlock();
+
+        signature.initSign(keyPair.getPrivate());
+        block.updateSignature(signature);
+        byte[] signatureBytes = signature.sign();
+
+        signature.initVerify(keyPair.getPublic());
+        signature.update(block.toBytes());
+        assertTrue(signature.verify(signatureBytes));
+
+        block.moveToArena(new PayloadArena(1024));
+        signature.initVerify(keyPair.getPublic());
+        block.updateSignature(signature);
+        assertTrue(signature.verify(signatureBytes));
+    }
+
+    // Tests that payloads are decoded once, and still decode after being moved off-heap
+    @Test
+    public void testGetMessages() throws ParseException {
+        List<PayloadMessage> messages = List.of(TestUtils.randomMessage(), TestUtils.randomMessage());
+        Block block = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages));
+        List<PayloadMessage> decoded = block.getMessages();
+        assertEquals(messages, decoded);
+        assertSame(decoded, block.getMessages());
+        assertThrows(UnsupportedOperationException.class, () -> decoded.add(TestUtils.randomMessage()));
+
+        Block offHeap = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages));
+        offHeap.moveToArena(new PayloadArena());
+        assertEquals(messages, offHeap.getMessages());
+
+        Block malformed = TestUtils.getRandomBlockWithPayload(new byte[] { PayloadBatch.BATCH_MARKER });
+        assertThrows(ParseException.class, malformed::getMessages);
+        assertEquals(List.of(), Block.GENESIS_BLOCK.getMessages());
+    }
+
+    // Tests that released messages are decoded again from an off-heap payload, but not kept
+    @Test
+    public void testReleaseMessages() throws ParseException {
+        List<PayloadMessage> messages = List.of(TestUtils.randomMessage(), TestUtils.randomMessage());
+        Block block = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages));
+        List<PayloadMessage> decoded = block.getMessages();
+        block.moveToArena(new PayloadArena());
+        assertSame(decoded, block.getMessages());
+
+        block.releaseMessages();
+        List<PayloadMessage> redecoded = block.getMessages();
+        assertEquals(messages, redecoded);
+        assertNotSame(decoded, redecoded);
+        assertNotSame(redecoded, block.getMessages());
+    }
+
+}
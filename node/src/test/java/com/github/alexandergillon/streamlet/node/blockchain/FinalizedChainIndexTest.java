@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FinalizedChainIndexTest {
+
+    // Tests that ranges and epoch lookups agree with the chain that was appended, on random chains
+    @RepeatedTest(20)
+    public void testRangesAndEpochs() {
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        List<Block> chain = new ArrayList<>();
+        chain.add(Block.GENESIS_BLOCK);
+
+        int length = ThreadLocalRandom.current().nextInt(1, 200);
+        for (int i = 0; i < length; i++) {
+            Block parent = chain.get(chain.size() - 1);
+            Block block = TestUtils.getRandomBlockWithParentAndEpoch(parent, parent.getEpoch() + ThreadLocalRandom.current().nextInt(1, 4));
+            assertEquals(chain.size(), index.append(block));
+            chain.add(block);
+        }
+        assertEquals(chain.size(), index.size());
+        assertEquals(chain, index.toList());
+
+        for (int i = 0; i < 50; i++) {
+            int from = ThreadLocalRandom.current().nextInt(0, chain.size() + 5);
+            int maxBlocks = ThreadLocalRandom.current().nextInt(0, 50);
+            List<Block> expected = from >= chain.size() ? List.of() : chain.subList(from, Integer.min(from + maxBlocks, chain.size()));
+            assertEquals(expected, index.range(from, maxBlocks));
+        }
+
+        int lastEpoch = chain.get(chain.size() - 1).getEpoch();
+        for (int epoch = 0; epoch <= lastEpoch + 1; epoch++) {
+            int expected = 0;
+            while (expected < chain.size() && chain.get(expected).getEpoch() < epoch) expected++;
+            assertEquals(expected, index.heightOfEpoch(epoch));
+        }
+    }
+
+    // Tests that ranges are rejected if they start at a negative height or have a negative size
+    @Test
+    public void testBadRanges() {
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        assertThrows(IllegalArgumentException.class, () -> index.range(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> index.range(0, -1));
+        assertEquals(List.of(Block.GENESIS_BLOCK), index.range(0, Integer.MAX_VALUE));
+    }
+
+    // Tests that views of the chain do not change as it grows past the capacity of the backing array
+    @Test
+    public void testViewsAreStable() {
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        List<List<Block>> views = new ArrayList<>();
+        List<Block> chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        for (int i = 0; i < 300; i++) {
+            views.add(index.toList());
+            Block block = TestUtils.getRandomBlockWithParentAndEpoch(chain.get(chain.size() - 1), i + 1);
+            index.append(block);
+            chain.add(block);
+        }
+
+        for (int size = 1; size <= views.size(); size++) {
+            assertEquals(chain.subList(0, size), views.get(size - 1));
+        }
+        assertThrows(UnsupportedOperationException.class, () -> views.get(0).add(Block.GENESIS_BLOCK));
+        assertThrows(IndexOutOfBoundsException.class, () -> views.get(0).get(1));
+    }
+
+    // Tests that readers on other threads always see whole, correct prefixes of the chain while it is appended to
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        List<Block> chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        for (int i = 0; i < 5000; i++) chain.add(TestUtils.getRandomBlockWithParentAndEpoch(chain.get(chain.size() - 1), i + 1));
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    List<Block> view = index.toList();
+                    for (int height = 0; height < view.size(); height++) {
+                        if (view.get(height) != chain.get(height)) failed.set(true);
+                    }
+                    if (index.last() == null) failed.set(true);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int height = 1; height < chain.size(); height++) index.append(chain.get(height));
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        assertFalse(failed.get());
+        assertEquals(chain, index.toList());
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadArenaTest {
+
+    // Tests that payloads of mixed sizes (including ones larger than a slab) are stored and loaded correctly
+    @RepeatedTest(20)
+    public void testStoreAndLoad() {
+        int slabBytes = ThreadLocalRandom.current().nextInt(16, 512);
+        PayloadArena payloadArena = new PayloadArena(slabBytes);
+
+        List<byte[]> payloads = new ArrayList<>();
+        List<Long> handles = new ArrayList<>();
+        long totalBytes = 0;
+        for (int i = 0; i < 500; i++) {
+            byte[] payload = new byte[ThreadLocalRandom.current().nextInt(0, 2 * slabBytes)];
+            ThreadLocalRandom.current().nextBytes(payload);
+            payloads.add(payload);
+            handles.add(payloadArena.store(payload));
+            totalBytes += payload.length;
+        }
+
+        for (int i = 0; i < payloads.size(); i++) {
+            assertArrayEquals(payloads.get(i), payloadArena.load(handles.get(i), payloads.get(i).length));
+        }
+        assertEquals(totalBytes, payloadArena.getBytesStored());
+        assertTrue(payloadArena.getBytesAllocated() >= totalBytes);
+    }
+
+    // Tests that the arena does not keep a reference to the stored array
+    @Test
+    public void testStoreCopies() {
+        PayloadArena payloadArena = new PayloadArena();
+        byte[] payload = new byte[] { 1, 2, 3, 4 };
+        long handle = payloadArena.store(payload);
+        payload[0] = 42;
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, payloadArena.load(handle, 4));
+    }
+
+    // Tests that slab size must be positive
+    @Test
+    public void testBadSlabSize() {
+        assertThrows(IllegalArgumentException.class, () -> new PayloadArena(0));
+    }
+
+}
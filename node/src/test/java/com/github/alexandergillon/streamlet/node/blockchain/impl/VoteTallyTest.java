@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoteTallyTest {
+
+    // Tests that adding voters is idempotent, and that the count is correct
+    @RepeatedTest(50)
+    public void testAdd() {
+        int capacity = ThreadLocalRandom.current().nextInt(1, 2048);
+        VoteTally voteTally = new VoteTally(capacity);
+
+        HashSet<Integer> votersAdded = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            int voter = ThreadLocalRandom.current().nextInt(0, capacity);
+            assertEquals(!votersAdded.contains(voter), voteTally.add(voter));
+            votersAdded.add(voter);
+            assertTrue(voteTally.contains(voter));
+        }
+
+        assertEquals(votersAdded.size(), voteTally.size());
+        assertArrayEquals(votersAdded.stream().mapToInt(Integer::intValue).sorted().toArray(), voteTally.voterIds());
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(votersAdded.contains(i), voteTally.contains(i));
+        }
+    }
+
+    // Tests that voters outside the range of the tally are rejected
+    @Test
+    public void testOutOfRange() {
+        VoteTally voteTally = new VoteTally(64);
+        assertThrows(IllegalArgumentException.class, () -> voteTally.add(-1));
+        assertThrows(IllegalArgumentException.class, () -> voteTally.add(64));
+        assertThrows(IllegalArgumentException.class, () -> voteTally.contains(64));
+        assertThrows(IllegalArgumentException.class, () -> new VoteTally(0));
+        assertEquals(0, voteTally.size());
+    }
+
+    // Tests that concurrent voting counts every voter exactly once
+    @RepeatedTest(10)
+    public void testConcurrentAdd() throws InterruptedException {
+        int capacity = 1024;
+        VoteTally voteTally = new VoteTally(capacity);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            // every thread votes for every voter, so each vote is contended
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < capacity; i++) voteTally.add(i);
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(capacity, voteTally.size());
+    }
+
+}
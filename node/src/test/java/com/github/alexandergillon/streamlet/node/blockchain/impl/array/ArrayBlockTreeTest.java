@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.blockchain.impl.array;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.exceptions.AlreadyExistsException;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.BlockTree;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.memory.InMemoryBlockTree;
+import org.junit.jupiter.api.RepeatedTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrayBlockTreeTest {
+
+    // Tests that children are added correctly, and in insertion order
+    @RepeatedTest(10)
+    public void testChildren() {
+        int NUM_CHILDREN = 20;
+
+        Block block = TestUtils.getRandomBlock();
+        BlockTree blockTree = new ArrayBlockTree(block);
+        ArrayList<Block> children = new ArrayList<>();
+
+        for (int i = 0; i < NUM_CHILDREN; i++) {
+            Block child = TestUtils.getRandomBlockWithParent(block.getHash());
+            BlockTree added = assertDoesNotThrow(() -> blockTree.addChild(child));
+            assertEquals(blockTree, added.getParent());
+            children.add(child);
+        }
+
+        List<? extends BlockTree> treeChildren = blockTree.getChildren();
+        assertEquals(NUM_CHILDREN, treeChildren.size());
+        for (int i = 0; i < NUM_CHILDREN; i++) {
+            assertEquals(children.get(i), treeChildren.get(i).getBlockInfo().getBlock());
+        }
+    }
+
+    // Tests that badly formed children throw an exception on insertion
+    @RepeatedTest(50)
+    public void testBadChildren() {
+        Block parent = TestUtils.getRandomBlock();
+        BlockTree blockTree = new ArrayBlockTree(parent);
+
+        Block child = TestUtils.getRandomBlock();
+        while (Arrays.equals(child.getParentHash(), parent.getHash())) {
+            child = TestUtils.getRandomBlock();
+        }
+
+        Block finalChild = child;  // lambda capture variable should be final
+        assertThrows(IllegalArgumentException.class, () -> blockTree.addChild(finalChild));
+    }
+
+    // Tests general insertion/querying of blocks into the tree, including repeated and bad insertions
+    @RepeatedTest(5)
+    public void testInsertion() {
+        Block rootBlock = TestUtils.getRandomBlock();
+        BlockTree root = new ArrayBlockTree(rootBlock);
+
+        ArrayList<Block> blocksAdded = new ArrayList<>();
+        blocksAdded.add(rootBlock);
+
+        int numToAdd = ThreadLocalRandom.current().nextInt(500, 1000);  // enough to grow the arrays several times
+        for (int i = 0; i < numToAdd; i++) {
+            Block parent = blocksAdded.get(ThreadLocalRandom.current().nextInt(0, blocksAdded.size()));
+            Block child = TestUtils.getRandomBlockWithParent(parent.getHash());
+            assertDoesNotThrow(() -> root.insert(child));
+            blocksAdded.add(child);
+        }
+
+        for (Block blockAdded : blocksAdded) {
+            BlockTree found = root.find(blockAdded);
+            assertNotNull(found);
+            assertEquals(blockAdded, found.getBlockInfo().getBlock());
+            if (found.getParent() == null) {
+                assertEquals(rootBlock, found.getBlockInfo().getBlock());
+            } else {
+                assertArrayEquals(blockAdded.getParentHash(), found.getParent().getBlockInfo().getHash());
+            }
+            assertThrows(AlreadyExistsException.class, () -> root.insert(blockAdded));
+        }
+
+        assertThrows(NoSuchElementException.class, () -> root.insert(TestUtils.getRandomBlock()));
+        assertNull(root.find(TestUtils.getRandomBlock()));
+    }
+
+    // Tests that searching from a node only finds blocks in the subtree rooted at that node
+    @RepeatedTest(10)
+    public void testSubtreeSearch() throws AlreadyExistsException {
+        Block rootBlock = TestUtils.getRandomBlock();
+        BlockTree root = new ArrayBlockTree(rootBlock);
+
+        BlockTree left = root.addChild(TestUtils.getRandomBlockWithParent(rootBlock.getHash()));
+        BlockTree right = root.addChild(TestUtils.getRandomBlockWithParent(rootBlock.getHash()));
+        BlockTree leftChild = left.addChild(TestUtils.getRandomBlockWithParent(left.getBlockInfo().getHash()));
+        BlockTree rightChild = right.addChild(TestUtils.getRandomBlockWithParent(right.getBlockInfo().getHash()));
+
+        assertEquals(leftChild, left.findByHash(leftChild.getBlockInfo().getHash()));
+        assertNull(left.findByHash(rightChild.getBlockInfo().getHash()));
+        assertNull(left.findByHash(rootBlock.getHash()));
+        assertEquals(rightChild, root.findByHash(rightChild.getBlockInfo().getHash()));
+    }
+
+    // Tests that chain queries agree with InMemoryBlockTree, on random trees with random blocks notarized
+    @RepeatedTest(20)
+    public void testChainQueriesMatchInMemoryBlockTree() {
+        Block rootBlock = TestUtils.getRandomBlock();
+        BlockTree arrayRoot = new ArrayBlockTree(rootBlock);
+        BlockTree memoryRoot = new InMemoryBlockTree(rootBlock, null);
+
+        ArrayList<Block> blocksAdded = new ArrayList<>();
+        blocksAdded.add(rootBlock);
+
+        int numToAdd = ThreadLocalRandom.current().nextInt(50, 200);
+        for (int i = 0; i < numToAdd; i++) {
+            Block parent = blocksAdded.get(ThreadLocalRandom.current().nextInt(0, blocksAdded.size()));
+            Block child = TestUtils.getRandomBlockWithParent(parent.getHash());
+            assertDoesNotThrow(() -> arrayRoot.insert(child));
+            assertDoesNotThrow(() -> memoryRoot.insert(child));
+            blocksAdded.add(child);
+        }
+
+        for (Block block : blocksAdded) {
+            if (ThreadLocalRandom.current().nextInt(0, 4) != 0) {
+                arrayRoot.find(block).getBlockInfo().notarize();
+                memoryRoot.find(block).getBlockInfo().notarize();
+            }
+        }
+
+        for (Block block : blocksAdded) {
+            BlockTree arrayNode = arrayRoot.find(block);
+            BlockTree memoryNode = memoryRoot.find(block);
+            assertEquals(memoryNode.getNotarizedChainLength(), arrayNode.getNotarizedChainLength());
+            assertEquals(memoryNode.getLongestNotarizedChainLength(), arrayNode.getLongestNotarizedChainLength());
+
+            BlockTree memoryTail = memoryNode.getLongestNotarizedChainTail();
+            BlockTree arrayTail = arrayNode.getLongestNotarizedChainTail();
+            if (memoryTail == null) {
+                assertNull(arrayTail);
+            } else {
+                assertEquals(memoryTail.getBlockInfo().getBlock(), arrayTail.getBlockInfo().getBlock());
+            }
+        }
+    }
+
+    // Tests that votes are tracked per block
+    @RepeatedTest(10)
+    public void testVoting() throws AlreadyExistsException {
+        Block rootBlock = TestUtils.getRandomBlock();
+        BlockTree root = new ArrayBlockTree(rootBlock, 16);
+        Block child = TestUtils.getRandomBlockWithParent(rootBlock.getHash());
+        root.addChild(child);
+
+        for (int i = 0; i < 16; i++) {
+            root.voteOnBlock(child, i);
+            root.voteOnBlock(child, i);
+            assertEquals(i + 1, root.getVotesOnBlock(child));
+        }
+        assertEquals(0, root.getVotes());
+        assertThrows(NoSuchElementException.class, () -> root.getVotesOnBlock(TestUtils.getRandomBlock()));
+    }
+
+}
@@ -2,19 +2,30 @@ package com.github.alexandergillon.streamlet.node.blockchain.impl.memory;
 
 import com.github.alexandergillon.streamlet.node.TestUtils;
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
 import com.github.alexandergillon.streamlet.node.blockchain.Blockchain;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.blockchain.PayloadArena;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.InvalidBlockException;
 import com.github.alexandergillon.streamlet.node.blockchain.exceptions.UnknownBlockException;
+import com.github.alexandergillon.streamlet.node.blockchain.impl.array.ArrayBlockTree;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 class InMemoryBlockchainTest {
 
@@ -533,6 +544,48 @@ class InMemoryBlockchainTest {
         doTest(test, blockchain);
     }
 
+    // Tests that the payload service hears about notarized blocks, and about finalized blocks in chain order with their heights
+    @Test
+    public void testPayloadServiceNotifications() throws ParseException {
+        PayloadService payloadService = mock(PayloadService.class);
+        Blockchain blockchain = new InMemoryBlockchain(0, 4, payloadService);
+        String test =
+            """
+            e1:
+            n1 propose b1
+
+            e2:
+            n1 propose b2
+
+            e3:
+            n1 propose b3
+
+            n2 vote b1
+            n3 vote b1
+            n4 vote b1
+
+            n2 vote b3
+            n3 vote b3
+            n4 vote b3
+
+            n2 vote b2
+            n3 vote b2
+            n4 vote b2
+
+            assert finalized b1
+            assert finalized b2
+            """;
+        doTest(test, blockchain);
+
+        verify(payloadService).notarizedBlock(blocks.get(1), 1);
+        verify(payloadService).notarizedBlock(blocks.get(2), 2);
+        verify(payloadService).notarizedBlock(blocks.get(3), 3);
+        InOrder inOrder = inOrder(payloadService);
+        inOrder.verify(payloadService).finalizedBlock(blocks.get(1), 1);
+        inOrder.verify(payloadService).finalizedBlock(blocks.get(2), 2);
+        verify(payloadService, never()).finalizedBlock(eq(blocks.get(3)), anyInt());
+    }
+
     // Tests that the blockchain is not reliant on a specific notarization order
     @Test
     public void testNotarizationOrder2() {
@@ -1123,6 +1176,235 @@ class InMemoryBlockchainTest {
         assertThrows(UnknownBlockException.class, () -> blockchain.processBlockVote(blocks.get(25), 1));
     }
 
+    // Tests that blocks retained in the tree have their payloads moved off-heap, without changing behavior
+    @Test
+    public void testPayloadArena() {
+        PayloadArena payloadArena = new PayloadArena(256);
+        List<byte[]> payloadsBefore = blocks.stream().map(block -> block.getPayload().clone()).toList();
+
+        Blockchain blockchain = new InMemoryBlockchain(0, ArrayBlockTree.GENESIS_BLOCK_TREE(4), 4, null, payloadArena);
+        doTest(first7BlocksIdealNetworkNotarizationThreshold4, blockchain);
+
+        for (int i = 1; i <= 7; i++) {
+            assertTrue(blocks.get(i).isPayloadOffHeap());
+            assertArrayEquals(payloadsBefore.get(i), blocks.get(i).getPayload());
+        }
+        assertFalse(blocks.get(8).isPayloadOffHeap());
+        assertEquals(List.of(blocks.get(0), blocks.get(1), blocks.get(2), blocks.get(3), blocks.get(4),
+                blocks.get(5), blocks.get(6)), blockchain.getFinalizedChain());
+    }
+
+    // Tests that ranges of the finalized chain, by height and by epoch, agree with the whole finalized chain
+    @Test
+    public void testFinalizedChainRanges() {
+        Blockchain blockchain = new InMemoryBlockchain(0, 4, null);
+        doTest(first7BlocksIdealNetworkNotarizationThreshold4, blockchain);
+
+        ChainSnapshot snapshot = blockchain.getSnapshot();
+        List<Block> finalizedChain = blockchain.getFinalizedChain();
+        assertEquals(7, finalizedChain.size());
+        assertEquals(6, snapshot.finalizedHeight());
+        assertEquals(finalizedChain.subList(2, 5), snapshot.finalizedRange(2, 3));
+        assertEquals(finalizedChain.subList(5, 7), snapshot.finalizedRange(5, 100));
+        assertEquals(List.of(), snapshot.finalizedRange(7, 100));
+        assertEquals(List.of(), snapshot.finalizedRange(3, 0));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.finalizedRange(-1, 1));
+
+        for (int height = 0; height < finalizedChain.size(); height++) {
+            assertEquals(height, snapshot.finalizedHeightOfEpoch(finalizedChain.get(height).getEpoch()));
+        }
+        assertEquals(7, snapshot.finalizedHeightOfEpoch(7));
+        assertEquals(7, snapshot.finalizedHeightOfEpoch(100));
+    }
+
+    // Tests that the notarized tip follows notarization and finalization, in both trees
+    @Test
+    public void testNotarizedTip() {
+        List<Blockchain> blockchains = List.of(new InMemoryBlockchain(0, 4, null),
+                new InMemoryBlockchain(0, ArrayBlockTree.GENESIS_BLOCK_TREE(4), 4, null));
+        for (Blockchain blockchain : blockchains) {
+            assertEquals(new NotarizedTip(1, List.of()), blockchain.getSnapshot().notarizedTip());
+            assertEquals(0, blockchain.getSnapshot().notarizedTip().tipHeight());
+
+            doTest("e1:\nn1 propose b1\nn2 vote b1\nn3 vote b1", blockchain);
+            assertEquals(new NotarizedTip(1, List.of(blocks.get(1))), blockchain.getSnapshot().notarizedTip());
+
+            // Proposed, but not yet notarized
+            doTest("e2:\nn1 propose b2\nn2 vote b2", blockchain);
+            assertEquals(new NotarizedTip(1, List.of(blocks.get(1))), blockchain.getSnapshot().notarizedTip());
+            // The genesis block, b1 and b2 have consecutive epochs, so this finalizes b1
+            doTest("n3 vote b2", blockchain);
+            assertEquals(new NotarizedTip(2, List.of(blocks.get(2))), blockchain.getSnapshot().notarizedTip());
+
+            // Finalizes b2
+            doTest("e3:\nn1 propose b3\nn2 vote b3\nn3 vote b3", blockchain);
+            ChainSnapshot snapshot = blockchain.getSnapshot();
+            NotarizedTip tip = snapshot.notarizedTip();
+            assertEquals(new NotarizedTip(3, List.of(blocks.get(3))), tip);
+            assertEquals(3, tip.tipHeight());
+            assertEquals(tip.fromHeight(), snapshot.finalizedChain().size());
+        }
+    }
+
+    // Tests that snapshots never change once taken, and that finalized blocks are published before the payload
+    // service is told about them
+    @Test
+    public void testSnapshots() throws ParseException {
+        PayloadService payloadService = mock(PayloadService.class);
+        Blockchain blockchain = new InMemoryBlockchain(0, 4, payloadService);
+        List<Block> publishedWhenNotified = new ArrayList<>();
+        doAnswer(invocation -> {
+            ChainSnapshot snapshot = blockchain.getSnapshot();
+            int height = invocation.getArgument(1);
+            assertEquals(height, snapshot.finalizedHeight());
+            assertEquals(height, snapshot.notarizedTip().fromHeight() - 1);
+            publishedWhenNotified.add(snapshot.finalizedChain().get(height));
+            return null;
+        }).when(payloadService).finalizedBlock(any(), anyInt());
+
+        ChainSnapshot initial = blockchain.getSnapshot();
+        doTest(first7BlocksIdealNetworkNotarizationThreshold4, blockchain);
+        ChainSnapshot later = blockchain.getSnapshot();
+
+        assertEquals(List.of(Block.GENESIS_BLOCK), initial.finalizedChain());
+        assertEquals(new NotarizedTip(1, List.of()), initial.notarizedTip());
+        assertEquals(blockchain.getFinalizedChain().subList(1, 7), publishedWhenNotified);
+        assertThrows(UnsupportedOperationException.class, () -> later.finalizedChain().add(Block.GENESIS_BLOCK));
+        assertThrows(IndexOutOfBoundsException.class, () -> later.finalizedChain().get(later.finalizedChain().size()));
+    }
+
+    // Tests that blocks can be looked up by hash and by epoch, with their status, voters and children, in both trees
+    @Test
+    public void testBlockStates() {
+        List<Blockchain> blockchains = List.of(new InMemoryBlockchain(0, 4, null),
+                new InMemoryBlockchain(0, ArrayBlockTree.GENESIS_BLOCK_TREE(4), 4, null));
+        for (Blockchain blockchain : blockchains) {
+            String test = first7BlocksIdealNetworkNotarizationThreshold4 +
+                    """
+                    e8:
+                    n1 propose b8
+                    n2 vote b8
+                    n3 propose b9
+                    """;
+            doTest(test, blockchain);
+
+            BlockState genesis = blockchain.getBlockState(Block.GENESIS_BLOCK.getHash());
+            assertEquals(0, genesis.height());
+            assertTrue(genesis.finalized());
+            assertEquals(List.of(blocks.get(1)), genesis.children());
+
+            BlockState block6 = blockchain.getBlockState(blocks.get(6).getHash());
+            assertEquals(blocks.get(6), block6.block());
+            assertEquals(6, block6.height());
+            assertTrue(block6.notarized());
+            assertTrue(block6.finalized());
+            assertEquals(List.of(0, 1, 2, 3), block6.voters());
+
+            BlockState block7 = blockchain.getBlockState(blocks.get(7).getHash());
+            assertTrue(block7.notarized());
+            assertFalse(block7.finalized());
+            assertEquals(List.of(blocks.get(8), blocks.get(9)), block7.children());
+
+            List<BlockState> epoch8 = blockchain.getBlockStatesOfEpoch(8);
+            assertEquals(List.of(blocks.get(8), blocks.get(9)), epoch8.stream().map(BlockState::block).toList());
+            assertTrue(epoch8.get(0).voters().containsAll(List.of(1, 2)));
+            assertTrue(epoch8.get(1).voters().contains(3));
+            assertFalse(epoch8.get(1).voters().contains(2));
+            for (BlockState blockState : epoch8) {
+                assertEquals(8, blockState.height());
+                assertFalse(blockState.notarized());
+                assertEquals(List.of(), blockState.children());
+            }
+
+            assertNull(blockchain.getBlockState(blocks.get(25).getHash()));
+            assertEquals(List.of(), blockchain.getBlockStatesOfEpoch(9));
+        }
+    }
+
+    // Tests that block states can be read from other threads while the array tree grows its storage
+    @Test
+    public void testBlockStatesWhileTreeGrows() throws InterruptedException {
+        List<Block> chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        for (int i = 0; i < 5000; i++) chain.add(TestUtils.getRandomBlockWithParentAndEpoch(chain.get(chain.size() - 1), i + 1));
+        Blockchain blockchain = new InMemoryBlockchain(0, ArrayBlockTree.GENESIS_BLOCK_TREE(4), 4, null);
+
+        AtomicInteger inserted = new AtomicInteger(1);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    int height = ThreadLocalRandom.current().nextInt(inserted.get());
+                    try {
+                        BlockState state = blockchain.getBlockState(chain.get(height).getHash());
+                        if (state == null || state.block() != chain.get(height) || state.height() != height) failed.set(true);
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int height = 1; height < chain.size(); height++) {
+            Block block = chain.get(height);
+            assertDoesNotThrow(() -> blockchain.processBlockVote(block, 1));
+            inserted.set(height + 1);
+        }
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        assertFalse(failed.get());
+    }
+
+    // Tests that proposals and votes processed on two threads at once, as the Kafka listeners do, build the same
+    // finalized chain as processing them on one thread would
+    @Test
+    public void testConcurrentProposalsAndVotes() throws InterruptedException {
+        List<Block> chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        for (int i = 0; i < 2000; i++) chain.add(TestUtils.getRandomBlockWithParentAndEpoch(chain.get(chain.size() - 1), i + 1));
+        List<Block> newBlocks = chain.subList(1, chain.size());
+
+        List<Blockchain> blockchains = List.of(new InMemoryBlockchain(0, 4, 3, null),
+                new InMemoryBlockchain(0, ArrayBlockTree.GENESIS_BLOCK_TREE(4), 3, null));
+        for (Blockchain blockchain : blockchains) {
+            for (Block block : newBlocks) assertDoesNotThrow(() -> blockchain.processBlockVote(block, 2));
+
+            // Node 1's proposals arrive from the oldest block, and node 3's votes from the youngest. Each block is
+            // notarized by whichever arrives second, so once they cross, both threads notarize and finalize blocks.
+            AtomicBoolean failed = new AtomicBoolean(false);
+            Thread proposals = new Thread(() -> {
+                try {
+                    for (Block block : newBlocks) blockchain.processProposedBlock(block, 1, Integer.MAX_VALUE, false);
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+            });
+            Thread votes = new Thread(() -> {
+                try {
+                    for (int i = newBlocks.size() - 1; i >= 0; i--) blockchain.processBlockVote(newBlocks.get(i), 3);
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+            });
+            proposals.start();
+            votes.start();
+            proposals.join();
+            votes.join();
+
+            assertFalse(failed.get());
+            // Every block is notarized, and each has the next epoch, so all but the last are finalized
+            ChainSnapshot snapshot = blockchain.getSnapshot();
+            assertEquals(chain.size() - 1, snapshot.finalizedChain().size());
+            assertEquals(chain.subList(0, chain.size() - 1), snapshot.finalizedChain());
+            assertEquals(new NotarizedTip(chain.size() - 1, List.of(chain.get(chain.size() - 1))), snapshot.notarizedTip());
+            for (int height = 0; height < chain.size(); height++) {
+                assertEquals(height, blockchain.getBlockState(chain.get(height).getHash()).height());
+            }
+        }
+    }
+
     private void doTest(String test, Blockchain blockchain) {
         List<String> commands = test.lines().toList();
         int epoch = -1;
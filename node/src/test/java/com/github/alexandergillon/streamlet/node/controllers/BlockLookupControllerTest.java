@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.BlockState;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Base64;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class BlockLookupControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private BlockchainService blockchainService;
+
+    // Tests that blocks are found by hash, in either base-64 alphabet
+    @Test
+    public void testGetBlockByHash() throws Exception {
+        Block block = TestUtils.getRandomReadableBlock();
+        Block child = TestUtils.getRandomBlockWithParent(block.getHash());
+        when(blockchainService.getBlockState(aryEq(block.getHash())))
+                .thenReturn(new BlockState(block, 5, true, false, List.of(0, 2, 3), List.of(child)));
+
+        for (String hash : List.of(block.getHashBase64(), Base64.getUrlEncoder().encodeToString(block.getHash()))) {
+            mockMvc.perform(get("/blocks/by-hash").param("hash", hash))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.height").value(5))
+                    .andExpect(jsonPath("$.epoch").value(block.getEpoch()))
+                    .andExpect(jsonPath("$.hash").value(block.getHashBase64()))
+                    .andExpect(jsonPath("$.parentHash").value(block.getParentHashBase64()))
+                    .andExpect(jsonPath("$.notarized").value(true))
+                    .andExpect(jsonPath("$.finalized").value(false))
+                    .andExpect(jsonPath("$.voters").value(contains(0, 2, 3)))
+                    .andExpect(jsonPath("$.children[0]").value(child.getHashBase64()))
+                    .andExpect(jsonPath("$.messages[0].text").value(block.getMessages().get(0).getText()));
+        }
+
+        mockMvc.perform(get("/blocks/by-hash").param("hash", child.getHashBase64())).andExpect(status().isNotFound());
+        mockMvc.perform(get("/blocks/by-hash").param("hash", "not base 64!")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/blocks/by-hash").param("hash", "AAAA")).andExpect(status().isBadRequest());
+    }
+
+    // Tests that blocks are found by epoch, and that blocks with malformed payloads are still shown
+    @Test
+    public void testGetBlocksByEpoch() throws Exception {
+        Block block = TestUtils.getRandomReadableBlock();
+        Block malformed = new Block(block.getParentHash(), block.getEpoch(), new byte[]{0x00, 0x01});
+        when(blockchainService.getBlockStatesOfEpoch(7)).thenReturn(List.of(
+                new BlockState(block, 3, false, false, List.of(1), List.of()),
+                new BlockState(malformed, 3, false, false, List.of(2), List.of())));
+
+        mockMvc.perform(get("/blocks/by-epoch/7"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].hash").value(block.getHashBase64()))
+                .andExpect(jsonPath("$[1].hash").value(malformed.getHashBase64()))
+                .andExpect(jsonPath("$[1].messages").doesNotExist());
+        mockMvc.perform(get("/blocks/by-epoch/8")).andExpect(status().isOk()).andExpect(jsonPath("$").isEmpty());
+        mockMvc.perform(get("/blocks/by-epoch/-1")).andExpect(status().isBadRequest());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.FinalizedChainIndex;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class BlockchainControllerRenderCacheTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private BlockchainService blockchainService;
+
+    // Tests that full-chain responses carry ETags, and that clients with the current chain get 304 Not Modified
+    @Test
+    public void testConditionalRequests() throws Exception {
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        List<Block> chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        when(blockchainService.getSnapshot()).thenAnswer(invocation -> TestUtils.snapshotOf(index));
+        for (int i = 0; i < 5; i++) appendBlock(chain, index);
+
+        for (String format : List.of("json", "readable")) {
+            String url = "/chain/" + format;
+            String expected = format.equals("json") ? SerializationUtils.blockListMessagesToJson(chain) : SerializationUtils.blockListMessagesToReadableText(chain);
+
+            MvcResult result = performGet(url, null);
+            assertEquals(200, result.getResponse().getStatus());
+            assertEquals(expected, result.getResponse().getContentAsString());
+            String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+            assertNotNull(eTag);
+
+            result = performGet(url, eTag);
+            assertEquals(304, result.getResponse().getStatus());
+            assertEquals("", result.getResponse().getContentAsString());
+
+            appendBlock(chain, index);
+            expected = format.equals("json") ? SerializationUtils.blockListMessagesToJson(chain) : SerializationUtils.blockListMessagesToReadableText(chain);
+            result = performGet(url, eTag);
+            assertEquals(200, result.getResponse().getStatus());
+            assertEquals(expected, result.getResponse().getContentAsString());
+            assertNotEquals(eTag, result.getResponse().getHeader(HttpHeaders.ETAG));
+        }
+    }
+
+    // Performs a GET request, with an If-None-Match header if an ETag is given, and finishes it if it is asynchronous
+    private MvcResult performGet(String url, String eTag) throws Exception {
+        MockHttpServletRequestBuilder request = get(url);
+        if (eTag != null) request.header(HttpHeaders.IF_NONE_MATCH, eTag);
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        return result;
+    }
+
+    private static void appendBlock(List<Block> chain, FinalizedChainIndex index) {
+        Block parent = chain.get(chain.size() - 1);
+        Block block = new Block(parent.getHash(), parent.getEpoch() + 1, TestUtils.randomMessage().toBytes());
+        chain.add(block);
+        index.append(block);
+    }
+
+}
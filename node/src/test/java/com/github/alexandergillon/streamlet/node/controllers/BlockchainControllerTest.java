@@ -20,8 +20,12 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.alexandergillon.streamlet.node.TestUtils;
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.FinalizedChainIndex;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -31,6 +35,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -38,7 +43,8 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+// Full-chain endpoints are tested here without the render cache, which is tested in BlockchainControllerRenderCacheTest
+@SpringBootTest(properties = "streamlet.chain.render-cache.enabled=false")
 @AutoConfigureMockMvc
 class BlockchainControllerTest {
 
@@ -58,19 +64,19 @@ class BlockchainControllerTest {
         Block block3 = TestUtils.getRandomReadableBlock();
         Block block4 = TestUtils.getRandomReadableBlock();
 
-        when(blockchainService.getFinalizedChain()).thenReturn(List.of(block0, block1, block2, block3, block4));
-        MvcResult mvcResult = mockMvc.perform(get("/chain/readable"))
+        mockChain(List.of(block0, block1, block2, block3, block4));
+        MvcResult mvcResult = mockMvc.perform(asyncDispatch(mockMvc.perform(get("/chain/readable")).andExpect(request().asyncStarted()).andReturn()))
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
                 .andReturn();
 
         String text = mvcResult.getResponse().getContentAsString();
         List<String> lines = text.lines().toList();
-        assertEquals(PayloadMessage.fromStringBytes(block0.getPayload()).toString(), lines.get(0));
-        assertEquals(PayloadMessage.fromStringBytes(block1.getPayload()).toString(), lines.get(1));
-        assertEquals(PayloadMessage.fromStringBytes(block2.getPayload()).toString(), lines.get(2));
-        assertEquals(PayloadMessage.fromStringBytes(block3.getPayload()).toString(), lines.get(3));
-        assertEquals(PayloadMessage.fromStringBytes(block4.getPayload()).toString(), lines.get(4));
+        assertEquals(PayloadMessage.fromBytes(block0.getPayload()).toString(), lines.get(0));
+        assertEquals(PayloadMessage.fromBytes(block1.getPayload()).toString(), lines.get(1));
+        assertEquals(PayloadMessage.fromBytes(block2.getPayload()).toString(), lines.get(2));
+        assertEquals(PayloadMessage.fromBytes(block3.getPayload()).toString(), lines.get(3));
+        assertEquals(PayloadMessage.fromBytes(block4.getPayload()).toString(), lines.get(4));
     }
 
     // Tests that getting the chain works correctly
@@ -82,8 +88,8 @@ class BlockchainControllerTest {
         Block block3 = TestUtils.getRandomReadableBlock();
         Block block4 = TestUtils.getRandomReadableBlock();
 
-        when(blockchainService.getFinalizedChain()).thenReturn(List.of(block0, block1, block2, block3, block4));
-        MvcResult mvcResult = mockMvc.perform(get("/chain/json"))
+        mockChain(List.of(block0, block1, block2, block3, block4));
+        MvcResult mvcResult = mockMvc.perform(asyncDispatch(mockMvc.perform(get("/chain/json")).andExpect(request().asyncStarted()).andReturn()))
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andReturn();
@@ -98,11 +104,186 @@ class BlockchainControllerTest {
         PayloadMessage jsonMessage3 = objectMapper.treeToValue(jsonNode.get(3), PayloadMessage.class);
         PayloadMessage jsonMessage4 = objectMapper.treeToValue(jsonNode.get(4), PayloadMessage.class);
 
-        assertEquals(jsonMessage0, PayloadMessage.fromStringBytes(block0.getPayload()));
-        assertEquals(jsonMessage1, PayloadMessage.fromStringBytes(block1.getPayload()));
-        assertEquals(jsonMessage2, PayloadMessage.fromStringBytes(block2.getPayload()));
-        assertEquals(jsonMessage3, PayloadMessage.fromStringBytes(block3.getPayload()));
-        assertEquals(jsonMessage4, PayloadMessage.fromStringBytes(block4.getPayload()));
+        assertEquals(jsonMessage0, PayloadMessage.fromBytes(block0.getPayload()));
+        assertEquals(jsonMessage1, PayloadMessage.fromBytes(block1.getPayload()));
+        assertEquals(jsonMessage2, PayloadMessage.fromBytes(block2.getPayload()));
+        assertEquals(jsonMessage3, PayloadMessage.fromBytes(block3.getPayload()));
+        assertEquals(jsonMessage4, PayloadMessage.fromBytes(block4.getPayload()));
     }
 
-}
\ No newline at end of file
+    // Tests that long streamed chains are rendered the same as the whole chain at once
+    @Test
+    public void testGetChainStreamed() throws Exception {
+        List<Block> chain = mockChain(2500);
+
+        MvcResult mvcResult = mockMvc.perform(asyncDispatch(mockMvc.perform(get("/chain/json")).andExpect(request().asyncStarted()).andReturn()))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(objectMapper.readTree(SerializationUtils.blockListMessagesToJson(chain)), objectMapper.readTree(mvcResult.getResponse().getContentAsString()));
+
+        mvcResult = mockMvc.perform(asyncDispatch(mockMvc.perform(get("/chain/readable")).andExpect(request().asyncStarted()).andReturn()))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(SerializationUtils.blockListMessagesToReadableText(chain), mvcResult.getResponse().getContentAsString());
+        verify(blockchainService, never()).getFinalizedChain();
+    }
+
+    // Tests that pages by height cover the requested range, with a cursor until the range is exhausted
+    @Test
+    public void testGetBlocksByHeight() throws Exception {
+        List<Block> chain = mockChain(25);
+
+        JsonNode page = getJson("/chain/blocks?from=3&limit=10");
+        assertPage(chain, page, 3, 10);
+        assertEquals(13, page.get("nextCursor").asInt());
+
+        page = getJson("/chain/blocks?from=13&limit=10");
+        assertPage(chain, page, 13, 10);
+        assertEquals(23, page.get("nextCursor").asInt());
+
+        page = getJson("/chain/blocks?from=23&limit=10");
+        assertPage(chain, page, 23, 2);
+        assertFalse(page.has("nextCursor"));
+
+        page = getJson("/chain/blocks?from=5&to=14&limit=5");
+        assertPage(chain, page, 5, 5);
+        assertEquals(10, page.get("nextCursor").asInt());
+        page = getJson("/chain/blocks?from=10&to=14&limit=5");
+        assertPage(chain, page, 10, 5);
+        assertFalse(page.has("nextCursor"));
+
+        page = getJson("/chain/blocks?from=100");
+        assertPage(chain, page, 100, 0);
+        assertFalse(page.has("nextCursor"));
+    }
+
+    // Tests that pages by epoch only contain blocks in the requested epochs, with a cursor to the next epoch
+    @Test
+    public void testGetBlocksByEpoch() throws Exception {
+        List<Block> chain = mockChain(25);  // block at height h has epoch 2h
+
+        JsonNode page = getJson("/chain/blocks/by-epoch?from=5&to=20&limit=4");
+        assertPage(chain, page, 3, 4);
+        assertEquals(14, page.get("nextCursor").asInt());
+
+        page = getJson("/chain/blocks/by-epoch?from=14&to=20&limit=4");
+        assertPage(chain, page, 7, 4);
+        assertFalse(page.has("nextCursor"));
+
+        page = getJson("/chain/blocks/by-epoch?from=40");
+        assertPage(chain, page, 20, 5);
+        assertFalse(page.has("nextCursor"));
+    }
+
+    // Tests that following the chain with a cursor returns each block once, and keeps the cursor once caught up
+    @Test
+    public void testGetBlocksSince() throws Exception {
+        List<Block> chain = mockChain(25);
+
+        JsonNode page = getJson("/chain/blocks/since?limit=20");
+        assertPage(chain, page, 0, 20);
+        assertEquals(20, page.get("nextCursor").asInt());
+
+        page = getJson("/chain/blocks/since?cursor=20&limit=20");
+        assertPage(chain, page, 20, 5);
+        assertEquals(25, page.get("nextCursor").asInt());
+
+        page = getJson("/chain/blocks/since?cursor=25&limit=20");
+        assertPage(chain, page, 25, 0);
+        assertEquals(25, page.get("nextCursor").asInt());
+    }
+
+    // Tests that the chain up to the notarized tip is paged, with each block tagged with its status
+    @Test
+    public void testNotarizedTip() throws Exception {
+        List<Block> chain = mockChain(10);
+        when(blockchainService.getSnapshot()).thenReturn(new ChainSnapshot(chain.subList(0, 7), new NotarizedTip(7, chain.subList(7, 10))));
+
+        JsonNode page = getJson("/chain/tip");
+        assertPage(chain, page, 7, 3);
+        assertEquals(6, page.get("finalizedHeight").asInt());
+        assertEquals(9, page.get("tipHeight").asInt());
+        assertFalse(page.has("nextCursor"));
+        for (JsonNode block : page.get("blocks")) assertEquals("NOTARIZED", block.get("status").asText());
+
+        page = getJson("/chain/tip?from=5&limit=3");
+        assertPage(chain, page, 5, 3);
+        assertEquals("FINALIZED", page.get("blocks").get(1).get("status").asText());
+        assertEquals("NOTARIZED", page.get("blocks").get(2).get("status").asText());
+        assertEquals(8, page.get("nextCursor").asInt());
+
+        assertEquals(0, getJson("/chain/tip?from=10").get("blocks").size());
+        mockMvc.perform(get("/chain/tip?from=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/tip?limit=0")).andExpect(status().isBadRequest());
+
+        // Unchanged until the tip changes
+        String eTag = mockMvc.perform(get("/chain/tip")).andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/chain/tip").header("If-None-Match", eTag)).andExpect(status().isNotModified());
+        when(blockchainService.getSnapshot()).thenReturn(new ChainSnapshot(chain.subList(0, 8), new NotarizedTip(8, chain.subList(8, 10))));
+        mockMvc.perform(get("/chain/tip").header("If-None-Match", eTag)).andExpect(status().isOk());
+    }
+
+    // Tests that page sizes are capped, and that invalid ranges are rejected
+    @Test
+    public void testBadRanges() throws Exception {
+        List<Block> chain = mockChain(1500);
+
+        JsonNode page = getJson("/chain/blocks?limit=5000");
+        assertPage(chain, page, 0, 1000);
+        page = getJson("/chain/blocks");
+        assertPage(chain, page, 0, 100);
+
+        mockMvc.perform(get("/chain/blocks?from=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks?from=5&to=4")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks?limit=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks/by-epoch?from=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks/by-epoch?from=5&to=4")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks/since?cursor=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/blocks/since?limit=-5")).andExpect(status().isBadRequest());
+    }
+
+    // Mocks the blockchain service with a specific finalized chain
+    private void mockChain(List<Block> chain) {
+        when(blockchainService.getSnapshot()).thenReturn(new ChainSnapshot(chain, new NotarizedTip(chain.size(), List.of())));
+    }
+
+    // Mocks the blockchain service with a finalized chain of readable blocks, where the block at height h has epoch 2h
+    private List<Block> mockChain(int length) {
+        FinalizedChainIndex index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        List<Block> chain = new ArrayList<>();
+        chain.add(Block.GENESIS_BLOCK);
+        for (int height = 1; height < length; height++) {
+            Block block = new Block(chain.get(height - 1).getHash(), 2 * height, TestUtils.randomMessage().toBytes());
+            index.append(block);
+            chain.add(block);
+        }
+        when(blockchainService.getSnapshot()).thenReturn(TestUtils.snapshotOf(index));
+        return chain;
+    }
+
+    private JsonNode getJson(String url) throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andReturn();
+        return objectMapper.readTree(mvcResult.getResponse().getContentAsString());
+    }
+
+    // Asserts that a page contains exactly the blocks of the chain with heights [fromHeight, fromHeight + count)
+    private void assertPage(List<Block> chain, JsonNode page, int fromHeight, int count) throws Exception {
+        JsonNode blocks = page.get("blocks");
+        assertEquals(count, blocks.size());
+        for (int i = 0; i < count; i++) {
+            Block block = chain.get(fromHeight + i);
+            JsonNode jsonBlock = blocks.get(i);
+            assertEquals(fromHeight + i, jsonBlock.get("height").asInt());
+            assertEquals(block.getEpoch(), jsonBlock.get("epoch").asInt());
+            assertEquals(block.getHashBase64(), jsonBlock.get("hash").asText());
+            assertEquals(block.getMessages().size(), jsonBlock.get("messages").size());
+            for (int j = 0; j < block.getMessages().size(); j++) {
+                assertEquals(block.getMessages().get(j), objectMapper.treeToValue(jsonBlock.get("messages").get(j), PayloadMessage.class));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.ChainEventService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ChainEventControllerTest {
+
+    private static final Pattern EVENT_ID = Pattern.compile("^id:(\\d+)$", Pattern.MULTILINE);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PayloadService payloadService;
+
+    @Autowired
+    private ChainEventService chainEventService;
+
+    @MockBean
+    private BlockchainService blockchainService;
+
+    /** The finalized chain, as served by the mocked blockchain service. */
+    private final List<Block> chain = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setupChain() {
+        chain.clear();
+        chain.add(Block.GENESIS_BLOCK);
+        for (int height = 1; height <= 4; height++) appendBlock();
+        when(blockchainService.getSnapshot()).thenAnswer(invocation -> snapshot());
+    }
+
+    // Tests that subscribers get finalized blocks from the requested height, and then new blocks as they are finalized
+    @Test
+    public void testReplayThenLive() throws Exception {
+        MvcResult result = mockMvc.perform(get("/chain/events?fromHeight=2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitEventIds(result, List.of(2, 3, 4));
+
+        finalizeBlock();
+        finalizeBlock();
+        awaitEventIds(result, List.of(2, 3, 4, 5, 6));
+        assertTrue(result.getResponse().getContentAsString().contains("event:block"));
+    }
+
+    // Tests that reconnecting clients resume after their last event, and that new subscribers only get new blocks
+    @Test
+    public void testResume() throws Exception {
+        MvcResult resumed = mockMvc.perform(get("/chain/events?fromHeight=0").header("Last-Event-ID", "3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult live = mockMvc.perform(get("/chain/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitEventIds(resumed, List.of(4));
+
+        finalizeBlock();
+        awaitEventIds(resumed, List.of(4, 5));
+        awaitEventIds(live, List.of(5));
+    }
+
+    // Tests that a subscriber whose buffer overflows is dropped, without holding up finalization
+    @Test
+    public void testSlowSubscriberDropped() throws Exception {
+        int bufferSize = (int) ReflectionTestUtils.getField(chainEventService, "bufferSize");
+        ReflectionTestUtils.setField(chainEventService, "bufferSize", 2);
+        try {
+            // The subscriber is stuck replaying the chain until released
+            CountDownLatch release = new CountDownLatch(1);
+            when(blockchainService.getSnapshot()).thenAnswer(invocation -> {
+                release.await(10, TimeUnit.SECONDS);
+                return snapshot();
+            });
+
+            int subscribersBefore = chainEventService.getSubscriberCount();
+            MvcResult result = mockMvc.perform(get("/chain/events?fromHeight=0"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            assertEquals(subscribersBefore + 1, chainEventService.getSubscriberCount());
+
+            for (int i = 0; i < 3; i++) finalizeBlock();
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (chainEventService.getSubscriberCount() > subscribersBefore && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(subscribersBefore, chainEventService.getSubscriberCount());
+            mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+        } finally {
+            ReflectionTestUtils.setField(chainEventService, "bufferSize", bufferSize);
+        }
+    }
+
+    // Tests that invalid heights and event IDs are rejected
+    @Test
+    public void testBadRequests() throws Exception {
+        mockMvc.perform(get("/chain/events?fromHeight=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/events").header("Last-Event-ID", "abc")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/chain/events").header("Last-Event-ID", "-5")).andExpect(status().isBadRequest());
+    }
+
+    private Block appendBlock() {
+        Block parent = chain.get(chain.size() - 1);
+        Block block = new Block(parent.getHash(), parent.getEpoch() + 1, TestUtils.randomMessage().toBytes());
+        chain.add(block);
+        return block;
+    }
+
+    // Appends a block to the chain, and then finalizes it, as the blockchain does
+    private void finalizeBlock() throws Exception {
+        Block block = appendBlock();
+        payloadService.finalizedBlock(block, chain.size() - 1);
+    }
+
+    private ChainSnapshot snapshot() {
+        List<Block> finalizedChain = List.copyOf(chain);
+        return new ChainSnapshot(finalizedChain, new NotarizedTip(finalizedChain.size(), List.of()));
+    }
+
+    // Waits for the events received so far to have exactly the expected IDs, in order
+    private void awaitEventIds(MvcResult result, List<Integer> expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<Integer> ids = eventIds(result);
+        while (!ids.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ids = eventIds(result);
+        }
+        assertEquals(expected, ids);
+    }
+
+    private List<Integer> eventIds(MvcResult result) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        Matcher matcher = EVENT_ID.matcher(result.getResponse().getContentAsString());
+        while (matcher.find()) ids.add(Integer.parseInt(matcher.group(1)));
+        return ids;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.FinalizedMessage;
+import com.github.alexandergillon.streamlet.node.models.MessagePage;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.models.SearchPage;
+import com.github.alexandergillon.streamlet.node.services.MessageIndexService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class MessageQueryControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private MessageIndexService messageIndexService;
+
+    // Tests that queries are passed on to the right index, with capped page sizes
+    @Test
+    public void testFindMessages() throws Exception {
+        PayloadMessage message = new PayloadMessage("alice", "hello", 1000L);
+        when(messageIndexService.findByUser("alice", null, 2000L, 5, 1000))
+                .thenReturn(new MessagePage(List.of(new FinalizedMessage(3, 4, message)), 9));
+        mockMvc.perform(get("/messages?user=alice&to=2000&cursor=5&limit=5000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages[0].height").value(3))
+                .andExpect(jsonPath("$.messages[0].epoch").value(4))
+                .andExpect(jsonPath("$.messages[0].message.username").value("alice"))
+                .andExpect(jsonPath("$.messages[0].message.text").value("hello"))
+                .andExpect(jsonPath("$.nextCursor").value(9));
+
+        when(messageIndexService.findByTime(1000L, Long.MAX_VALUE, 0, 100)).thenReturn(new MessagePage(List.of(), null));
+        mockMvc.perform(get("/messages?from=1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages").isEmpty())
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+        verify(messageIndexService).findByTime(1000L, Long.MAX_VALUE, 0, 100);
+    }
+
+    // Tests that searches are passed on to the index, with capped page sizes
+    @Test
+    public void testSearchMessages() throws Exception {
+        PayloadMessage message = new PayloadMessage("alice", "hello world", 1000L);
+        when(messageIndexService.search("hello there", "10.500", 1000))
+                .thenReturn(new SearchPage(List.of(new FinalizedMessage(3, 4, message)), "1010.500"));
+        mockMvc.perform(get("/messages/search?q=hello there&cursor=10.500&limit=5000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages[0].message.text").value("hello world"))
+                .andExpect(jsonPath("$.nextCursor").value("1010.500"));
+
+        when(messageIndexService.search("hello", null, 100)).thenReturn(new SearchPage(List.of(), null));
+        mockMvc.perform(get("/messages/search?q=hello"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+        when(messageIndexService.search("hello", "-1", 100)).thenThrow(new IllegalArgumentException("Malformed search cursor: -1"));
+        mockMvc.perform(get("/messages/search?q=hello&cursor=-1")).andExpect(status().isBadRequest());
+    }
+
+    // Tests that invalid queries are rejected
+    @Test
+    public void testBadQueries() throws Exception {
+        mockMvc.perform(get("/messages")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages?from=2000&to=1000")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages?user=alice&cursor=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages?user=alice&limit=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages/search")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages/search?q= ")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages/search?q=hello&limit=0")).andExpect(status().isBadRequest());
+        verifyNoInteractions(messageIndexService);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class MessageStatusControllerTest {
+
+    private static final String MESSAGE_ID = "989928e500175adf7f87261c84e7b02a83e544bce782975962d896d4b6dd98cb";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private PayloadService payloadService;
+
+    // Tests that statuses are served once the requested state is reached, with a capped wait
+    @Test
+    public void testGetMessageStatus() throws Exception {
+        CompletableFuture<MessageStatus> future = new CompletableFuture<>();
+        when(payloadService.awaitMessageStatus(MESSAGE_ID, MessageStatus.State.NOTARIZED, 30000)).thenReturn(future);
+
+        MvcResult result = mockMvc.perform(get("/messages/" + MESSAGE_ID.toUpperCase() + "/status?until=notarized&waitMs=600000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        future.complete(new MessageStatus(MESSAGE_ID, MessageStatus.State.NOTARIZED, 3, 5, "aGFzaA=="));
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state").value("NOTARIZED"))
+                .andExpect(jsonPath("$.height").value(3))
+                .andExpect(jsonPath("$.epoch").value(5));
+
+        when(payloadService.awaitMessageStatus(MESSAGE_ID, MessageStatus.State.FINALIZED, 0))
+                .thenReturn(CompletableFuture.completedFuture(MessageStatus.unknown(MESSAGE_ID)));
+        result = mockMvc.perform(get("/messages/" + MESSAGE_ID + "/status")).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state").value("UNKNOWN"))
+                .andExpect(jsonPath("$.height").doesNotExist());
+    }
+
+    // Tests that malformed IDs and states are rejected
+    @Test
+    public void testBadRequests() throws Exception {
+        mockMvc.perform(get("/messages/not-an-id/status")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/messages/" + MESSAGE_ID + "/status?until=proposed")).andExpect(status().isBadRequest());
+        verifyNoInteractions(payloadService);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.controllers;
+
+import com.github.alexandergillon.streamlet.node.models.MempoolStatus;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.services.KafkaSendingService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "streamlet.payload.direct-submission.enabled=true")
+@AutoConfigureMockMvc
+class PayloadControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private PayloadService payloadService;
+
+    @MockBean
+    private KafkaSendingService kafkaSendingService;
+
+    @Autowired
+    private PayloadController payloadController;
+
+    // Tests that valid messages are added to the mempool and relayed
+    @Test
+    public void testSend() throws Exception {
+        when(payloadService.getMempoolStatus()).thenReturn(new MempoolStatus(0, 0, 1000, 0, 0, 0, false));
+
+        String response = mockMvc.perform(post("/send").contentType(MediaType.APPLICATION_JSON).content("{\"username\": \"user\", \"text\": \"hello\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        ArgumentCaptor<PayloadMessage> captor = ArgumentCaptor.forClass(PayloadMessage.class);
+        verify(payloadService).addPendingMessage(captor.capture());
+        assertEquals("user", captor.getValue().getUsername());
+        assertEquals("hello", captor.getValue().getText());
+        assertEquals(captor.getValue().messageId(), JsonPath.read(response, "$.submissionId"));
+        assertEquals(captor.getValue().getTimestamp(), ((Number) JsonPath.read(response, "$.timestamp")).longValue());
+
+        ArgumentCaptor<String> broadcast = ArgumentCaptor.forClass(String.class);
+        verify(kafkaSendingService).broadcastAsync(broadcast.capture());
+        assertTrue(broadcast.getValue().contains("\"messageType\":\"payload\""));
+        assertTrue(broadcast.getValue().contains("\"username\":\"user\""));
+    }
+
+    // Tests that invalid messages, and messages sent under back-pressure, are rejected
+    @Test
+    public void testRejected() throws Exception {
+        when(payloadService.getMempoolStatus()).thenReturn(new MempoolStatus(0, 0, 1000, 0, 0, 0, false));
+        mockMvc.perform(post("/send").contentType(MediaType.APPLICATION_JSON).content("{\"username\": \"user\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/send").contentType(MediaType.APPLICATION_JSON).content("{\"username\": \"us:er\", \"text\": \"hello\"}"))
+                .andExpect(status().isBadRequest());
+
+        when(payloadService.getMempoolStatus()).thenReturn(new MempoolStatus(9, 900, 1000, 0.9, 0, 0, true));
+        mockMvc.perform(post("/send").contentType(MediaType.APPLICATION_JSON).content("{\"username\": \"user\", \"text\": \"hello\"}"))
+                .andExpect(status().isServiceUnavailable());
+
+        verify(payloadService, never()).addPendingMessage(any());
+        verify(kafkaSendingService, never()).broadcastAsync(anyString());
+    }
+
+    // Tests that replicas relay messages without adding them to their own mempool, or checking it for back-pressure
+    @Test
+    public void testReplica() throws Exception {
+        ReflectionTestUtils.setField(payloadController, "replica", true);
+        try {
+            mockMvc.perform(post("/send").contentType(MediaType.APPLICATION_JSON).content("{\"username\": \"user\", \"text\": \"hello\"}"))
+                    .andExpect(status().isOk());
+            verify(payloadService, never()).getMempoolStatus();
+            verify(payloadService, never()).addPendingMessage(any());
+            verify(kafkaSendingService).broadcastAsync(anyString());
+        } finally {
+            ReflectionTestUtils.setField(payloadController, "replica", false);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.models;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadBatchTest {
+
+    // Tests that batches of messages survive encoding and decoding, and that the predicted length is correct
+    @RepeatedTest(50)
+    public void testRoundTrip() throws ParseException {
+        List<PayloadMessage> messages = new ArrayList<>();
+        int numMessages = ThreadLocalRandom.current().nextInt(0, 50);
+        int totalMessageBytes = 0;
+        for (int i = 0; i < numMessages; i++) {
+            PayloadMessage message = TestUtils.randomMessage();
+            messages.add(message);
+            totalMessageBytes += message.toBytes().length;
+        }
+
+        byte[] payload = PayloadBatch.encode(messages);
+        assertEquals(messages, PayloadBatch.decode(payload));
+        assertEquals(PayloadBatch.encodedLength(numMessages, totalMessageBytes), payload.length);
+    }
+
+    // Tests that a single message is encoded on its own, and that older single-message payloads are still understood
+    @Test
+    public void testSingleMessageFormat() throws ParseException {
+        PayloadMessage message = TestUtils.randomMessage();
+        assertArrayEquals(message.toBytes(), PayloadBatch.encode(List.of(message)));
+        assertEquals(List.of(message), PayloadBatch.decode(message.toBytes()));
+        assertEquals(List.of(), PayloadBatch.decode(new byte[0]));
+
+        PayloadMessage legacyMessage = new PayloadMessage("user", "text", 1_500_000_000_000L - 1_500_000_000_000L % 60_000);
+        assertEquals(List.of(legacyMessage), PayloadBatch.decode(legacyMessage.toStringBytes()));
+    }
+
+    // Tests that malformed batches are rejected
+    @Test
+    public void testMalformedBatch() {
+        byte[] payload = PayloadBatch.encode(List.of(TestUtils.randomMessage(), TestUtils.randomMessage()));
+        assertThrows(ParseException.class, () -> PayloadBatch.decode(Arrays.copyOf(payload, payload.length - 1)));
+        assertThrows(ParseException.class, () -> PayloadBatch.decode(Arrays.copyOf(payload, payload.length + 1)));
+        assertThrows(ParseException.class, () -> PayloadBatch.decode(new byte[] { PayloadBatch.BATCH_MARKER, 0 }));
+        assertThrows(ParseException.class, () -> PayloadBatch.decode(new byte[] { PayloadBatch.BATCH_MARKER, -1, -1, -1, -1 }));
+    }
+
+}
@@ -24,6 +24,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
@@ -39,58 +40,23 @@ class PayloadMessageTest {
         assertThrows(IllegalArgumentException.class, () -> new PayloadMessage().setUsername("illegal:username"));
     }
 
-    // Tests truncation of timestamps to minute-level accuracy
+    // Tests that timestamps keep millisecond accuracy, so that equal messages sent in the same minute are distinct
     @RepeatedTest(50)
-    public void testTimestampTruncation() {
+    public void testTimestampPrecision() {
         String username = UUID.randomUUID().toString();
         String messageText = UUID.randomUUID().toString();
-        long nowMillis = truncateToMinutes(System.currentTimeMillis());
+        long nowMillis = System.currentTimeMillis();
 
         PayloadMessage message1 = new PayloadMessage(username, messageText, nowMillis);
         assertEquals(nowMillis, message1.getTimestamp());
-        PayloadMessage message2 = new PayloadMessage(username, messageText, nowMillis+1);
-        assertEquals(nowMillis, message2.getTimestamp());
-        PayloadMessage message3 = new PayloadMessage(username, messageText, nowMillis+100);
-        assertEquals(nowMillis, message3.getTimestamp());
-        PayloadMessage message4 = new PayloadMessage(username, messageText, nowMillis + ThreadLocalRandom.current().nextInt(200, 50000));
-        assertEquals(nowMillis, message4.getTimestamp());
-
-        assertEquals(message1, message2);
-        assertEquals(message2, message3);
-        assertEquals(message3, message4);
-    }
-
-    // Tests truncation of timestamps to minute-level accuracy when setter is used
-    @RepeatedTest(50)
-    public void testTimestampTruncationWithSetter() {
-        String username = UUID.randomUUID().toString();
-        String messageText = UUID.randomUUID().toString();
-        long nowMillis = truncateToMinutes(System.currentTimeMillis());
-
-        PayloadMessage message1 = new PayloadMessage();
-        message1.setUsername(username);
-        message1.setText(messageText);
-        message1.setTimestamp(nowMillis);
-        assertEquals(nowMillis, message1.getTimestamp());
         PayloadMessage message2 = new PayloadMessage();
         message2.setUsername(username);
         message2.setText(messageText);
-        message2.setTimestamp(nowMillis+1);
-        assertEquals(nowMillis, message2.getTimestamp());
-        PayloadMessage message3 = new PayloadMessage();
-        message3.setUsername(username);
-        message3.setText(messageText);
-        message3.setTimestamp(nowMillis+100);
-        assertEquals(nowMillis, message3.getTimestamp());
-        PayloadMessage message4 = new PayloadMessage();
-        message4.setUsername(username);
-        message4.setText(messageText);
-        message4.setTimestamp(nowMillis + ThreadLocalRandom.current().nextInt(200, 50000));
-        assertEquals(nowMillis, message4.getTimestamp());
+        message2.setTimestamp(nowMillis + 1);
+        assertEquals(nowMillis + 1, message2.getTimestamp());
 
-        assertEquals(message1, message2);
-        assertEquals(message2, message3);
-        assertEquals(message3, message4);
+        assertNotEquals(message1, message2);
+        assertEquals(message1, new PayloadMessage(username, messageText, nowMillis));
     }
 
     // Tests that exception is thrown if message is converted to string before being correctly initialized
@@ -137,6 +103,16 @@ class PayloadMessageTest {
         assertEquals(message.getTimestamp(), dateStringToMillisUTC("2017/05/23 15:19"));
     }
 
+    // Tests that malformed strings are rejected with a ParseException
+    @Test
+    public void testFromStringMalformed() {
+        assertThrows(ParseException.class, () -> PayloadMessage.fromString("2017/05/23 15:19 sadubeuvvfe: psadoeine"));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromString("2017/05/23 15:19 | sadubeuvvfe psadoeine"));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromString("2017/05/23 15:19 | sadubeuvvfe:"));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromString("yesterday | sadubeuvvfe: psadoeine"));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromString(""));
+    }
+
     // Tests that messages are correctly converted to string bytes
     @RepeatedTest(50)
     public void testToStringBytes() {
@@ -162,8 +138,9 @@ class PayloadMessageTest {
         String messageText = UUID.randomUUID().toString();
         long timestamp = dateStringToMillisRandomOffsetUTC("1987/06/22 04:21");
 
+        // The string format only keeps minutes
         PayloadMessage message = new PayloadMessage(username, messageText, timestamp);
-        assertEquals(message, PayloadMessage.fromString(message.toString()));
+        assertEquals(new PayloadMessage(username, messageText, truncateToMinutes(timestamp)), PayloadMessage.fromString(message.toString()));
     }
 
     // Tests that converting to string bytes and back again gives the same message
@@ -174,7 +151,51 @@ class PayloadMessageTest {
         long timestamp = dateStringToMillisRandomOffsetUTC("1987/06/22 04:21");
 
         PayloadMessage message = new PayloadMessage(username, messageText, timestamp);
-        assertEquals(message, PayloadMessage.fromStringBytes(message.toStringBytes()));
+        assertEquals(new PayloadMessage(username, messageText, truncateToMinutes(timestamp)), PayloadMessage.fromStringBytes(message.toStringBytes()));
+    }
+
+    // Tests that converting to binary bytes and back again gives the same message, including non-ASCII text
+    @RepeatedTest(50)
+    public void testToBytesFromBytes() throws ParseException {
+        String username = UUID.randomUUID().toString() + "\u00e9";
+        String messageText = UUID.randomUUID().toString() + " \u65e5\u672c\u8a9e \ud83d\ude00";
+        long timestamp = dateStringToMillisRandomOffsetUTC("1987/06/22 04:21");
+
+        PayloadMessage message = new PayloadMessage(username, messageText, timestamp);
+        byte[] bytes = message.toBytes();
+        assertEquals(PayloadMessage.VERSION_1, bytes[0]);
+        assertEquals(message, PayloadMessage.fromBytes(bytes));
+    }
+
+    // Tests that long fields (with multi-byte lengths) are encoded correctly, and that the encoding is compact
+    @Test
+    public void testToBytesLongText() throws ParseException {
+        String messageText = "x".repeat(20000);
+        PayloadMessage message = new PayloadMessage("user", messageText, 123456789L);
+        byte[] bytes = message.toBytes();
+        assertEquals(1 + 1 + 4 + 3 + 20000 + Long.BYTES, bytes.length);
+        assertEquals(message, PayloadMessage.fromBytes(bytes));
+    }
+
+    // Tests that legacy string-format messages are still decoded
+    @Test
+    public void testFromBytesLegacy() throws ParseException {
+        PayloadMessage message = PayloadMessage.fromBytes("2017/05/23 15:19 | sadubeuvvfe: psadoeine".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(new PayloadMessage("sadubeuvvfe", "psadoeine", dateStringToMillisUTC("2017/05/23 15:19")), message);
+    }
+
+    // Tests that malformed binary messages are rejected with a ParseException
+    @Test
+    public void testFromBytesMalformed() {
+        byte[] bytes = new PayloadMessage("user", "text", 0).toBytes();
+
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(Arrays.copyOf(bytes, bytes.length + 1)));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(new byte[] { PayloadMessage.VERSION_1 }));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(new byte[] { PayloadMessage.VERSION_1, 100, 'a' }));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(new byte[] { PayloadMessage.VERSION_1, -1, -1, -1, -1, -1, 0 }));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(new byte[] { PayloadMessage.VERSION_1, 1, (byte) 0xC3, 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
+        assertThrows(ParseException.class, () -> PayloadMessage.fromBytes(new byte[] { PayloadMessage.VERSION_1, 1, ':', 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
     }
 
     // Truncates a time to minute-level accuracy
@@ -199,4 +220,11 @@ class PayloadMessageTest {
         return dateStringToMillisUTC(date) + ThreadLocalRandom.current().nextInt(100, 20000);
     }
 
-}
\ No newline at end of file
+    // Tests that message IDs are hashes of the binary encoding, matching the IDs the broadcast server gives out
+    @Test
+    public void testMessageId() {
+        assertEquals("989928e500175adf7f87261c84e7b02a83e544bce782975962d896d4b6dd98cb", new PayloadMessage("user", "hello", 0).messageId());
+        assertNotEquals(new PayloadMessage("user", "hello", 0).messageId(), new PayloadMessage("user", "hello", 1).messageId());
+    }
+
+}
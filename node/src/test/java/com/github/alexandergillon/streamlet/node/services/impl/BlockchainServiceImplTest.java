@@ -52,8 +52,10 @@ import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -320,6 +322,35 @@ class BlockchainServiceImplTest {
         doTest(test);
     }
 
+    // Tests that a replica follows notarization and finalization without ever voting or proposing
+    @Test
+    @DirtiesContext
+    public void testReplica() {
+        ReflectionTestUtils.setField(blockchainService, "replica", true);
+        String test =
+            """
+            e1:
+            n2 propose b1 novote
+            n3 vote b1
+            n4 vote b1
+            n0 vote b1
+
+            e2:
+            n2 propose b2 novote
+            n0 vote b2
+            n3 vote b2
+            assert chain b0
+            n4 vote b2
+            assert chain b0 b1
+            """;
+        doTest(test);
+        assertThrows(IllegalStateException.class, () -> blockchainService.proposeBlock());
+        verify(kafkaSendingService, never()).broadcast(anyString());
+
+        // This node's ID is a participant's, so it cannot be a replica
+        assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(blockchainService, "initializeBlockchain"));
+    }
+
     // Tests that blocks are not finalized if the three notarized blocks in a row are not of consecutive epochs
     @Test
     @DirtiesContext
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import com.github.alexandergillon.streamlet.node.TestUtils;
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.FinalizedChainIndex;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.ChainRenderService;
+import com.github.alexandergillon.streamlet.node.util.SerializationUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ChainRenderServiceImplTest {
+
+    private BlockchainService blockchainService;
+    private ChainRenderService chainRenderService;
+    private FinalizedChainIndex index;
+    private List<Block> chain;
+
+    @BeforeEach
+    public void setup() {
+        chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+        index = new FinalizedChainIndex(Block.GENESIS_BLOCK);
+        blockchainService = mock(BlockchainService.class);
+        when(blockchainService.getSnapshot()).thenAnswer(invocation -> TestUtils.snapshotOf(index));
+        chainRenderService = new ChainRenderServiceImpl(blockchainService);
+    }
+
+    // Tests that renderings match rendering the whole chain, as the chain grows past several chunks
+    @Test
+    public void testRenderingsMatchChain() throws IOException {
+        assertEquals("[]", render(chainRenderService.renderJson()));
+        assertEquals("", render(chainRenderService.renderReadableText()));
+
+        // Keeps going until the renderings span more than one chunk, however few blocks the random rounds add
+        for (int round = 0; round < 10 || chainRenderService.renderJson().getLength() <= 64 * 1024; round++) {
+            int newBlocks = ThreadLocalRandom.current().nextInt(0, 100);
+            for (int i = 0; i < newBlocks; i++) appendBlock();
+
+            ChainRenderService.Rendering json = chainRenderService.renderJson();
+            ChainRenderService.Rendering readable = chainRenderService.renderReadableText();
+            String expectedJson = SerializationUtils.blockListMessagesToJson(chain);
+            String expectedReadable = SerializationUtils.blockListMessagesToReadableText(chain);
+            assertEquals(expectedJson, render(json));
+            assertEquals(expectedReadable, render(readable));
+            assertEquals(expectedJson.getBytes(StandardCharsets.UTF_8).length, json.getLength());
+            assertEquals(expectedReadable.getBytes(StandardCharsets.UTF_8).length, readable.getLength());
+        }
+    }
+
+    // Tests that a rendering does not change as the chain grows, and that ETags change only when the chain does
+    @Test
+    public void testRenderingsAreSnapshots() throws IOException {
+        for (int i = 0; i < 10; i++) appendBlock();
+        ChainRenderService.Rendering json = chainRenderService.renderJson();
+        ChainRenderService.Rendering readable = chainRenderService.renderReadableText();
+        String renderedJson = render(json);
+        String renderedReadable = render(readable);
+
+        assertEquals(json.getETag(), chainRenderService.renderJson().getETag());
+        assertNotEquals(json.getETag(), readable.getETag());
+
+        for (int i = 0; i < 10; i++) appendBlock();
+        assertEquals(renderedJson, render(json));
+        assertEquals(renderedReadable, render(readable));
+        assertNotEquals(json.getETag(), chainRenderService.renderJson().getETag());
+        assertNotEquals(readable.getETag(), chainRenderService.renderReadableText().getETag());
+    }
+
+    // Tests that each block is only fetched from the chain once, however often the chain is rendered
+    @Test
+    public void testIncrementalRendering() {
+        AtomicInteger fetched = new AtomicInteger();
+        when(blockchainService.getSnapshot()).thenAnswer(invocation -> {
+            List<Block> finalizedChain = index.toList();
+            List<Block> countingChain = new AbstractList<>() {
+                @Override
+                public Block get(int height) {
+                    fetched.incrementAndGet();
+                    return finalizedChain.get(height);
+                }
+
+                @Override
+                public int size() {
+                    return finalizedChain.size();
+                }
+            };
+            return new ChainSnapshot(countingChain, new NotarizedTip(finalizedChain.size(), List.of()));
+        });
+
+        for (int i = 0; i < 20; i++) {
+            appendBlock();
+            chainRenderService.renderJson();
+            chainRenderService.renderReadableText();
+        }
+        assertEquals(chain.size(), fetched.get());
+    }
+
+    // Tests that finalized blocks with malformed payloads are rendered without messages
+    @Test
+    public void testMalformedBlock() throws IOException {
+        appendBlock();
+        Block malformed = new Block(chain.get(chain.size() - 1).getHash(), chain.size(), new byte[] { 42 });
+        chain.add(malformed);
+        index.append(malformed);
+        appendBlock();
+
+        List<Block> wellFormed = List.of(chain.get(1), chain.get(3));
+        assertEquals(SerializationUtils.blockListMessagesToJson(wellFormed), render(chainRenderService.renderJson()));
+        assertEquals(SerializationUtils.blockListMessagesToReadableText(wellFormed), render(chainRenderService.renderReadableText()));
+    }
+
+    // Appends a block with some random messages to the chain
+    private void appendBlock() {
+        List<PayloadMessage> messages = new ArrayList<>();
+        for (int i = ThreadLocalRandom.current().nextInt(0, 4); i > 0; i--) messages.add(TestUtils.randomMessage());
+        Block parent = chain.get(chain.size() - 1);
+        Block block = new Block(parent.getHash(), parent.getEpoch() + 1, PayloadBatch.encode(messages));
+        chain.add(block);
+        index.append(block);
+    }
+
+    private static String render(ChainRenderService.Rendering rendering) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        rendering.writeTo(outputStream);
+        assertEquals(rendering.getLength(), outputStream.size());
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+}
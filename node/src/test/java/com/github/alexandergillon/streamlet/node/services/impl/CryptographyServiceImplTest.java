@@ -23,6 +23,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -65,6 +66,16 @@ class CryptographyServiceImplTest {
         assertTrue(signature.verify(signatureBytes));
     }
 
+    // Tests that a node without a private key can be created, but fails to sign
+    @Test
+    public void testNoPrivateKey() {
+        CryptographyServiceImpl withoutKey = new CryptographyServiceImpl();
+        ReflectionTestUtils.setField(withoutKey, "privateKeyPath", "");
+        ReflectionTestUtils.setField(withoutKey, "privateKeyAlias", "");
+        ReflectionTestUtils.setField(withoutKey, "privateKeyPassword", "");
+        assertThrows(IllegalStateException.class, () -> withoutKey.sign(TestUtils.getRandomBlock()));
+    }
+
     // Tests that base64 signing works correctly
     @Test
     public void testSignBase64() throws FileNotFoundException, CertificateException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
@@ -57,8 +57,10 @@ import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -172,6 +174,28 @@ class KafkaListeningServiceImplTest {
         verifyNoInteractions(kafkaSendingService);
     }
 
+    // Tests that a proposal and the votes on the same block are given the same decoded block
+    @Test
+    public void testBlockInterning() {
+        Block block = TestUtils.getRandomBlock();
+        String signature = Base64.getEncoder().encodeToString(TestUtils.randomPayload());  // signatures are not checked here
+        when(blockchainService.processProposedBlock(any(Block.class), anyInt(), any(byte[].class))).thenReturn(false);
+
+        kafkaService.processProposal(new ProposeMessage(1, block.toJsonBlock(), signature));
+        kafkaService.processVote(new VoteMessage(2, block.toJsonBlock(), signature, signature));
+        kafkaService.processVote(new VoteMessage(3, block.toJsonBlock(), signature, signature));
+
+        ArgumentCaptor<Block> proposedBlock = ArgumentCaptor.forClass(Block.class);
+        ArgumentCaptor<Block> votedBlocks = ArgumentCaptor.forClass(Block.class);
+        verify(blockchainService).processProposedBlock(proposedBlock.capture(), anyInt(), any(byte[].class));
+        verify(blockchainService, times(2)).processBlockVote(votedBlocks.capture(), anyInt(), any(byte[].class), any(byte[].class));
+
+        assertEquals(block, proposedBlock.getValue());
+        for (Block votedBlock : votedBlocks.getAllValues()) {
+            assertSame(proposedBlock.getValue(), votedBlock);
+        }
+    }
+
 
 
     private String signBase64(Block block, int signer) {
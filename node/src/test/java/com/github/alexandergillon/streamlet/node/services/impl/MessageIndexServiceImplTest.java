@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.blockchain.ChainSnapshot;
+import com.github.alexandergillon.streamlet.node.blockchain.NotarizedTip;
+import com.github.alexandergillon.streamlet.node.models.FinalizedMessage;
+import com.github.alexandergillon.streamlet.node.models.MessagePage;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
+import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
+import com.github.alexandergillon.streamlet.node.models.SearchPage;
+import com.github.alexandergillon.streamlet.node.services.BlockchainService;
+import com.github.alexandergillon.streamlet.node.services.PayloadService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MessageIndexServiceImplTest {
+
+    private static final List<String> USERS = List.of("alice", "bob", "carol", "dave");
+    private static final long START_TIME = 1_700_000_000_000L;
+
+    private MessageIndexServiceImpl messageIndexService;
+    /** Every message indexed so far, in chain order, with its height. */
+    private List<FinalizedMessage> allMessages;
+    /** The finalized chain, by height, which the index decodes messages from. */
+    private List<Block> chain;
+
+    @BeforeEach
+    public void setup() {
+        BlockchainService blockchainService = mock(BlockchainService.class);
+        when(blockchainService.getSnapshot()).thenAnswer(invocation ->
+                new ChainSnapshot(List.copyOf(chain), new NotarizedTip(chain.size(), List.of())));
+        messageIndexService = new MessageIndexServiceImpl(mock(PayloadService.class), blockchainService);
+        ReflectionTestUtils.setField(messageIndexService, "timeBucketMillis", 1000L);
+        allMessages = new ArrayList<>();
+        chain = new ArrayList<>(List.of(Block.GENESIS_BLOCK));
+    }
+
+    // Tests that paging through queries by user finds exactly the user's messages, in chain order
+    @RepeatedTest(10)
+    public void testFindByUser() {
+        finalizeRandomBlocks(200);
+        for (String user : USERS) {
+            assertPagesMatch(message -> message.getUsername().equals(user),
+                    cursor -> messageIndexService.findByUser(user, null, null, cursor, 7));
+        }
+        assertEquals(List.of(), messageIndexService.findByUser("nobody", null, null, 0, 10).getMessages());
+    }
+
+    // Tests that paging through queries by time range finds exactly the messages in the range, in chain order
+    @RepeatedTest(10)
+    public void testFindByTime() {
+        finalizeRandomBlocks(200);
+        for (int i = 0; i < 20; i++) {
+            long from = START_TIME + ThreadLocalRandom.current().nextLong(-5_000, 60_000);
+            long to = from + ThreadLocalRandom.current().nextLong(0, 20_000);
+            assertPagesMatch(message -> message.getTimestamp() >= from && message.getTimestamp() < to,
+                    cursor -> messageIndexService.findByTime(from, to, cursor, 5));
+
+            String user = USERS.get(i % USERS.size());
+            assertPagesMatch(message -> message.getUsername().equals(user) && message.getTimestamp() >= from && message.getTimestamp() < to,
+                    cursor -> messageIndexService.findByUser(user, from, to, cursor, 5));
+        }
+    }
+
+    // Tests queries by user and time range, with ranges both narrower and wider than the user's postings
+    @RepeatedTest(10)
+    public void testFindByUserInTimeRange() {
+        finalizeRandomBlocks(200);
+        for (String user : USERS) {
+            for (long width : List.of(1_000L, 3_000L, 60_000L)) {
+                long from = START_TIME + 20_000;
+                assertPagesMatch(message -> message.getUsername().equals(user) && message.getTimestamp() >= from && message.getTimestamp() < from + width,
+                        cursor -> messageIndexService.findByUser(user, from, from + width, cursor, 3));
+            }
+            assertPagesMatch(message -> message.getUsername().equals(user) && message.getTimestamp() >= START_TIME + 30_000,
+                    cursor -> messageIndexService.findByUser(user, START_TIME + 30_000, null, cursor, 3));
+            assertPagesMatch(message -> message.getUsername().equals(user) && message.getTimestamp() < START_TIME + 30_000,
+                    cursor -> messageIndexService.findByUser(user, null, START_TIME + 30_000, cursor, 3));
+        }
+        assertEquals(List.of(), messageIndexService.findByUser(USERS.get(0), START_TIME, START_TIME, 0, 10).getMessages());
+    }
+
+    // Tests that paging through a search finds each matching message once, and only matching messages
+    @RepeatedTest(10)
+    public void testSearch() {
+        finalizeRandomBlocks(200);
+        String word = allMessages.get(0).getMessage().getText().split("-")[0];
+
+        List<FinalizedMessage> found = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchPage page = messageIndexService.search(word + " zzz", cursor, 1);
+            found.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        List<PayloadMessage> expected = allMessages.stream().map(FinalizedMessage::getMessage)
+                .filter(message -> TextIndex.tokenize(message.getText()).contains(word)).toList();
+        assertEquals(expected.size(), found.size());
+        assertTrue(found.stream().map(FinalizedMessage::getMessage).toList().containsAll(expected));
+        assertEquals(List.of(), messageIndexService.search("zzz", null, 10).getMessages());
+    }
+
+    // Tests that a search ranks the same messages on every page, even as more messages are finalized
+    @Test
+    public void testSearchCursorAcrossFinalization() {
+        for (int i = 0; i < 10; i++) finalizeMessage("apple " + i);
+        SearchPage first = messageIndexService.search("apple", null, 4);
+        assertEquals(4, first.getMessages().size());
+
+        // Newer messages with the same word would otherwise rank above the rest of the older ones
+        for (int i = 0; i < 10; i++) finalizeMessage("apple");
+        List<FinalizedMessage> found = new ArrayList<>(first.getMessages());
+        String cursor = first.getNextCursor();
+        while (cursor != null) {
+            SearchPage page = messageIndexService.search("apple", cursor, 4);
+            found.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        }
+        assertEquals(10, found.size());
+        assertEquals(10, found.stream().map(message -> message.getMessage().getText()).distinct().count());
+
+        assertEquals(20, messageIndexService.search("apple", null, 100).getMessages().size());
+        assertThrows(IllegalArgumentException.class, () -> messageIndexService.search("apple", "0.1000", 4));
+        assertThrows(IllegalArgumentException.class, () -> messageIndexService.search("apple", "4", 4));
+        assertThrows(IllegalArgumentException.class, () -> messageIndexService.search("apple", "a.b", 4));
+    }
+
+    // Tests that a cursor stays valid as more blocks are finalized
+    @Test
+    public void testCursorAcrossFinalization() {
+        finalizeRandomBlocks(20);
+        MessagePage page;
+        int cursor = 0;
+        List<FinalizedMessage> found = new ArrayList<>();
+        do {
+            page = messageIndexService.findByTime(Long.MIN_VALUE, Long.MAX_VALUE, cursor, 3);
+            found.addAll(page.getMessages());
+            if (page.getNextCursor() != null) cursor = page.getNextCursor();
+        } while (page.getNextCursor() != null);
+        cursor = allMessages.size();
+
+        finalizeRandomBlocks(20);
+        page = messageIndexService.findByTime(Long.MIN_VALUE, Long.MAX_VALUE, cursor, 1000);
+        found.addAll(page.getMessages());
+        assertSameMessages(allMessages, found);
+    }
+
+    // Finalizes blocks containing random messages, from a few users, with timestamps spread over about a minute
+    private void finalizeRandomBlocks(int count) {
+        for (int i = 0; i < count; i++) {
+            List<PayloadMessage> messages = new ArrayList<>();
+            for (int j = ThreadLocalRandom.current().nextInt(0, 4); j > 0; j--) {
+                String user = USERS.get(ThreadLocalRandom.current().nextInt(USERS.size()));
+                long timestamp = START_TIME + ThreadLocalRandom.current().nextLong(0, 60_000);
+                messages.add(new PayloadMessage(user, UUID.randomUUID().toString(), timestamp));
+            }
+            finalizeBlock(new Block(new byte[32], 2 * chain.size(), PayloadBatch.encode(messages)), messages);
+        }
+    }
+
+    // Finalizes a block containing one message with the given text
+    private void finalizeMessage(String text) {
+        PayloadMessage message = new PayloadMessage(USERS.get(0), text, START_TIME + chain.size());
+        finalizeBlock(new Block(new byte[32], 2 * chain.size(), message.toBytes()), List.of(message));
+    }
+
+    // Appends a block to the finalized chain, and indexes it
+    private void finalizeBlock(Block block, List<PayloadMessage> messages) {
+        int height = chain.size();
+        chain.add(block);
+        messageIndexService.indexBlock(block, height);
+        for (PayloadMessage message : messages) allMessages.add(new FinalizedMessage(height, block.getEpoch(), message));
+    }
+
+    // Pages through a query, and checks that it finds exactly the matching messages
+    private void assertPagesMatch(Predicate<PayloadMessage> matches, Function<Integer, MessagePage> query) {
+        List<FinalizedMessage> expected = allMessages.stream().filter(message -> matches.test(message.getMessage())).toList();
+        List<FinalizedMessage> found = new ArrayList<>();
+        int cursor = 0;
+        while (true) {
+            MessagePage page = query.apply(cursor);
+            assertTrue(page.getMessages().size() <= 7);
+            found.addAll(page.getMessages());
+            if (page.getNextCursor() == null) break;
+            assertTrue(page.getNextCursor() > cursor);
+            cursor = page.getNextCursor();
+        }
+        assertSameMessages(expected, found);
+    }
+
+    private static void assertSameMessages(List<FinalizedMessage> expected, List<FinalizedMessage> found) {
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getMessage(), found.get(i).getMessage());
+            assertEquals(expected.get(i).getHeight(), found.get(i).getHeight());
+            assertEquals(expected.get(i).getEpoch(), found.get(i).getEpoch());
+        }
+    }
+
+}
@@ -18,13 +18,23 @@ package com.github.alexandergillon.streamlet.node.services.impl;
 
 import com.github.alexandergillon.streamlet.node.TestUtils;
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.MempoolStatus;
+import com.github.alexandergillon.streamlet.node.models.MessageStatus;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.services.PayloadService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -35,6 +45,12 @@ class PayloadServiceImplTest {
     @BeforeEach
     public void setupPayloadService() {
         payloadService = new PayloadServiceImpl();
+        // One message per block, an unbounded mempool, and no finalized history, unless a test says otherwise
+        ReflectionTestUtils.setField(payloadService, "maxBatchMessages", 1);
+        ReflectionTestUtils.setField(payloadService, "maxBatchBytes", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(payloadService, "maxMempoolBytes", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(payloadService, "backPressureThreshold", 0.8);
+        ReflectionTestUtils.setField(payloadService, "finalizedHistorySize", 0);
     }
 
     // Tests that messages are returned in the right order, and are cleared from the buffer when finalized
@@ -53,16 +69,16 @@ class PayloadServiceImplTest {
         payloadService.addPendingMessage(message4);
         payloadService.addPendingMessage(message5);
         
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message1.toStringBytes());
-        assertArrayEquals(message2.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message2.toStringBytes());
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message3.toStringBytes());
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message4.toStringBytes());
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message5.toStringBytes());
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message1));
+        assertArrayEquals(message2.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message2));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message3));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message4));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message5));
         assertNull(payloadService.getNextPayload(new HashSet<>()));
     }
 
@@ -80,27 +96,27 @@ class PayloadServiceImplTest {
         payloadService.addPendingMessage(message4);
         payloadService.addPendingMessage(message5);
         
-        Block blockWithMessage1 = TestUtils.getRandomBlockWithPayload(message1.toStringBytes());
-        Block blockWithMessage2 = TestUtils.getRandomBlockWithPayload(message2.toStringBytes());
-        Block blockWithMessage3 = TestUtils.getRandomBlockWithPayload(message3.toStringBytes());
-        Block blockWithMessage4 = TestUtils.getRandomBlockWithPayload(message4.toStringBytes());
-        Block blockWithMessage5 = TestUtils.getRandomBlockWithPayload(message5.toStringBytes());
-
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        assertArrayEquals(message2.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2)));
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3)));
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4)));
+        Block blockWithMessage1 = TestUtils.getRandomBlockWithPayload(message1.toBytes());
+        Block blockWithMessage2 = TestUtils.getRandomBlockWithPayload(message2.toBytes());
+        Block blockWithMessage3 = TestUtils.getRandomBlockWithPayload(message3.toBytes());
+        Block blockWithMessage4 = TestUtils.getRandomBlockWithPayload(message4.toBytes());
+        Block blockWithMessage5 = TestUtils.getRandomBlockWithPayload(message5.toBytes());
+
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        assertArrayEquals(message2.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2)));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3)));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4)));
         assertNull(payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4, blockWithMessage5)));
 
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage2, blockWithMessage3)));
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage2, blockWithMessage3)));
 
-        payloadService.finalizedPayload(message2.toStringBytes());
+        payloadService.finalizedMessages(List.of(message2));
 
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3)));
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4)));
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3)));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4)));
         assertNull(payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4, blockWithMessage5)));
     }
 
@@ -122,19 +138,19 @@ class PayloadServiceImplTest {
         PayloadMessage unknownMessage2 = TestUtils.randomMessage();
         PayloadMessage unknownMessage3 = TestUtils.randomMessage();
 
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message1.toStringBytes());
-        payloadService.finalizedPayload(unknownMessage1.toStringBytes());
-        assertArrayEquals(message2.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message2.toStringBytes());
-        payloadService.finalizedPayload(unknownMessage2.toStringBytes());
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message3.toStringBytes());
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message4.toStringBytes());
-        payloadService.finalizedPayload(unknownMessage3.toStringBytes());
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        payloadService.finalizedPayload(message5.toStringBytes());
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message1));
+        payloadService.finalizedMessages(List.of(unknownMessage1));
+        assertArrayEquals(message2.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message2));
+        payloadService.finalizedMessages(List.of(unknownMessage2));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message3));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message4));
+        payloadService.finalizedMessages(List.of(unknownMessage3));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        payloadService.finalizedMessages(List.of(message5));
         assertNull(payloadService.getNextPayload(new HashSet<>()));
     }
 
@@ -156,28 +172,313 @@ class PayloadServiceImplTest {
         payloadService.addPendingMessage(message2);
         payloadService.addPendingMessage(message5);
 
-        Block blockWithMessage1 = TestUtils.getRandomBlockWithPayload(message1.toStringBytes());
-        Block blockWithMessage2 = TestUtils.getRandomBlockWithPayload(message2.toStringBytes());
-        Block blockWithMessage3 = TestUtils.getRandomBlockWithPayload(message3.toStringBytes());
-        Block blockWithMessage4 = TestUtils.getRandomBlockWithPayload(message4.toStringBytes());
-        Block blockWithMessage5 = TestUtils.getRandomBlockWithPayload(message5.toStringBytes());
-
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        assertArrayEquals(message2.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2)));
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3)));
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4)));
+        Block blockWithMessage1 = TestUtils.getRandomBlockWithPayload(message1.toBytes());
+        Block blockWithMessage2 = TestUtils.getRandomBlockWithPayload(message2.toBytes());
+        Block blockWithMessage3 = TestUtils.getRandomBlockWithPayload(message3.toBytes());
+        Block blockWithMessage4 = TestUtils.getRandomBlockWithPayload(message4.toBytes());
+        Block blockWithMessage5 = TestUtils.getRandomBlockWithPayload(message5.toBytes());
+
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        assertArrayEquals(message2.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2)));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3)));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4)));
         assertNull(payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage2, blockWithMessage3, blockWithMessage4, blockWithMessage5)));
 
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage2, blockWithMessage3)));
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage2, blockWithMessage3)));
 
-        payloadService.finalizedPayload(message2.toStringBytes());
+        payloadService.finalizedMessages(List.of(message2));
 
-        assertArrayEquals(message1.toStringBytes(), payloadService.getNextPayload(new HashSet<>()));
-        assertArrayEquals(message3.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
-        assertArrayEquals(message4.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3)));
-        assertArrayEquals(message5.toStringBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4)));
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
+        assertArrayEquals(message4.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3)));
+        assertArrayEquals(message5.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4)));
         assertNull(payloadService.getNextPayload(Set.of(blockWithMessage1, blockWithMessage3, blockWithMessage4, blockWithMessage5)));
     }
 
-}
\ No newline at end of file
+    // Tests that messages finalized out of order (i.e. not at the head of the queue) are never proposed again
+    @Test
+    public void testOutOfOrderFinalization() {
+        PayloadMessage message1 = TestUtils.randomMessage();
+        PayloadMessage message2 = TestUtils.randomMessage();
+        PayloadMessage message3 = TestUtils.randomMessage();
+        payloadService.addPendingMessage(message1);
+        payloadService.addPendingMessage(message2);
+        payloadService.addPendingMessage(message3);
+
+        payloadService.finalizedMessages(List.of(message2));
+        Block blockWithMessage1 = TestUtils.getRandomBlockWithPayload(message1.toBytes());
+        assertArrayEquals(message3.toBytes(), payloadService.getNextPayload(Set.of(blockWithMessage1)));
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+
+        payloadService.finalizedMessages(List.of(message1));
+        payloadService.finalizedMessages(List.of(message3));
+        assertNull(payloadService.getNextPayload(new HashSet<>()));
+
+        // A message that is heard about again after finalization becomes pending again, as before
+        payloadService.addPendingMessage(message2);
+        assertArrayEquals(message2.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+    }
+
+    // Tests that messages added concurrently are all pending exactly once
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        List<PayloadMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) messages.add(TestUtils.randomMessage());
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> messages.forEach(payloadService::addPendingMessage)));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        Set<PayloadMessage> proposed = new HashSet<>();
+        byte[] payload;
+        while ((payload = payloadService.getNextPayload(new HashSet<>())) != null) {
+            byte[] finalPayload = payload;  // lambda capture variable should be final
+            PayloadMessage message = assertDoesNotThrow(() -> PayloadMessage.fromBytes(finalPayload));
+            assertTrue(proposed.add(message));
+            payloadService.finalizedMessages(List.of(message));
+        }
+        assertEquals(new HashSet<>(messages), proposed);
+    }
+
+    // Tests that messages are batched in order, up to the message and byte budgets, skipping unfinalized messages
+    @Test
+    public void testBatching() throws ParseException {
+        ReflectionTestUtils.setField(payloadService, "maxBatchMessages", 3);
+        List<PayloadMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PayloadMessage message = TestUtils.randomMessage();
+            messages.add(message);
+            payloadService.addPendingMessage(message);
+        }
+
+        assertEquals(messages.subList(0, 3), PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+
+        Block blockWithBatch = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages.subList(0, 2)));
+        assertEquals(messages.subList(2, 5), PayloadBatch.decode(payloadService.getNextPayload(Set.of(blockWithBatch))));
+
+        payloadService.finalizedMessages(blockWithBatch.getMessages());
+        assertEquals(messages.subList(2, 5), PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+
+        // A budget of two messages' worth of bytes (plus batch overhead) stops the batch after two messages
+        int messageBytes = messages.get(2).toBytes().length + messages.get(3).toBytes().length;
+        ReflectionTestUtils.setField(payloadService, "maxBatchBytes", PayloadBatch.encodedLength(2, messageBytes));
+        assertEquals(messages.subList(2, 4), PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+
+        // The first message is taken even if it is over budget
+        ReflectionTestUtils.setField(payloadService, "maxBatchBytes", 1);
+        assertEquals(messages.subList(2, 3), PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+    }
+
+    // Tests that users take turns: a backlog from one user does not hold up messages from others
+    @Test
+    public void testRoundRobinAcrossUsers() throws ParseException {
+        ReflectionTestUtils.setField(payloadService, "maxBatchMessages", 4);
+        List<PayloadMessage> noisy = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PayloadMessage message = new PayloadMessage("noisy", "message " + i, System.currentTimeMillis());
+            noisy.add(message);
+            payloadService.addPendingMessage(message);
+        }
+        PayloadMessage quiet1 = new PayloadMessage("quiet1", "hello", System.currentTimeMillis());
+        PayloadMessage quiet2 = new PayloadMessage("quiet2", "hello", System.currentTimeMillis());
+        payloadService.addPendingMessage(quiet1);
+        payloadService.addPendingMessage(quiet2);
+
+        byte[] payload = payloadService.getNextPayload(new HashSet<>());
+        assertEquals(List.of(noisy.get(0), quiet1, quiet2, noisy.get(1)), PayloadBatch.decode(payload));
+        payloadService.finalizedMessages(PayloadBatch.decode(payload));
+
+        // A user who was idle joins the current round, rather than going back to the first one
+        PayloadMessage quiet3 = new PayloadMessage("quiet1", "hello again", System.currentTimeMillis());
+        payloadService.addPendingMessage(quiet3);
+        assertEquals(List.of(noisy.get(2), quiet3, noisy.get(3), noisy.get(4)), PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+    }
+
+    // Tests that the oldest messages are evicted to stay under the memory cap, and that status is reported
+    @Test
+    public void testEviction() {
+        List<PayloadMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) messages.add(new PayloadMessage("user" + i, "text", System.currentTimeMillis()));
+        int messageBytes = messages.get(0).toBytes().length;
+        ReflectionTestUtils.setField(payloadService, "maxMempoolBytes", 3L * messageBytes);
+        ReflectionTestUtils.setField(payloadService, "backPressureThreshold", 0.6);
+
+        payloadService.addPendingMessage(messages.get(0));
+        MempoolStatus status = payloadService.getMempoolStatus();
+        assertEquals(1, status.getPendingMessages());
+        assertEquals(messageBytes, status.getPendingBytes());
+        assertFalse(status.isBackPressure());
+
+        payloadService.addPendingMessage(messages.get(1));
+        assertTrue(payloadService.getMempoolStatus().isBackPressure());
+        for (int i = 2; i < 5; i++) payloadService.addPendingMessage(messages.get(i));
+
+        status = payloadService.getMempoolStatus();
+        assertEquals(3, status.getPendingMessages());
+        assertEquals(1.0, status.getOccupancy(), 1e-9);
+        assertEquals(2, status.getEvictedMessages());
+        assertEquals(2L * messageBytes, status.getEvictedBytes());
+
+        // Evicted messages are never proposed, and finalizing one is harmless
+        payloadService.finalizedMessages(List.of(messages.get(0)));
+        for (int i = 2; i < 5; i++) {
+            byte[] payload = payloadService.getNextPayload(new HashSet<>());
+            assertArrayEquals(messages.get(i).toBytes(), payload);
+            payloadService.finalizedMessages(List.of(messages.get(i)));
+        }
+        assertNull(payloadService.getNextPayload(new HashSet<>()));
+        assertEquals(0, payloadService.getMempoolStatus().getPendingBytes());
+
+        // A message larger than the whole mempool is dropped
+        ReflectionTestUtils.setField(payloadService, "maxMempoolBytes", 1L);
+        payloadService.addPendingMessage(messages.get(0));
+        assertNull(payloadService.getNextPayload(new HashSet<>()));
+        assertEquals(3, payloadService.getMempoolStatus().getEvictedMessages());
+    }
+
+    // Tests that a user flooding the mempool only evicts their own messages, oldest first
+    @Test
+    public void testEvictionFairness() throws ParseException {
+        PayloadMessage quiet = new PayloadMessage("quiet", "000", System.currentTimeMillis());
+        List<PayloadMessage> noisy = new ArrayList<>();
+        for (int i = 0; i < 100; i++) noisy.add(new PayloadMessage("noisy", String.format("%03d", i), System.currentTimeMillis()));
+        int messageBytes = noisy.get(0).toBytes().length;
+        ReflectionTestUtils.setField(payloadService, "maxMempoolBytes", 4L * messageBytes);
+        ReflectionTestUtils.setField(payloadService, "maxBatchMessages", 10);
+
+        // The quiet user's message is the oldest in the mempool
+        payloadService.addPendingMessage(quiet);
+        for (PayloadMessage message : noisy) payloadService.addPendingMessage(message);
+
+        MempoolStatus status = payloadService.getMempoolStatus();
+        assertEquals(4, status.getPendingMessages());
+        assertEquals(97, status.getEvictedMessages());
+        assertEquals(List.of(quiet, noisy.get(97), noisy.get(98), noisy.get(99)),
+                PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())));
+
+        // Among users with equally many pending bytes, the one with the oldest message goes first
+        payloadService.finalizedMessages(noisy.subList(97, 99));
+        for (String user : List.of("user1", "user2", "user3")) {
+            payloadService.addPendingMessage(new PayloadMessage(user, "000", System.currentTimeMillis()));
+        }
+        assertEquals(98, payloadService.getMempoolStatus().getEvictedMessages());
+        assertFalse(PayloadBatch.decode(payloadService.getNextPayload(new HashSet<>())).contains(quiet));
+    }
+
+    // Tests that recently finalized messages do not become pending again when they are heard about again
+    @Test
+    public void testFinalizedHistory() {
+        ReflectionTestUtils.setField(payloadService, "finalizedHistorySize", 2);
+        PayloadMessage message1 = TestUtils.randomMessage();
+        PayloadMessage message2 = TestUtils.randomMessage();
+        PayloadMessage message3 = TestUtils.randomMessage();
+        payloadService.addPendingMessage(message1);
+        payloadService.finalizedMessages(List.of(message1));
+        payloadService.finalizedMessages(List.of(message2));
+
+        payloadService.addPendingMessage(message1);
+        payloadService.addPendingMessage(message2);
+        assertNull(payloadService.getNextPayload(new HashSet<>()));
+
+        // Only the most recent finalizations are remembered
+        payloadService.finalizedMessages(List.of(message3));
+        payloadService.addPendingMessage(message1);
+        assertArrayEquals(message1.toBytes(), payloadService.getNextPayload(new HashSet<>()));
+    }
+
+    // Tests that messages in notarized and finalized blocks can be looked up and waited on, and stay finalized
+    @Test
+    public void testMessageStatus() throws Exception {
+        ReflectionTestUtils.setField(payloadService, "finalizedHistorySize", 16);
+        PayloadMessage message1 = TestUtils.randomMessage();
+        PayloadMessage message2 = TestUtils.randomMessage();
+        String id1 = message1.messageId();
+        String id2 = message2.messageId();
+        Block block = new Block(Block.GENESIS_BLOCK.getHash(), 1, PayloadBatch.encode(List.of(message1, message2)));
+        Block conflicting = new Block(Block.GENESIS_BLOCK.getHash(), 2, PayloadBatch.encode(List.of(message1)));
+
+        assertEquals(MessageStatus.State.UNKNOWN, payloadService.getMessageStatus(id1).getState());
+        CompletableFuture<MessageStatus> notarized = payloadService.awaitMessageStatus(id1, MessageStatus.State.NOTARIZED, 10_000);
+        CompletableFuture<MessageStatus> finalized = payloadService.awaitMessageStatus(id1, MessageStatus.State.FINALIZED, 10_000);
+        CompletableFuture<MessageStatus> timedOut = payloadService.awaitMessageStatus(id2, MessageStatus.State.FINALIZED, 50);
+        assertFalse(notarized.isDone());
+
+        payloadService.notarizedBlock(block, 1);
+        MessageStatus status = notarized.get(1, TimeUnit.SECONDS);
+        assertEquals(MessageStatus.State.NOTARIZED, status.getState());
+        assertEquals(1, status.getHeight());
+        assertEquals(1, status.getEpoch());
+        assertEquals(Base64.getEncoder().encodeToString(block.getHash()), status.getBlockHash());
+        assertFalse(finalized.isDone());
+
+        // Times out with the status it has reached so far
+        assertEquals(MessageStatus.State.NOTARIZED, timedOut.get(1, TimeUnit.SECONDS).getState());
+
+        payloadService.finalizedBlock(block, 1);
+        assertEquals(MessageStatus.State.FINALIZED, finalized.get(1, TimeUnit.SECONDS).getState());
+        assertEquals(MessageStatus.State.FINALIZED, payloadService.getMessageStatus(id2).getState());
+        assertTrue(payloadService.awaitMessageStatus(id1, MessageStatus.State.NOTARIZED, 10_000).isDone());
+
+        payloadService.notarizedBlock(conflicting, 2);
+        assertEquals(MessageStatus.State.FINALIZED, payloadService.getMessageStatus(id1).getState());
+        assertEquals(1, payloadService.getMessageStatus(id1).getEpoch());
+    }
+
+    // Tests that only recently finalized messages keep their status, and notarized messages on abandoned forks lose it
+    @Test
+    public void testMessageStatusBounded() throws ParseException {
+        ReflectionTestUtils.setField(payloadService, "finalizedHistorySize", 2);
+        List<PayloadMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 6; i++) messages.add(TestUtils.randomMessage());
+
+        Block block1 = new Block(Block.GENESIS_BLOCK.getHash(), 1, PayloadBatch.encode(messages.subList(0, 2)));
+        Block fork1 = new Block(Block.GENESIS_BLOCK.getHash(), 2, messages.get(2).toBytes());
+        Block fork2 = new Block(fork1.getHash(), 3, messages.get(3).toBytes());
+        Block block2 = new Block(block1.getHash(), 4, messages.get(4).toBytes());
+        payloadService.notarizedBlock(block1, 1);
+        payloadService.notarizedBlock(fork1, 1);
+        payloadService.notarizedBlock(fork2, 2);
+        assertEquals(MessageStatus.State.NOTARIZED, payloadService.getMessageStatus(messages.get(2).messageId()).getState());
+
+        // Finalizing height 1 abandons the fork's block at that height, but not yet the one above it
+        payloadService.finalizedBlock(block1, 1);
+        assertEquals(MessageStatus.State.FINALIZED, payloadService.getMessageStatus(messages.get(0).messageId()).getState());
+        assertEquals(MessageStatus.State.UNKNOWN, payloadService.getMessageStatus(messages.get(2).messageId()).getState());
+        assertEquals(MessageStatus.State.NOTARIZED, payloadService.getMessageStatus(messages.get(3).messageId()).getState());
+
+        payloadService.finalizedBlock(block2, 2);
+        assertEquals(MessageStatus.State.UNKNOWN, payloadService.getMessageStatus(messages.get(3).messageId()).getState());
+        // Notarizations below the finalized height are not recorded at all
+        payloadService.notarizedBlock(new Block(fork2.getHash(), 5, messages.get(5).toBytes()), 2);
+        assertEquals(MessageStatus.State.UNKNOWN, payloadService.getMessageStatus(messages.get(5).messageId()).getState());
+
+        // Only the two most recently finalized messages are remembered
+        assertEquals(MessageStatus.State.UNKNOWN, payloadService.getMessageStatus(messages.get(0).messageId()).getState());
+        assertEquals(MessageStatus.State.FINALIZED, payloadService.getMessageStatus(messages.get(1).messageId()).getState());
+        assertEquals(MessageStatus.State.FINALIZED, payloadService.getMessageStatus(messages.get(4).messageId()).getState());
+    }
+
+    // Tests that finalized block listeners are told about well-formed blocks in order, and cannot break finalization
+    @Test
+    public void testFinalizedBlockListeners() throws ParseException {
+        List<Integer> heights = new ArrayList<>();
+        payloadService.addFinalizedBlockListener((block, height) -> { throw new IllegalStateException("Listener failed."); });
+        payloadService.addFinalizedBlockListener((block, height) -> heights.add(height));
+
+        PayloadMessage message = TestUtils.randomMessage();
+        payloadService.addPendingMessage(message);
+        Block block = new Block(Block.GENESIS_BLOCK.getHash(), 1, message.toBytes());
+        payloadService.finalizedBlock(block, 1);
+        payloadService.finalizedBlock(new Block(block.getHash(), 2, new byte[0]), 2);
+        assertNull(payloadService.getNextPayload(Set.of()));
+
+        Block malformed = new Block(block.getHash(), 3, new byte[] { 42 });
+        assertThrows(ParseException.class, () -> payloadService.finalizedBlock(malformed, 3));
+        assertEquals(List.of(1, 2), heights);
+    }
+
+}
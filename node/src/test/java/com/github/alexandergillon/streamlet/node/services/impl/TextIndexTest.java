@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 Alexander Gillon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.alexandergillon.streamlet.node.services.impl;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextIndexTest {
+
+    // Tests that text is split into lower-case runs of letters and digits
+    @Test
+    public void testTokenize() {
+        assertEquals(List.of("hello", "world", "42"), TextIndex.tokenize("Hello, WORLD! 42"));
+        assertEquals(List.of("naïve", "café", "日本語"), TextIndex.tokenize("  naïve--Café...日本語 "));
+        assertEquals(List.of(), TextIndex.tokenize(" ?! "));
+    }
+
+    // Tests that a search for one term finds exactly the documents containing it, including after long gaps
+    @RepeatedTest(10)
+    public void testPostings() {
+        TextIndex textIndex = new TextIndex();
+        List<Integer> withTerm = new ArrayList<>();
+        int numDocuments = ThreadLocalRandom.current().nextInt(1000, 50000);
+        for (int i = 0; i < numDocuments; i++) {
+            // Mostly sparse, so that gaps need several bytes, with occasional runs of adjacent documents
+            boolean hasTerm = ThreadLocalRandom.current().nextInt(i % 5000 < 10 ? 2 : 2000) == 0;
+            textIndex.add(i, hasTerm ? "some needle text" : "some other text");
+            if (hasTerm) withTerm.add(i);
+        }
+
+        // Equal scores, so newest first
+        Collections.reverse(withTerm);
+        assertEquals(withTerm, documents(textIndex.search("needle", numDocuments)));
+        assertEquals(numDocuments, textIndex.size());
+        assertEquals(List.of(), textIndex.search("missing", 10));
+    }
+
+    // Tests that documents are ranked by term frequency, document length, rarity of terms and number of terms matched
+    @Test
+    public void testRanking() {
+        TextIndex textIndex = new TextIndex();
+        textIndex.add(0, "the cat sat on the mat");
+        textIndex.add(1, "the dog sat on the log");
+        textIndex.add(2, "cat cat cat");
+        textIndex.add(3, "a dog");
+        textIndex.add(4, "a platypus");
+        textIndex.add(5, "the dog ran");
+        textIndex.add(6, "nothing relevant at all");
+
+        assertEquals(List.of(2, 0), documents(textIndex.search("cat", 10)));
+        // platypus is rarer than dog, and shorter documents rank higher
+        assertEquals(List.of(4, 3, 5, 1), documents(textIndex.search("dog platypus", 10)));
+        // Matching both terms beats matching either
+        assertEquals(0, textIndex.search("cat mat", 10).get(0).document());
+        assertEquals(List.of(2), documents(textIndex.search("CAT", 1)));
+    }
+
+    // Tests that a search limited to the first documents is unaffected by documents added after them
+    @Test
+    public void testMaxDocument() {
+        TextIndex textIndex = new TextIndex();
+        textIndex.add(0, "the cat sat on the mat");
+        textIndex.add(1, "cat cat cat");
+        textIndex.add(2, "a dog");
+        List<TextIndex.Hit> before = textIndex.search("cat dog", 10);
+
+        textIndex.add(3, "cat");
+        textIndex.add(4, "dog dog");
+        textIndex.add(5, "cat and dog");
+        assertEquals(before, textIndex.search("cat dog", 10, 3));
+        assertEquals(List.of(1), documents(textIndex.search("cat", 10, 2).subList(0, 1)));
+        assertEquals(List.of(), textIndex.search("cat", 10, 0));
+        assertEquals(6, textIndex.search("cat dog", 10).size());
+        assertThrows(IllegalArgumentException.class, () -> textIndex.search("cat", 10, 7));
+    }
+
+    // Tests that documents must be added in order
+    @Test
+    public void testOutOfOrder() {
+        TextIndex textIndex = new TextIndex();
+        textIndex.add(0, "first");
+        assertThrows(IllegalArgumentException.class, () -> textIndex.add(2, "third"));
+        assertThrows(IllegalArgumentException.class, () -> textIndex.add(0, "again"));
+    }
+
+    private static List<Integer> documents(List<TextIndex.Hit> hits) {
+        return hits.stream().map(TextIndex.Hit::document).toList();
+    }
+
+}
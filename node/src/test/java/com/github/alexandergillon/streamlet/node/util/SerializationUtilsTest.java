@@ -21,6 +21,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.alexandergillon.streamlet.node.TestUtils;
 import com.github.alexandergillon.streamlet.node.blockchain.Block;
+import com.github.alexandergillon.streamlet.node.models.PayloadBatch;
 import com.github.alexandergillon.streamlet.node.models.PayloadMessage;
 import com.github.alexandergillon.streamlet.node.models.ProposeMessage;
 import com.github.alexandergillon.streamlet.node.models.VoteMessage;
@@ -110,11 +111,11 @@ class SerializationUtilsTest {
 
         String text = SerializationUtils.blockListMessagesToReadableText(List.of(block0, block1, block2, block3, block4));
         List<String> lines = text.lines().toList();
-        assertEquals(PayloadMessage.fromStringBytes(block0.getPayload()).toString(), lines.get(0));
-        assertEquals(PayloadMessage.fromStringBytes(block1.getPayload()).toString(), lines.get(1));
-        assertEquals(PayloadMessage.fromStringBytes(block2.getPayload()).toString(), lines.get(2));
-        assertEquals(PayloadMessage.fromStringBytes(block3.getPayload()).toString(), lines.get(3));
-        assertEquals(PayloadMessage.fromStringBytes(block4.getPayload()).toString(), lines.get(4));
+        assertEquals(PayloadMessage.fromBytes(block0.getPayload()).toString(), lines.get(0));
+        assertEquals(PayloadMessage.fromBytes(block1.getPayload()).toString(), lines.get(1));
+        assertEquals(PayloadMessage.fromBytes(block2.getPayload()).toString(), lines.get(2));
+        assertEquals(PayloadMessage.fromBytes(block3.getPayload()).toString(), lines.get(3));
+        assertEquals(PayloadMessage.fromBytes(block4.getPayload()).toString(), lines.get(4));
     }
 
     // Tests that block lists are correctly converted to JSON
@@ -137,11 +138,29 @@ class SerializationUtilsTest {
         PayloadMessage jsonMessage3 = objectMapper.treeToValue(jsonNode.get(3), PayloadMessage.class);
         PayloadMessage jsonMessage4 = objectMapper.treeToValue(jsonNode.get(4), PayloadMessage.class);
 
-        assertEquals(jsonMessage0, PayloadMessage.fromStringBytes(block0.getPayload()));
-        assertEquals(jsonMessage1, PayloadMessage.fromStringBytes(block1.getPayload()));
-        assertEquals(jsonMessage2, PayloadMessage.fromStringBytes(block2.getPayload()));
-        assertEquals(jsonMessage3, PayloadMessage.fromStringBytes(block3.getPayload()));
-        assertEquals(jsonMessage4, PayloadMessage.fromStringBytes(block4.getPayload()));
+        assertEquals(jsonMessage0, PayloadMessage.fromBytes(block0.getPayload()));
+        assertEquals(jsonMessage1, PayloadMessage.fromBytes(block1.getPayload()));
+        assertEquals(jsonMessage2, PayloadMessage.fromBytes(block2.getPayload()));
+        assertEquals(jsonMessage3, PayloadMessage.fromBytes(block3.getPayload()));
+        assertEquals(jsonMessage4, PayloadMessage.fromBytes(block4.getPayload()));
     }
 
-}
\ No newline at end of file
+    // Tests that batched blocks are expanded into their messages, and that empty (genesis) payloads have none
+    @Test
+    public void testBatchedBlockListToJsonAndText() throws JsonProcessingException, ParseException {
+        List<PayloadMessage> messages = List.of(TestUtils.randomMessage(), TestUtils.randomMessage(), TestUtils.randomMessage());
+        Block batchedBlock = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages.subList(0, 2)));
+        Block singleBlock = TestUtils.getRandomBlockWithPayload(PayloadBatch.encode(messages.subList(2, 3)));
+        List<Block> blockList = List.of(Block.GENESIS_BLOCK, batchedBlock, singleBlock);
+
+        JsonNode jsonNode = objectMapper.readTree(SerializationUtils.blockListMessagesToJson(blockList));
+        assertEquals(3, jsonNode.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(messages.get(i), objectMapper.treeToValue(jsonNode.get(i), PayloadMessage.class));
+        }
+
+        List<String> lines = SerializationUtils.blockListMessagesToReadableText(blockList).lines().toList();
+        assertEquals(messages.stream().map(PayloadMessage::toString).toList(), lines);
+    }
+
+}